@@ -3,9 +3,11 @@ package com.EsiMediaG03;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.data.mongodb.repository.config.EnableMongoRepositories;
+import org.springframework.scheduling.annotation.EnableScheduling;
 
 @SpringBootApplication
 @EnableMongoRepositories(basePackages = "com.EsiMediaG03.dao")
+@EnableScheduling
 public class EsiMediaContenidosG03Application {
 
 	public static void main(String[] args) {
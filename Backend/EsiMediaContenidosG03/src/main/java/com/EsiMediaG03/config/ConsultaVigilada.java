@@ -0,0 +1,6 @@
+package com.EsiMediaG03.config;
+
+import org.bson.Document;
+
+/** Forma de una consulta del servicio; la autocomprobación pide su plan con explain. */
+public record ConsultaVigilada(String nombre, Class<?> entidad, Document filtro, Document orden) {}
@@ -0,0 +1,39 @@
+package com.EsiMediaG03.config;
+
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.index.Index;
+
+/**
+ * Índice que el módulo necesita. El nombre es el que Mongo genera por defecto a
+ * partir de las claves, así que declarar un índice ya existente no crea otro.
+ * uso documenta qué consulta lo necesita.
+ */
+public record IndiceDeclarado(Class<?> entidad, Document claves, boolean unico, String uso) {
+
+    public static IndiceDeclarado de(Class<?> entidad, Document claves, String uso) {
+        return new IndiceDeclarado(entidad, claves, false, uso);
+    }
+
+    public static IndiceDeclarado unico(Class<?> entidad, Document claves, String uso) {
+        return new IndiceDeclarado(entidad, claves, true, uso);
+    }
+
+    public String nombre() {
+        StringBuilder sb = new StringBuilder();
+        for (Map.Entry<String, Object> e : claves.entrySet()) {
+            if (sb.length() > 0) sb.append('_');
+            sb.append(e.getKey()).append('_').append(e.getValue());
+        }
+        return sb.toString();
+    }
+
+    public Index toIndex() {
+        Index index = new Index().named(nombre());
+        claves.forEach((campo, dir) -> index.on(campo,
+                ((Number) dir).intValue() < 0 ? Sort.Direction.DESC : Sort.Direction.ASC));
+        return unico ? index.unique() : index;
+    }
+}
@@ -0,0 +1,106 @@
+package com.EsiMediaG03.config;
+
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoFavorito;
+import com.EsiMediaG03.model.ContenidoReproductor;
+import com.EsiMediaG03.model.ListaPublica;
+import com.EsiMediaG03.model.ReproduccionesTramo;
+
+/**
+ * Registro declarativo de los índices de contenidos, relaciones y listas, y de
+ * las consultas que deben resolverse con ellos. Añadir una consulta nueva al
+ * servicio implica declarar aquí su índice y su forma.
+ */
+@Component
+public class IndicesContenidos {
+
+    private static final String CONTENIDO_ID = "contenidoId";
+    private static final String USER_EMAIL = "userEmail";
+    private static final String FECHA_ESTADO = "fechaEstado";
+    private static final String VISIBLE = "visible";
+    private static final String RESTRINGIDO_EDAD = "restringidoEdad";
+    private static final String DISPONIBLE_HASTA = "disponibleHasta";
+    private static final String RATING_BAYES = "ratingBayes";
+    private static final String REPRODUCCIONES = "reproducciones";
+    private static final String EJEMPLO_EMAIL = "indices@esimedia.local";
+    private static final String EJEMPLO_ID = "000000000000000000000000";
+
+    private static final List<IndiceDeclarado> INDICES = List.of(
+            IndiceDeclarado.unico(ContenidoReproductor.class,
+                    new Document(CONTENIDO_ID, 1).append(USER_EMAIL, 1),
+                    "relación única de reproducción; puerta de valoración y borrado por contenido"),
+            IndiceDeclarado.unico(ContenidoFavorito.class,
+                    new Document(CONTENIDO_ID, 1).append(USER_EMAIL, 1),
+                    "relación única de favorito; borrado por contenido"),
+            IndiceDeclarado.de(ContenidoFavorito.class,
+                    new Document(USER_EMAIL, 1).append("fecha", -1),
+                    "listFavoritosIds"),
+            IndiceDeclarado.de(Contenido.class,
+                    new Document(FECHA_ESTADO, -1).append("_id", -1),
+                    "catálogo paginado"),
+            IndiceDeclarado.de(Contenido.class,
+                    new Document(VISIBLE, 1).append("vip", 1).append(FECHA_ESTADO, -1).append("_id", -1)
+                            .append(RESTRINGIDO_EDAD, 1).append(DISPONIBLE_HASTA, 1),
+                    "catálogo reproducible para usuarios no VIP"),
+            IndiceDeclarado.de(Contenido.class,
+                    new Document(VISIBLE, 1).append(FECHA_ESTADO, -1).append("_id", -1)
+                            .append(RESTRINGIDO_EDAD, 1).append(DISPONIBLE_HASTA, 1),
+                    "catálogo reproducible para usuarios VIP"),
+            IndiceDeclarado.de(Contenido.class,
+                    new Document(REPRODUCCIONES, -1),
+                    "top por reproducciones"),
+            IndiceDeclarado.de(Contenido.class,
+                    new Document(RATING_BAYES, -1),
+                    "top por valoraciones (media bayesiana)"),
+            IndiceDeclarado.de(ListaPublica.class,
+                    new Document("publica", 1),
+                    "findByPublicaTrue"),
+            IndiceDeclarado.de(ListaPublica.class,
+                    new Document("contenidosIds", 1),
+                    "findByContenidosIds"),
+            IndiceDeclarado.de(ListaPublica.class,
+                    new Document(USER_EMAIL, 1),
+                    "findByUserEmail"),
+            IndiceDeclarado.de(ReproduccionesTramo.class,
+                    new Document("granularidad", 1).append("inicio", 1),
+                    "carga de tendencias y purga de tramos caducados"));
+
+    public List<IndiceDeclarado> indices() {
+        return INDICES;
+    }
+
+    public List<ConsultaVigilada> consultas() {
+        Document porFecha = new Document(FECHA_ESTADO, -1).append("_id", -1);
+        return List.of(
+                new ConsultaVigilada("catalogo", Contenido.class, new Document(), porFecha),
+                new ConsultaVigilada("catalogoReproducible", Contenido.class,
+                        new Document(VISIBLE, true).append("vip", false)
+                                .append(RESTRINGIDO_EDAD, new Document("$lte", 0))
+                                .append("$or", List.of(new Document(DISPONIBLE_HASTA, null),
+                                        new Document(DISPONIBLE_HASTA, new Document("$gt", new Date())))),
+                        porFecha),
+                new ConsultaVigilada("topReproducciones", Contenido.class,
+                        new Document(), new Document(REPRODUCCIONES, -1)),
+                new ConsultaVigilada("topValoraciones", Contenido.class,
+                        new Document(RATING_BAYES, new Document("$gt", 0)),
+                        new Document(RATING_BAYES, -1)),
+                new ConsultaVigilada("relacionReproductor", ContenidoReproductor.class,
+                        new Document(CONTENIDO_ID, EJEMPLO_ID).append(USER_EMAIL, EJEMPLO_EMAIL), null),
+                new ConsultaVigilada("favoritosDeUsuario", ContenidoFavorito.class,
+                        new Document(USER_EMAIL, EJEMPLO_EMAIL), new Document("fecha", -1)),
+                new ConsultaVigilada("listasPublicas", ListaPublica.class,
+                        new Document("publica", true), null),
+                new ConsultaVigilada("listasPorContenido", ListaPublica.class,
+                        new Document("contenidosIds", EJEMPLO_ID), null),
+                new ConsultaVigilada("listasPorUsuario", ListaPublica.class,
+                        new Document(USER_EMAIL, EJEMPLO_EMAIL), null),
+                new ConsultaVigilada("tramosTendencias", ReproduccionesTramo.class,
+                        new Document("granularidad", "HORA").append("inicio", new Document("$gte", new Date())), null));
+    }
+}
@@ -0,0 +1,147 @@
+package com.EsiMediaG03.config;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+
+import com.mongodb.MongoException;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Aplica el registro de IndicesContenidos: crea los índices al arrancar (crear uno
+ * que ya existe no hace nada), compara los existentes con los declarados y pide
+ * el plan de cada consulta vigilada para avisar de las que acaban en COLLSCAN.
+ */
+@Configuration
+public class MongoIndexesConfig {
+
+    private static final Logger log = LoggerFactory.getLogger(MongoIndexesConfig.class);
+    private static final String COLLSCAN = "COLLSCAN";
+
+    private final MongoTemplate template;
+    private final boolean autocomprobacion;
+    private final List<IndiceDeclarado> indices;
+    private final List<ConsultaVigilada> consultas;
+    private final Map<String, String> fallos = new LinkedHashMap<>();
+
+    public MongoIndexesConfig(MongoTemplate template, IndicesContenidos registro,
+                              @Value("${contenidos.indices.autocomprobacion:true}") boolean autocomprobacion) {
+        this.template = template;
+        this.autocomprobacion = autocomprobacion;
+        this.indices = registro.indices();
+        this.consultas = registro.consultas();
+    }
+
+    /** Se ejecuta antes de servir peticiones y antes de la migración de relaciones. */
+    @PostConstruct
+    public void ensureIndexes() {
+        for (IndiceDeclarado i : indices) {
+            try {
+                template.indexOps(i.entidad()).createIndex(i.toIndex());
+            } catch (DataAccessException ex) {
+                // p. ej. un índice con el mismo nombre y otras opciones, o duplicados en uno único
+                String clave = template.getCollectionName(i.entidad()) + "." + i.nombre();
+                fallos.put(clave, ex.getMostSpecificCause().getMessage());
+                log.error("No se pudo crear el índice {}: {}", clave, ex.getMostSpecificCause().getMessage());
+            }
+        }
+        if (!autocomprobacion) return;
+        try {
+            Map<String, Object> deriva = deriva();
+            if (!deriva.isEmpty()) log.warn("Los índices no coinciden con los declarados: {}", deriva);
+            List<String> scans = consultasConCollscan();
+            if (!scans.isEmpty()) log.warn("Consultas que recorren la colección entera: {}", scans);
+        } catch (DataAccessException | MongoException ex) {
+            log.warn("No se pudo completar la autocomprobación de índices: {}", ex.toString());
+        }
+    }
+
+    /**
+     * Por colección: declarados que faltan, existentes con otras claves u opciones
+     * y existentes que nadie declara (salvo _id). Vacío si todo coincide.
+     */
+    public Map<String, Object> deriva() {
+        Map<String, List<IndiceDeclarado>> porColeccion = new LinkedHashMap<>();
+        for (IndiceDeclarado i : indices) {
+            porColeccion.computeIfAbsent(template.getCollectionName(i.entidad()), k -> new ArrayList<>()).add(i);
+        }
+        Map<String, Object> resultado = new LinkedHashMap<>();
+        porColeccion.forEach((coleccion, declarados) -> {
+            Map<String, IndexInfo> existentes = new HashMap<>();
+            for (IndexInfo info : template.indexOps(coleccion).getIndexInfo()) existentes.put(info.getName(), info);
+
+            List<String> faltan = new ArrayList<>();
+            List<String> distintos = new ArrayList<>();
+            for (IndiceDeclarado d : declarados) {
+                IndexInfo info = existentes.remove(d.nombre());
+                if (info == null) faltan.add(d.nombre());
+                else if (!claves(info).equals(d.claves()) || info.isUnique() != d.unico()) distintos.add(d.nombre());
+            }
+            existentes.remove("_id_");
+
+            Map<String, Object> c = new LinkedHashMap<>();
+            if (!faltan.isEmpty()) c.put("faltan", faltan);
+            if (!distintos.isEmpty()) c.put("distintos", distintos);
+            if (!existentes.isEmpty()) c.put("sobrantes", new ArrayList<>(existentes.keySet()));
+            if (!c.isEmpty()) resultado.put(coleccion, c);
+        });
+        return resultado;
+    }
+
+    /** Nombres de las consultas vigiladas cuyo plan ganador incluye un COLLSCAN. */
+    public List<String> consultasConCollscan() {
+        List<String> scans = new ArrayList<>();
+        for (ConsultaVigilada c : consultas) {
+            Document find = new Document("find", template.getCollectionName(c.entidad())).append("filter", c.filtro());
+            if (c.orden() != null) find.append("sort", c.orden());
+            Document explain = template.getDb().runCommand(
+                    new Document("explain", find).append("verbosity", "queryPlanner"));
+            Object planner = explain.get("queryPlanner");
+            Object ganador = planner instanceof Document d ? d.get("winningPlan") : null;
+            if (contieneEtapa(ganador, COLLSCAN)) scans.add(c.nombre());
+        }
+        return scans;
+    }
+
+    public Map<String, Object> informe() {
+        Map<String, Object> m = new LinkedHashMap<>();
+        m.put("declarados", indices.size());
+        m.put("fallosCreacion", fallos);
+        m.put("deriva", deriva());
+        m.put("collscan", consultasConCollscan());
+        return m;
+    }
+
+    /** Recorre el plan (inputStage, inputStages, queryPlan...) buscando la etapa. */
+    public static boolean contieneEtapa(Object plan, String etapa) {
+        if (plan instanceof Document d) {
+            if (etapa.equals(d.get("stage"))) return true;
+            for (Object v : d.values()) if (contieneEtapa(v, etapa)) return true;
+        } else if (plan instanceof List<?> l) {
+            for (Object v : l) if (contieneEtapa(v, etapa)) return true;
+        }
+        return false;
+    }
+
+    private static Document claves(IndexInfo info) {
+        Document d = new Document();
+        for (IndexField f : info.getIndexFields()) {
+            d.append(f.getKey(), f.getDirection() == Sort.Direction.DESC ? -1 : 1);
+        }
+        return d;
+    }
+}
@@ -0,0 +1,20 @@
+package com.EsiMediaG03.config;
+
+import java.util.List;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.converter.HttpMessageConverter;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import com.EsiMediaG03.http.FileRegionHttpMessageConverter;
+import com.EsiMediaG03.http.MultipartFileRegionsHttpMessageConverter;
+
+@Configuration
+public class WebConfig implements WebMvcConfigurer {
+
+    @Override
+    public void extendMessageConverters(List<HttpMessageConverter<?>> converters) {
+        converters.add(0, new FileRegionHttpMessageConverter());
+        converters.add(1, new MultipartFileRegionsHttpMessageConverter());
+    }
+}
@@ -0,0 +1,37 @@
+package com.EsiMediaG03.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.Base64;
+
+/**
+ * Posición en el catálogo ordenado por (fechaEstado, _id) descendente. Se entrega
+ * al cliente como texto opaco y la siguiente página empieza justo después.
+ * Un contenido sin fechaEstado (ordenado al final) se codifica con la fecha vacía.
+ */
+public record CursorCatalogo(LocalDateTime fechaEstado, String id) {
+
+    private static final char SEPARADOR = '|';
+
+    public static CursorCatalogo tras(TarjetaContenido t) {
+        return new CursorCatalogo(t.fechaEstado(), t.id());
+    }
+
+    public String codificar() {
+        String plano = (fechaEstado != null ? fechaEstado.toString() : "") + SEPARADOR + id;
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(plano.getBytes(StandardCharsets.UTF_8));
+    }
+
+    public static CursorCatalogo decodificar(String cursor) {
+        try {
+            String plano = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+            int sep = plano.indexOf(SEPARADOR);
+            if (sep < 0 || sep == plano.length() - 1) throw new IllegalArgumentException("Cursor no válido");
+            LocalDateTime fecha = sep == 0 ? null : LocalDateTime.parse(plano.substring(0, sep));
+            return new CursorCatalogo(fecha, plano.substring(sep + 1));
+        } catch (DateTimeParseException ex) {
+            throw new IllegalArgumentException("Cursor no válido", ex);
+        }
+    }
+}
@@ -0,0 +1,10 @@
+package com.EsiMediaG03.dto;
+
+import java.nio.file.Path;
+
+public record FileRegion(Path path, long position, long count) {
+
+    public static FileRegion whole(Path path, long length) {
+        return new FileRegion(path, 0L, length);
+    }
+}
@@ -0,0 +1,43 @@
+package com.EsiMediaG03.dto;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.Period;
+import java.time.format.DateTimeParseException;
+
+/**
+ * Perfil de quien lista el catálogo, con las mismas cabeceras que la reproducción
+ * (X-User-Vip y X-User-Age / X-User-Birthdate). Edad null = no verificada.
+ */
+public record FiltroAcceso(boolean vip, Integer edad) {
+
+    public static FiltroAcceso deCabeceras(Boolean vip, String fechaNacimientoIso, Integer edad) {
+        return new FiltroAcceso(Boolean.TRUE.equals(vip), edad(fechaNacimientoIso, edad));
+    }
+
+    /**
+     * Edad a partir de X-User-Age o, si no viene, de X-User-Birthdate (ISO). Es la
+     * única interpretación de esas cabeceras, también para la reproducción.
+     */
+    public static Integer edad(String fechaNacimientoIso, Integer edadDirecta) {
+        if (edadDirecta != null && edadDirecta > 0) return edadDirecta;
+        if (fechaNacimientoIso == null || fechaNacimientoIso.isBlank()) return null;
+        try {
+            return Period.between(LocalDate.parse(fechaNacimientoIso), LocalDate.now()).getYears();
+        } catch (DateTimeParseException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Por qué no podría reproducir la tarjeta (null si puede): las mismas reglas que
+     * ContenidoService.criterioReproducible, evaluadas en memoria.
+     */
+    public String motivoBloqueo(TarjetaContenido t, LocalDateTime now) {
+        if (!t.visible()) return "NO_VISIBLE";
+        if (t.disponibleHasta() != null && !t.disponibleHasta().isAfter(now)) return "CADUCADO";
+        if (t.vip() && !vip) return "VIP";
+        if (t.restringidoEdad() > 0 && (edad == null || edad < t.restringidoEdad())) return "EDAD";
+        return null;
+    }
+}
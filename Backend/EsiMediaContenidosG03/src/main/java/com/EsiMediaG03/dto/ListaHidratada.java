@@ -0,0 +1,17 @@
+package com.EsiMediaG03.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+/**
+ * Una ventana de posiciones de una lista con sus tarjetas ya resueltas. siguiente es
+ * la posición desde la que pedir la próxima ventana, o null si no quedan más.
+ */
+public record ListaHidratada(String id, String nombre, String descripcion, String userEmail, boolean publica,
+                             LocalDateTime fechaCreacion, int total, int desde, List<Elemento> elementos,
+                             Integer siguiente) {
+
+    /** tarjeta es null si el contenido ya no existe; motivo es null si se puede reproducir. */
+    public record Elemento(int posicion, String contenidoId, TarjetaContenido tarjeta, boolean reproducible,
+                           String motivo) {}
+}
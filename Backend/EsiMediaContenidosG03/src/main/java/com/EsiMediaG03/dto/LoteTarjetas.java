@@ -0,0 +1,6 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+
+/** Tarjetas en el orden pedido; noEncontrados son los ids que no existen. */
+public record LoteTarjetas(List<TarjetaContenido> tarjetas, List<String> noEncontrados) {}
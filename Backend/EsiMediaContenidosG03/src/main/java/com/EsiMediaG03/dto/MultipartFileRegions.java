@@ -0,0 +1,28 @@
+package com.EsiMediaG03.dto;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.List;
+
+public record MultipartFileRegions(Path path, long fileSize, String partContentType,
+                                   String boundary, List<FileRegion> regions) {
+
+    public String partHeader(FileRegion region) {
+        return "\r\n--" + boundary + "\r\n"
+                + "Content-Type: " + partContentType + "\r\n"
+                + "Content-Range: bytes " + region.position() + "-"
+                + (region.position() + region.count() - 1) + "/" + fileSize + "\r\n\r\n";
+    }
+
+    public String closingDelimiter() {
+        return "\r\n--" + boundary + "--\r\n";
+    }
+
+    public long contentLength() {
+        long total = closingDelimiter().getBytes(StandardCharsets.US_ASCII).length;
+        for (FileRegion r : regions) {
+            total += partHeader(r).getBytes(StandardCharsets.US_ASCII).length + r.count();
+        }
+        return total;
+    }
+}
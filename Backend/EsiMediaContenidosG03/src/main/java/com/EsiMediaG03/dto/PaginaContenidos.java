@@ -0,0 +1,6 @@
+package com.EsiMediaG03.dto;
+
+import java.util.List;
+
+/** Página del catálogo; siguiente es null cuando no quedan más. */
+public record PaginaContenidos(List<TarjetaContenido> items, String siguiente) {}
@@ -3,14 +3,34 @@ package com.EsiMediaG03.dto;
 import java.nio.file.Path;
 
 public record StreamingTarget(Path path, long length, String mimeType,
-                              boolean externalRedirect, String externalUrl) {
+                              boolean externalRedirect, String externalUrl,
+                              String resolucion, long duracionSegundos, long lastModified) {
+
+    public StreamingTarget(Path path, long length, String mimeType,
+                           boolean externalRedirect, String externalUrl) {
+        this(path, length, mimeType, externalRedirect, externalUrl, null, 0L, 0L);
+    }
 
     public static StreamingTarget local(Path path, long length, String mimeType) {
         return new StreamingTarget(path, length, mimeType, false, null);
     }
+    public static StreamingTarget local(Path path, long length, long lastModified, String mimeType) {
+        return new StreamingTarget(path, length, mimeType, false, null, null, 0L, lastModified);
+    }
     public static StreamingTarget external(String url, String mimeType) {
         return new StreamingTarget(null, -1, mimeType, true, url);
     }
 
+    public StreamingTarget conMedia(String resolucion, long duracionSegundos) {
+        return new StreamingTarget(path, length, mimeType, externalRedirect, externalUrl,
+                resolucion, duracionSegundos, lastModified);
+    }
+
     public boolean isExternalRedirect() { return externalRedirect; }
+
+    /** ETag fuerte derivado de tamaño y fecha de modificación; null si no se conoce la fecha. */
+    public String etag() {
+        if (externalRedirect || lastModified <= 0) return null;
+        return "\"" + Long.toHexString(length) + "-" + Long.toHexString(lastModified) + "\"";
+    }
 }
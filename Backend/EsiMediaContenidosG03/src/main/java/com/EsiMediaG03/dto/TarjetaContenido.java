@@ -0,0 +1,28 @@
+package com.EsiMediaG03.dto;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import com.EsiMediaG03.model.Contenido;
+
+/** Lo que necesita un listado para pintar un contenido, sin rutas de medios ni relaciones. */
+public record TarjetaContenido(String id, String titulo, String descripcion, Contenido.Tipo tipo, String imagen,
+                               List<String> tags, int duracionMinutos, String resolucion, boolean vip,
+                               boolean visible, int restringidoEdad, LocalDateTime fechaEstado,
+                               LocalDateTime disponibleHasta, long reproducciones, double ratingAvg,
+                               int ratingCount, double ratingBayes, String userEmail) {
+
+    /** Campos de Mongo que se proyectan para construir la tarjeta. */
+    public static final String[] CAMPOS = {
+            "titulo", "descripcion", "tipo", "imagen", "tags", "duracionMinutos", "resolucion", "vip",
+            "visible", "restringidoEdad", "fechaEstado", "disponibleHasta", "reproducciones", "ratingAvg",
+            "ratingCount", "ratingBayes", "userEmail"
+    };
+
+    public static TarjetaContenido de(Contenido c) {
+        return new TarjetaContenido(c.getId(), c.getTitulo(), c.getDescripcion(), c.getTipo(), c.getImagen(),
+                c.getTags(), c.getDuracionMinutos(), c.getResolucion(), c.isVip(), c.isVisible(),
+                c.getRestringidoEdad(), c.getFechaEstado(), c.getDisponibleHasta(), c.getNumReproducciones(),
+                c.getRatingAvg(), c.getRatingCount(), c.getRatingBayes(), c.getUserEmail());
+    }
+}
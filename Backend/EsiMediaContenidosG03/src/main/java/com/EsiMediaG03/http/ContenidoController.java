@@ -1,18 +1,24 @@
 package com.EsiMediaG03.http;
 
-import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 import java.net.URI;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
-import org.springframework.core.io.InputStreamResource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpRange;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.util.MimeTypeUtils;
 import org.springframework.util.StringUtils;
 import org.springframework.web.bind.annotation.CrossOrigin;
 import org.springframework.web.bind.annotation.DeleteMapping;
@@ -24,23 +30,68 @@ import org.springframework.web.bind.annotation.RequestBody;
 import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+import org.springframework.web.util.UriUtils;
 
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.FiltroAcceso;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.MultipartFileRegions;
 import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.dto.TarjetaContenido;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+
+import jakarta.servlet.http.HttpServletRequest;
+
 @RestController
 @RequestMapping("Contenidos")
 @CrossOrigin(origins = "http://localhost:4200")
 public class ContenidoController {
 
-    private static final long DEFAULT_CHUNK_SIZE = 1024L * 1024L;
+    private static final String ROUND_TRIPS_SAVED_HEADER = "X-Round-Trips-Saved";
+    private static final String SENDFILE_SUPPORT_ATTR = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME_ATTR = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START_ATTR = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END_ATTR = "org.apache.tomcat.sendfile.end";
+    private static final String PROXY_X_ACCEL_REDIRECT = "x-accel-redirect";
+    private static final String PROXY_X_SENDFILE = "x-sendfile";
+    private static final int NDJSON_FLUSH_CADA = 100;
+    private static final ObjectMapper NDJSON = JsonMapper.builder()
+            .addModule(new JavaTimeModule())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .build();
+
     private final ContenidoService contenidoService;
+    private final RangePolicy rangePolicy;
+
+    @Value("${contenidos.streaming.sendfile.enabled:true}")
+    private boolean sendfileEnabled = true;
+
+    @Value("${contenidos.streaming.sendfile.min-bytes:49152}")
+    private long sendfileMinBytes = 48L * 1024L;
+
+    @Value("${contenidos.streaming.proxy.mode:none}")
+    private String proxyMode = "none";
+
+    @Value("${contenidos.streaming.proxy.internal-prefix:/media-interno}")
+    private String proxyInternalPrefix = "/media-interno";
 
-    public ContenidoController(ContenidoService contenidoService) {
+    @Value("${contenidos.streaming.proxy.media-root:}")
+    private String proxyMediaRoot = "";
+
+    public ContenidoController(ContenidoService contenidoService, RangePolicy rangePolicy) {
         this.contenidoService = contenidoService;
+        this.rangePolicy = rangePolicy;
     }
 
     @PostMapping("/AnadirContenido")
@@ -55,6 +106,56 @@ public class ContenidoController {
         return ResponseEntity.ok(lista);
     }
 
+    /**
+     * Con reproducibles=true el catálogo se filtra en Mongo con las cabeceras de
+     * perfil de la reproducción: no se envía nada que luego no se pueda reproducir.
+     */
+    @GetMapping(path = "/Catalogo", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> catalogo(
+            @RequestParam(value = "cursor", required = false) String cursor,
+            @RequestParam(value = "limite", defaultValue = "50") int limite,
+            @RequestParam(value = "reproducibles", defaultValue = "false") boolean reproducibles,
+            @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
+            @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
+            @RequestHeader(value = "X-User-Age", required = false) Integer userAge) {
+        FiltroAcceso filtro = reproducibles ? filtroAcceso(userVip, userBirthdateIso, userAge) : null;
+        try {
+            return ResponseEntity.ok(contenidoService.listarCatalogo(cursor, limite, filtro));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", "Cursor no válido"));
+        }
+    }
+
+    /** Mismo catálogo, una tarjeta por línea, escrito según llega del cursor de Mongo. */
+    @GetMapping(path = "/Catalogo", produces = MediaType.APPLICATION_NDJSON_VALUE)
+    public ResponseEntity<StreamingResponseBody> catalogoNdjson(
+            @RequestParam(value = "reproducibles", defaultValue = "false") boolean reproducibles,
+            @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
+            @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
+            @RequestHeader(value = "X-User-Age", required = false) Integer userAge) {
+        FiltroAcceso filtro = reproducibles ? filtroAcceso(userVip, userBirthdateIso, userAge) : null;
+        StreamingResponseBody body = out -> {
+            try (Stream<TarjetaContenido> tarjetas = contenidoService.streamCatalogo(filtro)) {
+                escribirNdjson(tarjetas.iterator(), out);
+            }
+        };
+        return ResponseEntity.ok().contentType(MediaType.APPLICATION_NDJSON).body(body);
+    }
+
+    private FiltroAcceso filtroAcceso(Boolean userVip, String userBirthdateIso, Integer userAge) {
+        return FiltroAcceso.deCabeceras(userVip, userBirthdateIso, userAge);
+    }
+
+    static void escribirNdjson(Iterator<?> items, OutputStream out) throws IOException {
+        int escritos = 0;
+        while (items.hasNext()) {
+            out.write(NDJSON.writeValueAsBytes(items.next()));
+            out.write('\n');
+            if (++escritos == 1 || escritos % NDJSON_FLUSH_CADA == 0) out.flush();
+        }
+        out.flush();
+    }
+
     @GetMapping("/ReproducirContenido/{id}")
     public ResponseEntity<Object> stream(
             @PathVariable String id,
@@ -70,9 +171,6 @@ public class ContenidoController {
 
         StreamingTarget target = contenidoService.resolveStreamingTarget(id, userVip, age);
 
-        contenidoService.registrarReproduccionSiUsuario(id, userRole);
-        contenidoService.registrarReproductor(id, userEmail);
-
         if (Boolean.TRUE.equals(meta)) {
             if (target.isExternalRedirect()) {
                 return ResponseEntity.ok(java.util.Map.of(
@@ -90,7 +188,10 @@ public class ContenidoController {
         }
     
 
+        // solo abren sesión las respuestas que sirven el medio: ni ?meta ni el 304
+        String cliente = clientId(userEmail);
         if (target.isExternalRedirect()) {
+            contenidoService.registrarReproduccion(id, userRole, userEmail, cliente);
             return ResponseEntity.status(HttpStatus.FOUND)
                     .header(HttpHeaders.LOCATION, target.externalUrl())
                     .build();
@@ -100,45 +201,163 @@ public class ContenidoController {
         long fileSize = target.length();
         MediaType mediaType = resolveMediaType(target.mimeType(), file);
 
-        List<HttpRange> ranges = headers.getRange();
+        if (isNotModified(headers, target)) {
+            HttpHeaders h = new HttpHeaders();
+            addValidators(h, target);
+            return new ResponseEntity<>(null, h, HttpStatus.NOT_MODIFIED);
+        }
+        contenidoService.registrarReproduccion(id, userRole, userEmail, cliente);
+
+        String proxyLocation = proxyInternalLocation(file);
+        if (proxyLocation != null) {
+            HttpHeaders h = new HttpHeaders();
+            h.setContentType(mediaType);
+            h.set(proxyHeaderName(), proxyLocation);
+            return new ResponseEntity<>(null, h, HttpStatus.OK);
+        }
+
+        List<HttpRange> ranges = ifRangeMatches(headers, target) ? headers.getRange() : List.of();
         if (ranges.isEmpty()) {
-            HttpHeaders h = commonHeaders(mediaType);
+            HttpHeaders h = mediaHeaders(mediaType, target);
             h.setContentLength(fileSize);
-            InputStreamResource body = new InputStreamResource(Files.newInputStream(file));
-            return new ResponseEntity<>(body, h, HttpStatus.OK);
+            return fileResponse(FileRegion.whole(file, fileSize), h, HttpStatus.OK);
         }
 
-        HttpRange range = ranges.get(0);
+        List<HttpRange> satisfiable = ranges.stream()
+                .filter(r -> isSatisfiable(r, fileSize))
+                .toList();
+        if (satisfiable.isEmpty()) {
+            HttpHeaders h = mediaHeaders(mediaType, target);
+            h.add(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
+            return new ResponseEntity<>(null, h, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        }
+        if (satisfiable.size() > 1) {
+            return multipartResponse(satisfiable, target, mediaType);
+        }
+
+        HttpRange range = satisfiable.get(0);
         long start = range.getRangeStart(fileSize);
         long end = range.getRangeEnd(fileSize);
 
-        if (start >= fileSize || end >= fileSize || start > end) {
-            HttpHeaders h = commonHeaders(mediaType);
-            h.add(HttpHeaders.CONTENT_RANGE, "bytes */" + fileSize);
-            return new ResponseEntity<>(null, h, HttpStatus.REQUESTED_RANGE_NOT_SATISFIABLE);
+        boolean openEnded = isOpenEnded(range);
+        long chunk = rangePolicy.responseLength(target, start, end, openEnded);
+        long saved = rangePolicy.registrarRespuesta(cliente + "|" + id, chunk);
+
+        HttpHeaders h = mediaHeaders(mediaType, target);
+        h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + chunk - 1, fileSize));
+        h.setContentLength(chunk);
+        h.set(ROUND_TRIPS_SAVED_HEADER, Long.toString(saved));
+
+        return fileResponse(new FileRegion(file, start, chunk), h, HttpStatus.PARTIAL_CONTENT);
+    }
+
+    /**
+     * {@code bytes=N-}: el final no depende del rango sino del tamaño y el inicio sí
+     * es fijo (en {@code bytes=-N} el inicio se mueve con el tamaño).
+     */
+    private static boolean isOpenEnded(HttpRange r) {
+        long grande = Long.MAX_VALUE - 1;
+        return r.getRangeEnd(grande) == grande - 1 && r.getRangeStart(grande) == r.getRangeStart(grande - 1);
+    }
+
+    private static boolean isSatisfiable(HttpRange r, long fileSize) {
+        long start = r.getRangeStart(fileSize);
+        long end = r.getRangeEnd(fileSize);
+        return start < fileSize && end < fileSize && start <= end;
+    }
+
+    /**
+     * Varios rangos en una misma petición (p. ej. índice MP4 + primer segmento):
+     * se responde multipart/byteranges en una sola respuesta. Si los rangos
+     * solapados suman más que el propio fichero, se sirve el fichero entero.
+     */
+    private ResponseEntity<Object> multipartResponse(List<HttpRange> ranges, StreamingTarget target,
+                                                     MediaType mediaType) {
+        Path file = target.path();
+        long fileSize = target.length();
+        List<FileRegion> regions = new ArrayList<>(ranges.size());
+        long total = 0;
+        for (HttpRange r : ranges) {
+            long start = r.getRangeStart(fileSize);
+            long count = r.getRangeEnd(fileSize) - start + 1;
+            regions.add(new FileRegion(file, start, count));
+            total += count;
+        }
+        if (total > fileSize) {
+            HttpHeaders h = mediaHeaders(mediaType, target);
+            h.setContentLength(fileSize);
+            return fileResponse(FileRegion.whole(file, fileSize), h, HttpStatus.OK);
         }
 
-        long rangeLength = end - start + 1;
-        long chunk = Math.min(rangeLength, DEFAULT_CHUNK_SIZE);
-
-        try (InputStream is = Files.newInputStream(file)) {
-            long skipped = is.skip(start);
-            while (skipped < start) {
-                long remaining = start - skipped;
-                long additionalSkipped = is.skip(remaining);
-                if (additionalSkipped <= 0) {
-                    throw new java.io.IOException("Unable to skip to the desired position in the stream.");
-                }
-                skipped += additionalSkipped;
-            }
-            InputStreamResource body = new InputStreamResource(new LimitedInputStream(is, chunk));
+        MultipartFileRegions body = new MultipartFileRegions(file, fileSize, mediaType.toString(),
+                MimeTypeUtils.generateMultipartBoundaryString(), regions);
+        HttpHeaders h = new HttpHeaders();
+        h.setContentType(MediaType.parseMediaType("multipart/byteranges; boundary=" + body.boundary()));
+        h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        addValidators(h, target);
+        h.setContentLength(body.contentLength());
+        return new ResponseEntity<>(body, h, HttpStatus.PARTIAL_CONTENT);
+    }
+
+    private String clientId(String userEmail) {
+        String who = userEmail;
+        if (!StringUtils.hasText(who) && RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes sra) {
+            who = sra.getRequest().getRemoteAddr();
+        }
+        return who != null ? who : "anon";
+    }
+
+    private String proxyHeaderName() {
+        return PROXY_X_SENDFILE.equalsIgnoreCase(proxyMode) ? "X-Sendfile" : "X-Accel-Redirect";
+    }
 
-            HttpHeaders h = commonHeaders(mediaType);
-            h.set(HttpHeaders.CONTENT_RANGE, String.format("bytes %d-%d/%d", start, start + chunk - 1, fileSize));
-            h.setContentLength(chunk);
+    /**
+     * En modo proxy la reproducción ya ha pasado las comprobaciones de acceso;
+     * solo se indica al proxy inverso qué fichero debe servir (rangos incluidos).
+     * Devuelve null si el modo está desactivado o el fichero queda fuera de la
+     * raíz de medios, y entonces se sirve desde la propia aplicación.
+     */
+    private String proxyInternalLocation(Path file) {
+        boolean sendfile = PROXY_X_SENDFILE.equalsIgnoreCase(proxyMode);
+        if (!sendfile && !PROXY_X_ACCEL_REDIRECT.equalsIgnoreCase(proxyMode)) return null;
+
+        Path abs = file.toAbsolutePath().normalize();
+        Path root = StringUtils.hasText(proxyMediaRoot)
+                ? Path.of(proxyMediaRoot).toAbsolutePath().normalize() : null;
+        if (root != null && !abs.startsWith(root)) return null;
+        if (sendfile) return abs.toString();
+
+        String relative = root != null ? root.relativize(abs).toString() : abs.toString();
+        relative = relative.replace('\\', '/');
+        while (relative.startsWith("/")) relative = relative.substring(1);
+
+        String prefix = proxyInternalPrefix.endsWith("/") ? proxyInternalPrefix : proxyInternalPrefix + "/";
+        return prefix + UriUtils.encodePath(relative, StandardCharsets.UTF_8);
+    }
 
-            return new ResponseEntity<>(body, h, HttpStatus.PARTIAL_CONTENT);
+    private ResponseEntity<Object> fileResponse(FileRegion region, HttpHeaders h, HttpStatus status) {
+        if (offloadToSendfile(region)) {
+            return new ResponseEntity<>(null, h, status);
         }
+        return new ResponseEntity<>(region, h, status);
+    }
+
+    /**
+     * Si el conector de Tomcat admite sendfile, le cede la región: el hilo de la
+     * petición queda libre y el kernel copia el fichero al socket. Tomcat toma
+     * los atributos al confirmar la respuesta, que debe llevar Content-Length y
+     * no tener cuerpo escrito desde la aplicación.
+     */
+    private boolean offloadToSendfile(FileRegion region) {
+        if (!sendfileEnabled || region.count() < sendfileMinBytes) return false;
+        if (!(RequestContextHolder.getRequestAttributes() instanceof ServletRequestAttributes sra)) return false;
+        HttpServletRequest req = sra.getRequest();
+        if (!Boolean.TRUE.equals(req.getAttribute(SENDFILE_SUPPORT_ATTR))) return false;
+
+        req.setAttribute(SENDFILE_FILENAME_ATTR, region.path().toAbsolutePath().toString());
+        req.setAttribute(SENDFILE_START_ATTR, region.position());
+        req.setAttribute(SENDFILE_END_ATTR, region.position() + region.count());
+        return true;
     }
 
     @RequestMapping(value = "/ReproducirContenido/{id}", method = RequestMethod.HEAD)
@@ -156,6 +375,7 @@ public class ContenidoController {
         h.setContentType(resolveMediaType(target.mimeType(), target.path()));
         h.setContentLength(target.length());
         h.set(HttpHeaders.ACCEPT_RANGES, "bytes");
+        addValidators(h, target);
         return new ResponseEntity<>(h, HttpStatus.OK);
     }
 
@@ -166,6 +386,55 @@ public class ContenidoController {
         return h;
     }
 
+    private HttpHeaders mediaHeaders(MediaType mediaType, StreamingTarget target) {
+        HttpHeaders h = commonHeaders(mediaType);
+        addValidators(h, target);
+        return h;
+    }
+
+    private static void addValidators(HttpHeaders h, StreamingTarget target) {
+        String etag = target.etag();
+        if (etag == null) return;
+        h.setETag(etag);
+        h.setLastModified(target.lastModified());
+    }
+
+    /** If-None-Match manda; If-Modified-Since solo se evalúa cuando no viene If-None-Match. */
+    private static boolean isNotModified(HttpHeaders headers, StreamingTarget target) {
+        String etag = target.etag();
+        if (etag == null) return false;
+        List<String> ifNoneMatch = headers.getIfNoneMatch();
+        if (!ifNoneMatch.isEmpty()) {
+            return ifNoneMatch.stream().anyMatch(tag -> "*".equals(tag) || etag.equals(stripWeak(tag)));
+        }
+        try {
+            long since = headers.getIfModifiedSince();
+            return since >= 0 && target.lastModified() / 1000 <= since / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /** Sin If-Range, o si coincide (ETag fuerte o fecha exacta), se atiende el Range; si no, se sirve completo. */
+    private static boolean ifRangeMatches(HttpHeaders headers, StreamingTarget target) {
+        String ifRange = headers.getFirst(HttpHeaders.IF_RANGE);
+        if (!StringUtils.hasText(ifRange)) return true;
+        String etag = target.etag();
+        if (etag == null) return false;
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            return etag.equals(ifRange.trim());
+        }
+        try {
+            return target.lastModified() / 1000 == headers.getFirstDate(HttpHeaders.IF_RANGE) / 1000;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    private static String stripWeak(String tag) {
+        return tag.startsWith("W/") ? tag.substring(2) : tag;
+    }
+
     @PutMapping("/ModificarContenido/{id}")
     public ResponseEntity<Contenido> modificarContenido(
             @PathVariable String id,
@@ -205,35 +474,8 @@ public class ContenidoController {
         return MediaType.APPLICATION_OCTET_STREAM;
     }
 
-    static class LimitedInputStream extends java.io.FilterInputStream {
-        private long remaining;
-        protected LimitedInputStream(InputStream in, long limit) {
-            super(in);
-            this.remaining = limit;
-        }
-        @Override public int read() throws java.io.IOException {
-            if (remaining <= 0) return -1;
-            int b = super.read();
-            if (b != -1) remaining--;
-            return b;
-        }
-        @Override public int read(byte[] b, int off, int len) throws java.io.IOException {
-            if (remaining <= 0) return -1;
-            len = (int)Math.min(len, remaining);
-            int read = super.read(b, off, len);
-            if (read > 0) remaining -= read;
-            return read;
-        }
-    }
-
     public Integer resolveAge(String birthIso, Integer ageDirect) {
-        if (ageDirect != null && ageDirect > 0) return ageDirect;
-        if (birthIso == null || birthIso.isBlank()) return null;
-        try {
-            return com.EsiMediaG03.services.ContenidoService.calcularEdad(java.time.LocalDate.parse(birthIso));
-        } catch (Exception e) {
-            return null;
-        }
+        return FiltroAcceso.edad(birthIso, ageDirect);
     }
 
     @PostMapping("/ValorarContenido/{id}/{score}")
@@ -252,6 +494,47 @@ public class ContenidoController {
         return ResponseEntity.ok(res);
     }
 
+    /** Valoraciones de toda una rejilla en una petición: ?ids=a,b,c */
+    @GetMapping(path = "/RatingContenidos", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> ratingContenidos(@RequestParam("ids") List<String> ids) {
+        try {
+            return ResponseEntity.ok(contenidoService.ratingResumenes(ids));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+    }
+
+    /** Tarjetas de una lista ordenada de ids (lista pública, favoritos) en una petición. */
+    @PostMapping(path = "/batch", consumes = MediaType.APPLICATION_JSON_VALUE,
+            produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Object> tarjetas(@RequestBody List<String> ids) {
+        try {
+            return ResponseEntity.ok(contenidoService.tarjetas(ids != null ? ids : List.of()));
+        } catch (IllegalArgumentException ex) {
+            return ResponseEntity.badRequest().body(Map.of("error", ex.getMessage()));
+        }
+    }
+
+    @GetMapping("/ReproduccionesContenido/{id}")
+    public ResponseEntity<Map<String, Object>> reproduccionesContenido(@PathVariable String id) {
+        return ResponseEntity.ok(Map.of("reproducciones", contenidoService.reproduccionesTotales(id)));
+    }
+
+    /** Ranking con decaimiento temporal; se sirve de memoria. */
+    @GetMapping(path = "/Tendencias", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<Map<String, List<Map<String, Object>>>> tendencias(
+            @RequestParam(value = "tipo", required = false) Contenido.Tipo tipo,
+            @RequestParam(value = "limite", defaultValue = "10") int limite) {
+        return ResponseEntity.ok(contenidoService.tendencias(tipo, limite));
+    }
+
+    /** Aproximado y en memoria: cada fila trae su cota inferior. */
+    @GetMapping(path = "/Tendencias/Ahora", produces = MediaType.APPLICATION_JSON_VALUE)
+    public ResponseEntity<List<Map<String, Object>>> masReproducidosAhora(
+            @RequestParam(value = "limite", defaultValue = "10") int limite) {
+        return ResponseEntity.ok(contenidoService.masReproducidosAhora(limite));
+    }
+
     @PostMapping(path = "/{id}/favorito", consumes = MediaType.ALL_VALUE, produces = MediaType.APPLICATION_JSON_VALUE)
     public ResponseEntity<Void> addFavorito(
             @PathVariable("id") String contenidoId,
@@ -298,9 +581,7 @@ public class ContenidoController {
     public ResponseEntity<Object> obtenerEstadisticasGlobales(
             @RequestHeader(value = "X-User-Role", required = false) String userRole) {
 
-        if (userRole == null ||
-            !(userRole.equalsIgnoreCase("ADMINISTRADOR") ||
-              userRole.equalsIgnoreCase("GESTOR_CONTENIDO"))) {
+        if (!esAdminOGestor(userRole)) {
             return ResponseEntity.status(HttpStatus.FORBIDDEN)
                     .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
         }
@@ -308,4 +589,21 @@ public class ContenidoController {
         Map<String, Object> res = contenidoService.estadisticasGlobales();
         return ResponseEntity.ok(res);
     }
+
+    @GetMapping("/Estadisticas/Reproducciones/Buffer")
+    public ResponseEntity<Object> metricasBufferReproducciones(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+
+        if (!esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(contenidoService.metricasReproducciones());
+    }
+
+    static boolean esAdminOGestor(String userRole) {
+        return userRole != null &&
+               (userRole.equalsIgnoreCase("ADMINISTRADOR") ||
+                userRole.equalsIgnoreCase("GESTOR_CONTENIDO"));
+    }
 }
\ No newline at end of file
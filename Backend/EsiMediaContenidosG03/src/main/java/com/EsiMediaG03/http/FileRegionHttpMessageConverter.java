@@ -0,0 +1,84 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.EsiMediaG03.dto.FileRegion;
+
+/**
+ * Escribe un {@link FileRegion} leyendo del fichero por posición (sin skip),
+ * de modo que servir un rango cuesta lo mismo sea cual sea su offset.
+ * El buffer de copia es uno por hilo y se reutiliza entre peticiones.
+ */
+public class FileRegionHttpMessageConverter extends AbstractHttpMessageConverter<FileRegion> {
+
+    static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final ThreadLocal<ByteBuffer> BUFFER =
+            ThreadLocal.withInitial(() -> ByteBuffer.allocate(BUFFER_SIZE));
+
+    public FileRegionHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return FileRegion.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected FileRegion readInternal(Class<? extends FileRegion> clazz, HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("FileRegion solo se usa para respuestas", inputMessage);
+    }
+
+    @Override
+    protected MediaType getDefaultContentType(FileRegion region) {
+        return MediaType.APPLICATION_OCTET_STREAM;
+    }
+
+    @Override
+    protected Long getContentLength(FileRegion region, MediaType contentType) {
+        return region.count();
+    }
+
+    @Override
+    protected void writeInternal(FileRegion region, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        try (FileChannel ch = FileChannel.open(region.path(), StandardOpenOption.READ)) {
+            transfer(ch, region.position(), region.count(), out);
+        }
+        out.flush();
+    }
+
+    static void transfer(FileChannel ch, long position, long count, OutputStream out) throws IOException {
+        ByteBuffer buf = BUFFER.get();
+        byte[] array = buf.array();
+        long pos = position;
+        long remaining = count;
+        while (remaining > 0) {
+            buf.clear();
+            if (remaining < buf.capacity()) buf.limit((int) remaining);
+            int read = ch.read(buf, pos);
+            if (read < 0) {
+                throw new IOException("Fin de fichero inesperado en la posición " + pos);
+            }
+            out.write(array, 0, read);
+            pos += read;
+            remaining -= read;
+        }
+    }
+}
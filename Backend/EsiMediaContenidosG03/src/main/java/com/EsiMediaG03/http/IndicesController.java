@@ -0,0 +1,36 @@
+package com.EsiMediaG03.http;
+
+import java.util.Map;
+
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.CrossOrigin;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RestController;
+
+import com.EsiMediaG03.config.MongoIndexesConfig;
+
+@RestController
+@RequestMapping("Contenidos")
+@CrossOrigin(origins = "http://localhost:4200")
+public class IndicesController {
+
+    private final MongoIndexesConfig indices;
+
+    public IndicesController(MongoIndexesConfig indices) {
+        this.indices = indices;
+    }
+
+    /** Deriva de índices y consultas que acaban en COLLSCAN, calculado en el momento. */
+    @GetMapping("/Estadisticas/Indices")
+    public ResponseEntity<Object> informeIndices(
+            @RequestHeader(value = "X-User-Role", required = false) String userRole) {
+        if (!ContenidoController.esAdminOGestor(userRole)) {
+            return ResponseEntity.status(HttpStatus.FORBIDDEN)
+                    .body(Map.of("error", "No autorizado: solo Administradores y Gestores."));
+        }
+        return ResponseEntity.ok(indices.informe());
+    }
+}
@@ -1,5 +1,7 @@
 package com.EsiMediaG03.http;
 
+import com.EsiMediaG03.dto.FiltroAcceso;
+import com.EsiMediaG03.dto.ListaHidratada;
 import com.EsiMediaG03.model.ListaPublica;
 import com.EsiMediaG03.services.ListaPublicaService;
 
@@ -40,6 +42,22 @@ public class ListaPublicaController {
                 .orElseThrow(() -> new RuntimeException("Lista no encontrada con id " + id));
     }
 
+    /**
+     * La lista con las tarjetas de sus contenidos y, para quien pregunta, si puede
+     * reproducir cada uno. Para listas grandes se pide por ventanas de posiciones.
+     */
+    @GetMapping("/{id}/hidratada")
+    public ListaHidratada obtenerListaHidratada(
+            @PathVariable String id,
+            @RequestParam(value = "desde", defaultValue = "0") int desde,
+            @RequestParam(value = "limite", defaultValue = "50") int limite,
+            @RequestHeader(value = "X-User-Vip", required = false) Boolean userVip,
+            @RequestHeader(value = "X-User-Birthdate", required = false) String userBirthdateIso,
+            @RequestHeader(value = "X-User-Age", required = false) Integer userAge) {
+        return listaService.obtenerListaHidratada(id, desde, limite,
+                FiltroAcceso.deCabeceras(userVip, userBirthdateIso, userAge));
+    }
+
     @PutMapping("/{id}")
     public ListaPublica actualizarLista(@PathVariable String id, @RequestBody ListaPublica lista) {
         return listaService.actualizarLista(id, lista);
@@ -49,11 +67,31 @@ public class ListaPublicaController {
     public void eliminarLista(@PathVariable String id) {
         listaService.eliminarLista(id);
     }
+    /** Sin posicion se añade al final; con posicion se inserta ahí. */
     @PostMapping("/{listaId}/contenidos/{contenidoId}")
-    public ListaPublica anadirContenidoALista(@PathVariable String listaId, @PathVariable String contenidoId) {
+    public ListaPublica anadirContenidoALista(@PathVariable String listaId, @PathVariable String contenidoId,
+                                              @RequestParam(value = "posicion", required = false) Integer posicion) {
+        if (posicion != null) return listaService.insertarContenidoEnLista(listaId, contenidoId, posicion);
         return listaService.anadirContenidoALista(listaId, contenidoId);
     }
 
+    @PutMapping("/{listaId}/contenidos/{contenidoId}/posicion/{posicion}")
+    public ListaPublica moverContenidoEnLista(@PathVariable String listaId, @PathVariable String contenidoId,
+                                              @PathVariable int posicion) {
+        return listaService.moverContenidoEnLista(listaId, contenidoId, posicion);
+    }
+
+    @PostMapping("/{listaId}/contenidos")
+    public ListaPublica anadirContenidosALista(@PathVariable String listaId, @RequestBody List<String> contenidosIds) {
+        return listaService.anadirContenidosALista(listaId, contenidosIds);
+    }
+
+    @PostMapping("/{listaId}/contenidos/eliminar")
+    public ListaPublica eliminarContenidosDeLista(@PathVariable String listaId,
+                                                  @RequestBody List<String> contenidosIds) {
+        return listaService.eliminarContenidosDeLista(listaId, contenidosIds);
+    }
+
     @DeleteMapping("/{listaId}/contenidos/{contenidoId}")
     public ListaPublica eliminarContenidoDeLista(@PathVariable String listaId, @PathVariable String contenidoId) {
         return listaService.eliminarContenidoDeLista(listaId, contenidoId);
@@ -0,0 +1,66 @@
+package com.EsiMediaG03.http;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+
+/**
+ * Respuesta multipart/byteranges: cada parte se copia del fichero por posición,
+ * sin acumular el cuerpo en memoria.
+ */
+public class MultipartFileRegionsHttpMessageConverter extends AbstractHttpMessageConverter<MultipartFileRegions> {
+
+    public MultipartFileRegionsHttpMessageConverter() {
+        super(MediaType.ALL);
+    }
+
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return MultipartFileRegions.class.isAssignableFrom(clazz);
+    }
+
+    @Override
+    protected boolean canRead(MediaType mediaType) {
+        return false;
+    }
+
+    @Override
+    protected MultipartFileRegions readInternal(Class<? extends MultipartFileRegions> clazz,
+                                                HttpInputMessage inputMessage) {
+        throw new HttpMessageNotReadableException("MultipartFileRegions solo se usa para respuestas", inputMessage);
+    }
+
+    @Override
+    protected MediaType getDefaultContentType(MultipartFileRegions body) {
+        return MediaType.parseMediaType("multipart/byteranges; boundary=" + body.boundary());
+    }
+
+    @Override
+    protected Long getContentLength(MultipartFileRegions body, MediaType contentType) {
+        return body.contentLength();
+    }
+
+    @Override
+    protected void writeInternal(MultipartFileRegions body, HttpOutputMessage outputMessage) throws IOException {
+        OutputStream out = outputMessage.getBody();
+        try (FileChannel ch = FileChannel.open(body.path(), StandardOpenOption.READ)) {
+            for (FileRegion region : body.regions()) {
+                out.write(body.partHeader(region).getBytes(StandardCharsets.US_ASCII));
+                FileRegionHttpMessageConverter.transfer(ch, region.position(), region.count(), out);
+            }
+        }
+        out.write(body.closingDelimiter().getBytes(StandardCharsets.US_ASCII));
+        out.flush();
+    }
+}
@@ -0,0 +1,122 @@
+package com.EsiMediaG03.http;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+
+/**
+ * Decide cuántos bytes se sirven en cada respuesta 206.
+ * <ul>
+ *   <li>{@code fixed}: como siempre, cada respuesta se limita a {@code chunk-bytes}.</li>
+ *   <li>{@code full}: se sirve el rango pedido completo, también {@code bytes=N-}.</li>
+ *   <li>{@code adaptive}: los rangos cerrados se sirven completos y los abiertos
+ *       se dimensionan por bitrate (tamaño/duración) o, si no se conoce, por resolución.</li>
+ * </ul>
+ * Ningún modo supera {@code max-bytes} por respuesta.
+ */
+@Component
+public class RangePolicy {
+
+    public enum Modo { FIXED, FULL, ADAPTIVE }
+
+    static final long LEGACY_CHUNK_BYTES = 1024L * 1024L;
+    private static final int MAX_SESIONES = 10_000;
+
+    private final Modo modo;
+    private final long chunkBytes;
+    private final long adaptiveSeconds;
+    private final long maxBytes;
+
+    private final long ventanaMs;
+
+    /** Ahorro acumulado de una sesión y su última respuesta. */
+    private record Sesion(long ahorrados, long ultimaActividad) {}
+
+    private final AtomicLong roundTripsAhorrados = new AtomicLong();
+    private final Map<String, Sesion> ahorradosPorSesion = new LinkedHashMap<>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Sesion> eldest) {
+            return size() > MAX_SESIONES;
+        }
+    };
+
+    /** La ventana de sesión es la misma que usa PlaybackSessionRegistry para contar reproducciones. */
+    public RangePolicy(@Value("${contenidos.streaming.range.mode:adaptive}") String modo,
+                       @Value("${contenidos.streaming.range.chunk-bytes:1048576}") long chunkBytes,
+                       @Value("${contenidos.streaming.range.adaptive-seconds:30}") long adaptiveSeconds,
+                       @Value("${contenidos.streaming.range.max-bytes:67108864}") long maxBytes,
+                       @Value("${contenidos.reproducciones.sesion.ventana-minutos:30}") long ventanaMinutos) {
+        this.modo = Modo.valueOf(modo.trim().toUpperCase(Locale.ROOT));
+        this.chunkBytes = Math.max(1L, chunkBytes);
+        this.adaptiveSeconds = Math.max(1L, adaptiveSeconds);
+        this.maxBytes = Math.max(this.chunkBytes, maxBytes);
+        this.ventanaMs = ventanaMinutos * 60_000L;
+    }
+
+    public Modo getModo() {
+        return modo;
+    }
+
+    /** Longitud a servir para el rango [start, end] ya validado contra el tamaño del fichero. */
+    public long responseLength(StreamingTarget target, long start, long end, boolean openEnded) {
+        long requested = end - start + 1;
+        long limit = switch (modo) {
+            case FIXED -> chunkBytes;
+            case FULL -> maxBytes;
+            case ADAPTIVE -> openEnded ? adaptiveChunk(target) : maxBytes;
+        };
+        return Math.min(requested, limit);
+    }
+
+    long adaptiveChunk(StreamingTarget target) {
+        long bytesPorSegundo = target.duracionSegundos() > 0
+                ? target.length() / target.duracionSegundos()
+                : bytesPorSegundoPorResolucion(target.resolucion());
+        long chunk = bytesPorSegundo * adaptiveSeconds;
+        return Math.max(chunkBytes, Math.min(chunk, maxBytes));
+    }
+
+    private static long bytesPorSegundoPorResolucion(String resolucion) {
+        if (resolucion == null) return 40_000L;
+        return switch (resolucion.toLowerCase(Locale.ROOT)) {
+            case "4k" -> 2_500_000L;
+            case "1080p" -> 750_000L;
+            case "720p" -> 375_000L;
+            default -> 40_000L;
+        };
+    }
+
+    /**
+     * Anota una respuesta servida y devuelve el total de round trips ahorrados en la
+     * sesión de reproducción, comparado con trocear a 1 MiB como antes. Como en
+     * PlaybackSessionRegistry, tras más de una ventana sin peticiones del mismo
+     * cliente y contenido empieza una sesión nueva y el contador vuelve a cero.
+     */
+    public long registrarRespuesta(String sesion, long servedBytes) {
+        return registrarRespuesta(sesion, servedBytes, System.currentTimeMillis());
+    }
+
+    public long registrarRespuesta(String sesion, long servedBytes, long ahora) {
+        long legacyRequests = (servedBytes + LEGACY_CHUNK_BYTES - 1) / LEGACY_CHUNK_BYTES;
+        long ahorrados = Math.max(0L, legacyRequests - 1);
+        roundTripsAhorrados.addAndGet(ahorrados);
+        synchronized (ahorradosPorSesion) {
+            Sesion previa = ahorradosPorSesion.get(sesion);
+            long acumulado = previa != null && ahora - previa.ultimaActividad() <= ventanaMs
+                    ? previa.ahorrados() + ahorrados
+                    : ahorrados;
+            ahorradosPorSesion.put(sesion, new Sesion(acumulado, ahora));
+            return acumulado;
+        }
+    }
+
+    public long getRoundTripsAhorrados() {
+        return roundTripsAhorrados.get();
+    }
+}
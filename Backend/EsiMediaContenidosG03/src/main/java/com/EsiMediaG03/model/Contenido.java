@@ -2,16 +2,13 @@ package com.EsiMediaG03.model;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
-import java.util.HashMap;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 import org.springframework.data.annotation.Id;
 import org.springframework.data.mongodb.core.mapping.Document;
 import org.springframework.data.mongodb.core.mapping.Field;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
 @Document(collection = "contenidos")
@@ -20,6 +17,9 @@ public class Contenido {
     @Id
     private String id;
     private String userEmail;
+    /** Copia de la especialidad y el alias del creador; usersbe la mantiene al editar el perfil. */
+    private String especialidad;
+    private String creadorAlias;
     private String titulo;
     private String descripcion;
     private String ficheroAudio;
@@ -30,7 +30,8 @@ public class Contenido {
     private String resolucion;
     private boolean vip;
     private boolean visible;
-    private LocalDateTime fechaEstado = LocalDateTime.now();
+    /** Se fija al crear y al cambiar la visibilidad; sin valor por defecto para no inventarla al leer. */
+    private LocalDateTime fechaEstado;
     private LocalDateTime disponibleHasta;
     private LocalDate disponibilidadContenido;
     private int restringidoEdad;
@@ -42,14 +43,16 @@ public class Contenido {
     @Field("reproducciones")               
     @JsonProperty("reproducciones") 
     private long numReproducciones;
-    private Set <String> favoritosDeUsuarios;
-    public Set<String> getFavoritosDeUsuarios() { return favoritosDeUsuarios; }
-    public void setFavoritosDeUsuarios(Set<String> favs) { this.favoritosDeUsuarios = favs; }
-
-    private Set<String> reproductores = new HashSet<>();
-    private Map<String, Double> ratings = new HashMap<>();
+    /** Lotes de reconciliación del contador ya sumados; se mapea para que un save no los pierda. */
+    @JsonIgnore
+    private List<String> lotesContador;
     private int ratingCount;
     private double ratingAvg;
+    private double ratingSuma;
+    /** Valoraciones por media estrella: la posición i cuenta las de (i + 1) / 2 estrellas. */
+    private List<Integer> ratingHistograma;
+    /** Media bayesiana: la media se acerca a la global mientras hay pocas valoraciones. */
+    private double ratingBayes;
 
     public String getId() {
         return id;
@@ -141,6 +144,11 @@ public class Contenido {
         return fechaEstado;
     }
 
+    /** Fecha de alta como primera fecha de estado si no se ha fijado ya la visibilidad. */
+    public void sellarFechaEstado() {
+        if (fechaEstado == null) fechaEstado = LocalDateTime.now();
+    }
+
     public LocalDateTime getDisponibleHasta() {
         return disponibleHasta;
     }
@@ -176,6 +184,12 @@ public class Contenido {
     public void setUserEmail(String userEmail) {
         this.userEmail = userEmail;
     }
+
+    public String getEspecialidad() { return especialidad; }
+    public void setEspecialidad(String especialidad) { this.especialidad = especialidad; }
+
+    public String getCreadorAlias() { return creadorAlias; }
+    public void setCreadorAlias(String creadorAlias) { this.creadorAlias = creadorAlias; }
     
     public long getNumReproducciones() {
         return numReproducciones;
@@ -184,11 +198,8 @@ public class Contenido {
         this.numReproducciones = numReproducciones;
     }
 
-    public Set<String> getReproductores() { return reproductores; }
-    public void setReproductores(Set<String> reproductores) { this.reproductores = reproductores; }
-
-    public Map<String, Double> getRatings() { return ratings; }
-    public void setRatings(Map<String, Double> ratings) { this.ratings = ratings; }
+    public List<String> getLotesContador() { return lotesContador; }
+    public void setLotesContador(List<String> lotesContador) { this.lotesContador = lotesContador; }
 
     public int getRatingCount() { return ratingCount; }
     public void setRatingCount(int ratingCount) { this.ratingCount = ratingCount; }
@@ -196,6 +207,15 @@ public class Contenido {
     public double getRatingAvg() { return ratingAvg; }
     public void setRatingAvg(double ratingAvg) { this.ratingAvg = ratingAvg; }
 
+    public double getRatingSuma() { return ratingSuma; }
+    public void setRatingSuma(double ratingSuma) { this.ratingSuma = ratingSuma; }
+
+    public List<Integer> getRatingHistograma() { return ratingHistograma; }
+    public void setRatingHistograma(List<Integer> ratingHistograma) { this.ratingHistograma = ratingHistograma; }
+
+    public double getRatingBayes() { return ratingBayes; }
+    public void setRatingBayes(double ratingBayes) { this.ratingBayes = ratingBayes; }
+
     public LocalDate getDisponibilidadContenido() {
         return disponibilidadContenido;
     }
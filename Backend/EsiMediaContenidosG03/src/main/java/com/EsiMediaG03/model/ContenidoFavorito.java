@@ -0,0 +1,34 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "contenidos_favoritos")
+public class ContenidoFavorito {
+
+    @Id
+    private String id;
+    private String contenidoId;
+    private String userEmail;
+    private LocalDateTime fecha = LocalDateTime.now();
+
+    public ContenidoFavorito() {}
+
+    public ContenidoFavorito(String contenidoId, String userEmail) {
+        this.contenidoId = contenidoId;
+        this.userEmail = userEmail;
+    }
+
+    public String getId() { return id; }
+
+    public String getContenidoId() { return contenidoId; }
+    public void setContenidoId(String contenidoId) { this.contenidoId = contenidoId; }
+
+    public String getUserEmail() { return userEmail; }
+    public void setUserEmail(String userEmail) { this.userEmail = userEmail; }
+
+    public LocalDateTime getFecha() { return fecha; }
+    public void setFecha(LocalDateTime fecha) { this.fecha = fecha; }
+}
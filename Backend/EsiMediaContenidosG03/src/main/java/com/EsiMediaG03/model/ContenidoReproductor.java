@@ -0,0 +1,52 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+import java.util.Locale;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+@Document(collection = "contenidos_reproductores")
+public class ContenidoReproductor {
+
+    @Id
+    private String id;
+    private String contenidoId;
+    private String userEmail;
+    private LocalDateTime fecha = LocalDateTime.now();
+    /** Valoración del usuario sobre el contenido; solo puede fijarse una vez. */
+    private Double puntuacion;
+    private LocalDateTime valoradoEn;
+
+    public ContenidoReproductor() {}
+
+    public ContenidoReproductor(String contenidoId, String userEmail) {
+        this.contenidoId = contenidoId;
+        this.userEmail = userEmail;
+    }
+
+    /**
+     * Forma canónica del email en las relaciones (reproducción y favorito): en
+     * minúsculas, que es como queda en el índice único (contenidoId, userEmail).
+     */
+    public static String normalizarEmail(String email) {
+        return email == null ? null : email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public String getId() { return id; }
+
+    public String getContenidoId() { return contenidoId; }
+    public void setContenidoId(String contenidoId) { this.contenidoId = contenidoId; }
+
+    public String getUserEmail() { return userEmail; }
+    public void setUserEmail(String userEmail) { this.userEmail = userEmail; }
+
+    public LocalDateTime getFecha() { return fecha; }
+    public void setFecha(LocalDateTime fecha) { this.fecha = fecha; }
+
+    public Double getPuntuacion() { return puntuacion; }
+    public void setPuntuacion(Double puntuacion) { this.puntuacion = puntuacion; }
+
+    public LocalDateTime getValoradoEn() { return valoradoEn; }
+    public void setValoradoEn(LocalDateTime valoradoEn) { this.valoradoEn = valoradoEn; }
+}
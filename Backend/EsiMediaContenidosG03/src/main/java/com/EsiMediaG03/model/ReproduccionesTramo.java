@@ -0,0 +1,59 @@
+package com.EsiMediaG03.model;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+/**
+ * Reproducciones de un contenido dentro de una hora o de un día. El id es
+ * contenidoId:granularidad:inicio, así que cada volcado hace un upsert con $inc.
+ */
+@Document(collection = "reproducciones_tramos")
+public class ReproduccionesTramo {
+
+    public enum Granularidad {
+        HORA, DIA;
+
+        public LocalDateTime inicio(LocalDateTime t) {
+            LocalDateTime hora = t.withMinute(0).withSecond(0).withNano(0);
+            return this == HORA ? hora : hora.withHour(0);
+        }
+
+        public long duracionMs() {
+            return this == HORA ? 3_600_000L : 86_400_000L;
+        }
+    }
+
+    private static final DateTimeFormatter CLAVE = DateTimeFormatter.ofPattern("yyyyMMddHH");
+
+    @Id
+    private String id;
+    private String contenidoId;
+    private Contenido.Tipo tipo;
+    private Granularidad granularidad;
+    private LocalDateTime inicio;
+    private long reproducciones;
+
+    public static String clave(String contenidoId, Granularidad g, LocalDateTime inicio) {
+        return contenidoId + ":" + g.name() + ":" + CLAVE.format(inicio);
+    }
+
+    public String getId() { return id; }
+
+    public String getContenidoId() { return contenidoId; }
+    public void setContenidoId(String contenidoId) { this.contenidoId = contenidoId; }
+
+    public Contenido.Tipo getTipo() { return tipo; }
+    public void setTipo(Contenido.Tipo tipo) { this.tipo = tipo; }
+
+    public Granularidad getGranularidad() { return granularidad; }
+    public void setGranularidad(Granularidad granularidad) { this.granularidad = granularidad; }
+
+    public LocalDateTime getInicio() { return inicio; }
+    public void setInicio(LocalDateTime inicio) { this.inicio = inicio; }
+
+    public long getReproducciones() { return reproducciones; }
+    public void setReproducciones(long reproducciones) { this.reproducciones = reproducciones; }
+}
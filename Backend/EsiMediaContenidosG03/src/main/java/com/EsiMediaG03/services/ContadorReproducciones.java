@@ -0,0 +1,305 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+import com.mongodb.bulk.BulkWriteError;
+
+/**
+ * Almacenamiento del contador de reproducciones. En modo "directo" se incrementa
+ * el campo reproducciones del contenido; en modo "fragmentado" cada incremento va
+ * a uno de N subdocumentos de contenidos_contadores elegido al azar, de modo que
+ * un contenido viral no serializa todas sus escrituras sobre el mismo documento.
+ * El total es reproducciones + suma de fragmentos; la reconciliación periódica
+ * vuelca los fragmentos sobre reproducciones para que las consultas ordenadas
+ * (tops) sigan funcionando sobre ese campo. Solo reconcilia la instancia que
+ * tiene el turno (un documento con caducidad en "bloqueos").
+ * Lo que una reconciliación aparta queda en "pendiente" con su lote hasta que
+ * el contenido lo tiene; si se corta a medias, la siguiente lo termina.
+ */
+@Component
+public class ContadorReproducciones {
+
+    private static final Logger log = LoggerFactory.getLogger(ContadorReproducciones.class);
+
+    public static final String COLECCION = "contenidos_contadores";
+    static final String MODO_FRAGMENTADO = "fragmentado";
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+    private static final String FIELD_CONTENIDO = "contenidoId";
+    private static final String FIELD_N = "n";
+    private static final String FIELD_PENDIENTE = "pendiente";
+    private static final String FIELD_LOTE = "lote";
+    /** Lotes ya sumados al contenido cuyos fragmentos aún no se han vaciado. */
+    static final String FIELD_LOTES_APLICADOS = "lotesContador";
+    private static final String COLECCION_CONTENIDOS = "contenidos";
+    static final String COLECCION_BLOQUEOS = "bloqueos";
+    static final String ID_TURNO = "reconciliar-contadores";
+
+    private record Total(long valor, long leidoEn) {}
+
+    private record Movimiento(String contenidoId, String lote) {}
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean fragmentado;
+    private final int shards;
+    private final long cacheMs;
+    private final long turnoMs;
+    private final String instancia = UUID.randomUUID().toString();
+    private final Map<String, Total> totales = new ConcurrentHashMap<>();
+
+    public ContadorReproducciones(MongoTemplate mongoTemplate,
+                                  @Value("${contenidos.reproducciones.contador.modo:directo}") String modo,
+                                  @Value("${contenidos.reproducciones.contador.shards:16}") int shards,
+                                  @Value("${contenidos.reproducciones.contador.cache-ms:5000}") long cacheMs,
+                                  @Value("${contenidos.reproducciones.contador.turno-ms:180000}") long turnoMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.fragmentado = MODO_FRAGMENTADO.equalsIgnoreCase(modo);
+        this.shards = Math.max(1, shards);
+        this.cacheMs = cacheMs;
+        this.turnoMs = turnoMs;
+    }
+
+    public boolean isFragmentado() {
+        return fragmentado;
+    }
+
+    static String shardId(String contenidoId, int shard) {
+        return contenidoId + ":" + shard;
+    }
+
+    /**
+     * Aplica los incrementos ya agregados por contenido, cada uno sobre un fragmento
+     * aleatorio. Devuelve los que Mongo rechazó; el resto ya está escrito.
+     */
+    public Map<String, Long> incrementar(Map<String, Long> deltas) {
+        if (deltas.isEmpty()) return Map.of();
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLECCION);
+        ThreadLocalRandom rnd = ThreadLocalRandom.current();
+        List<String> orden = new ArrayList<>(deltas.keySet());
+        orden.forEach(id -> bulk.upsert(
+                new Query(where("_id").is(shardId(id, rnd.nextInt(shards)))),
+                new Update().setOnInsert(FIELD_CONTENIDO, id).inc(FIELD_N, deltas.get(id))));
+        Map<String, Long> fallidos = ejecutar(bulk, orden, deltas);
+        deltas.keySet().forEach(totales::remove);
+        return fallidos;
+    }
+
+    /**
+     * Ejecuta un bulk UNORDERED con un incremento por contenido, añadidos en el orden
+     * de ids, y devuelve los que no se aplicaron. Ante BulkOperationException solo
+     * fallaron los índices que informa Mongo: reponer los demás los contaría dos veces.
+     */
+    static Map<String, Long> ejecutar(BulkOperations bulk, List<String> ids, Map<String, Long> deltas) {
+        Map<String, Long> fallidos = new HashMap<>();
+        for (int i : indicesFallidos(bulk)) {
+            String id = ids.get(i);
+            fallidos.put(id, deltas.get(id));
+        }
+        return fallidos;
+    }
+
+    /** Ejecuta un bulk UNORDERED y devuelve los índices de las operaciones que Mongo rechazó. */
+    private static Set<Integer> indicesFallidos(BulkOperations bulk) {
+        try {
+            bulk.execute();
+            return Set.of();
+        } catch (BulkOperationException ex) {
+            Set<Integer> fallidos = new HashSet<>();
+            for (BulkWriteError e : ex.getErrors()) fallidos.add(e.getIndex());
+            return fallidos;
+        }
+    }
+
+    /** Total de reproducciones del contenido; se cachea durante cache-ms. */
+    public long total(String contenidoId) {
+        long ahora = System.currentTimeMillis();
+        Total t = totales.get(contenidoId);
+        if (t != null && ahora - t.leidoEn() <= cacheMs) return t.valor();
+
+        Query q = new Query(where("_id").is(contenidoId));
+        q.fields().include(FIELD_REPRODUCCIONES);
+        Contenido c = mongoTemplate.findOne(q, Contenido.class);
+        long valor = c != null ? c.getNumReproducciones() : 0L;
+        if (fragmentado) {
+            List<String> ids = new ArrayList<>(shards);
+            for (int i = 0; i < shards; i++) ids.add(shardId(contenidoId, i));
+            Map<String, Long> fragmentos = new HashMap<>();
+            sumarFragmentos(mongoTemplate.find(new Query(where("_id").in(ids)), Document.class, COLECCION), fragmentos);
+            valor += fragmentos.getOrDefault(contenidoId, 0L);
+        }
+        totales.put(contenidoId, new Total(valor, ahora));
+        return valor;
+    }
+
+    /**
+     * Forma en lote de total() para contenidos ya leídos con su campo reproducciones:
+     * suma lo que sigue en fragmentos con una sola consulta por _id. Sin caché.
+     */
+    public Map<String, Long> totales(Collection<Contenido> contenidos) {
+        Map<String, Long> res = new HashMap<>();
+        for (Contenido c : contenidos) res.put(c.getId(), c.getNumReproducciones());
+        if (!fragmentado || res.isEmpty()) return res;
+        List<String> ids = new ArrayList<>(res.size() * shards);
+        for (String id : res.keySet()) {
+            for (int i = 0; i < shards; i++) ids.add(shardId(id, i));
+        }
+        Query q = new Query(where("_id").in(ids));
+        q.fields().include(FIELD_CONTENIDO).include(FIELD_N).include(FIELD_PENDIENTE).include(FIELD_LOTE);
+        sumarFragmentos(mongoTemplate.find(q, Document.class, COLECCION), res);
+        return res;
+    }
+
+    /**
+     * Ids de los contenidos con más reproducciones aún en fragmentos (n más lo
+     * apartado), de mayor a menor. Vacío en modo directo.
+     */
+    public List<String> masPendientes(int limite) {
+        if (!fragmentado) return List.of();
+        Document pendiente = new Document("$add", List.of("$" + FIELD_N,
+                new Document("$ifNull", List.of("$" + FIELD_PENDIENTE, 0L))));
+        Aggregation agg = Aggregation.newAggregation(
+                Aggregation.match(new Criteria().orOperator(where(FIELD_N).ne(0L), where(FIELD_PENDIENTE).exists(true))),
+                ctx -> new Document("$group", new Document("_id", "$" + FIELD_CONTENIDO)
+                        .append("total", new Document("$sum", pendiente))),
+                ctx -> new Document("$sort", new Document("total", -1)),
+                Aggregation.limit(limite));
+        return mongoTemplate.aggregate(agg, COLECCION, Document.class).getMappedResults().stream()
+                .map(d -> d.getString("_id")).toList();
+    }
+
+    /**
+     * Suma a cada contenido lo que tienen sus fragmentos. Lo apartado por una
+     * reconciliación solo cuenta si su lote aún no está marcado en el contenido;
+     * si lo está, ya va incluido en reproducciones.
+     */
+    private void sumarFragmentos(List<Document> fragmentos, Map<String, Long> res) {
+        Map<Movimiento, Long> apartados = new HashMap<>();
+        for (Document d : fragmentos) {
+            String id = d.getString(FIELD_CONTENIDO);
+            res.merge(id, ((Number) d.getOrDefault(FIELD_N, 0L)).longValue(), Long::sum);
+            if (d.get(FIELD_PENDIENTE) instanceof Number p) {
+                apartados.merge(new Movimiento(id, d.getString(FIELD_LOTE)), p.longValue(), Long::sum);
+            }
+        }
+        if (apartados.isEmpty()) return;
+        Set<String> ids = new HashSet<>();
+        apartados.keySet().forEach(m -> ids.add(m.contenidoId()));
+        Query q = new Query(where("_id").in(ids).and(FIELD_LOTES_APLICADOS).exists(true));
+        q.fields().include(FIELD_LOTES_APLICADOS);
+        for (Document c : mongoTemplate.find(q, Document.class, COLECCION_CONTENIDOS)) {
+            for (String lote : c.getList(FIELD_LOTES_APLICADOS, String.class, List.of())) {
+                apartados.remove(new Movimiento(c.get("_id").toString(), lote));
+            }
+        }
+        apartados.forEach((m, n) -> res.merge(m.contenidoId(), n, Long::sum));
+    }
+
+    /**
+     * Vuelca los fragmentos sobre reproducciones en tres pasos idempotentes:
+     * 1. un updateMulti aparta lo acumulado (pendiente = n, n = 0) con el lote de
+     *    esta pasada; los incrementos que lleguen después siguen en n;
+     * 2. un bulk suma a cada contenido lo apartado por lote y marca el lote en el
+     *    contenido, solo si no lo tenía ya;
+     * 3. se vacía pendiente de los fragmentos y se quita la marca.
+     * Si la pasada se corta entre pasos, la siguiente recoge los fragmentos con
+     * pendiente y la marca evita sumar dos veces. Devuelve el número de contenidos
+     * actualizados.
+     */
+    @Scheduled(fixedDelayString = "${contenidos.reproducciones.contador.reconciliar-ms:60000}")
+    public synchronized int reconciliar() {
+        if (!fragmentado || !tomarTurno()) return 0;
+        String lote = UUID.randomUUID().toString();
+        AggregationOperation apartar = ctx -> new Document("$set", new Document(FIELD_PENDIENTE, "$" + FIELD_N)
+                .append(FIELD_N, 0L).append(FIELD_LOTE, lote));
+        mongoTemplate.updateMulti(new Query(where(FIELD_N).ne(0L).and(FIELD_PENDIENTE).exists(false)),
+                AggregationUpdate.from(List.of(apartar)), COLECCION);
+
+        // lo de esta pasada y lo que dejara a medias una anterior
+        Query apartados = new Query(where(FIELD_PENDIENTE).exists(true));
+        apartados.fields().include(FIELD_CONTENIDO).include(FIELD_PENDIENTE).include(FIELD_LOTE);
+        Map<Movimiento, Long> movimientos = new LinkedHashMap<>();
+        for (Document f : mongoTemplate.find(apartados, Document.class, COLECCION)) {
+            movimientos.merge(new Movimiento(f.getString(FIELD_CONTENIDO), f.getString(FIELD_LOTE)),
+                    ((Number) f.get(FIELD_PENDIENTE)).longValue(), Long::sum);
+        }
+        if (movimientos.isEmpty()) return 0;
+
+        List<Movimiento> orden = new ArrayList<>(movimientos.keySet());
+        BulkOperations sumar = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+        for (Movimiento m : orden) {
+            sumar.updateOne(new Query(where("_id").is(m.contenidoId()).and(FIELD_LOTES_APLICADOS).ne(m.lote())),
+                    new Update().inc(FIELD_REPRODUCCIONES, movimientos.get(m)).addToSet(FIELD_LOTES_APLICADOS, m.lote()));
+        }
+        Set<Integer> fallidos = indicesFallidos(sumar);
+
+        // los que fallaron conservan pendiente y se reintentan en la siguiente pasada
+        BulkOperations vaciar = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLECCION);
+        BulkOperations desmarcar = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+        Set<String> actualizados = new HashSet<>();
+        for (int i = 0; i < orden.size(); i++) {
+            if (fallidos.contains(i)) continue;
+            Movimiento m = orden.get(i);
+            vaciar.updateMulti(new Query(where(FIELD_CONTENIDO).is(m.contenidoId()).and(FIELD_LOTE).is(m.lote())),
+                    new Update().unset(FIELD_PENDIENTE).unset(FIELD_LOTE));
+            desmarcar.updateOne(new Query(where("_id").is(m.contenidoId())),
+                    new Update().pull(FIELD_LOTES_APLICADOS, m.lote()));
+            actualizados.add(m.contenidoId());
+        }
+        if (!actualizados.isEmpty()) {
+            vaciar.execute();
+            desmarcar.execute();
+        }
+        actualizados.forEach(totales::remove);
+
+        log.debug("Reconciliados {} contenidos ({} pendientes de reintento)", actualizados.size(), fallidos.size());
+        return actualizados.size();
+    }
+
+    /**
+     * Toma o renueva el turno de reconciliación. El upsert solo encuentra el documento
+     * si está caducado o ya es nuestro; si otra instancia lo tiene vigente, el insert
+     * choca con su _id y no se reconcilia.
+     */
+    private boolean tomarTurno() {
+        Date ahora = new Date();
+        Query libre = new Query(where("_id").is(ID_TURNO)
+                .orOperator(where("hasta").lt(ahora), where("titular").is(instancia)));
+        Update turno = new Update().set("titular", instancia).set("hasta", new Date(ahora.getTime() + turnoMs));
+        try {
+            mongoTemplate.upsert(libre, turno, COLECCION_BLOQUEOS);
+            return true;
+        } catch (DuplicateKeyException ex) {
+            return false;
+        }
+    }
+}
@@ -3,18 +3,24 @@ package com.EsiMediaG03.services;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.time.LocalDate;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.time.LocalDateTime;
-import java.time.Period;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.stream.Stream;
 
 import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
 import org.springframework.data.mongodb.core.query.Criteria;
 import static org.springframework.data.mongodb.core.query.Criteria.where;
 import org.springframework.data.mongodb.core.query.Query;
@@ -27,8 +33,13 @@ import org.springframework.stereotype.Service;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
 import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.dto.CursorCatalogo;
+import com.EsiMediaG03.dto.FiltroAcceso;
+import com.EsiMediaG03.dto.LoteTarjetas;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.PaginaContenidos;
 import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.dto.TarjetaContenido;
 import com.EsiMediaG03.exceptions.ContenidoAddException;
 import com.EsiMediaG03.exceptions.ContenidoException;
 import com.EsiMediaG03.exceptions.ContenidoModificationException;
@@ -36,6 +47,8 @@ import com.EsiMediaG03.exceptions.ContenidoValidationException;
 import com.EsiMediaG03.exceptions.StreamingTargetException;
 import com.EsiMediaG03.exceptions.StreamingTargetResolutionException;
 import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoFavorito;
+import com.EsiMediaG03.model.ContenidoReproductor;
 import com.EsiMediaG03.model.ListaPublica;
 @Service
 public class ContenidoService {
@@ -43,6 +56,14 @@ public class ContenidoService {
     private final ContenidoDAO contenidoDAO;
     private final MongoTemplate mongoTemplate;
     private final ListaPublicaDAO listaPublicaDAO;
+    private final StreamingTargetCache targetCache;
+    private final PlaybackSessionRegistry sesiones;
+    private final ReproduccionesBuffer reproduccionesBuffer;
+    private final ContadorReproducciones contadorReproducciones;
+    private final EstadisticasTops estadisticasTops;
+    private final TendenciasReproducciones tendencias;
+    private final MasReproducidosAhora masReproducidosAhora;
+    private final TarjetasCache tarjetasCache;
 
     private static final String VIDEO_MP4 = "video/mp4";
     private static final String CONTENIDO_NO_ENCONTRADO = "Contenido no encontrado: ";
@@ -50,22 +71,65 @@ public class ContenidoService {
     private static final String ROLE_USUARIO = "USUARIO";
     public static final String FAVORITOS_DE_USUARIOS = "favoritosDeUsuarios";
 
+    private static final String COLLECTION_USERS = "users";
     private static final String FIELD_EMAIL = "email";
+    private static final String FIELD_ALIAS = "alias";
     private static final String FIELD_ESPECIALIDAD = "especialidad";
     private static final String FIELD_USER_EMAIL = "userEmail";
-    private static final String FIELD_REPRODUCCIONES = "reproducciones";
-    private static final String COLLECTION_USERS = "users";
-    private static final String SIN_ESPECIALIDAD = "Sin especialidad";
+    private static final String FIELD_VALORADO_EN = "valoradoEn";
+    private static final String FIELD_REPRODUCTORES = "reproductores";
+    private static final String FIELD_RATINGS = "ratings";
+    private static final String FIELD_CONTENIDO_ID = "contenidoId";
+    private static final String FIELD_RATING_AVG = "ratingAvg";
+    private static final String FIELD_RATING_COUNT = "ratingCount";
+    private static final String FIELD_RATING_SUMA = "ratingSuma";
+    private static final String FIELD_RATING_BAYES = "ratingBayes";
+    private static final String FIELD_RATING_HISTOGRAMA = "ratingHistograma";
+    public static final int CUBETAS_VALORACION = 10;
+    private static final String FIELD_PUNTUACION = "puntuacion";
+    private static final String FIELD_FECHA_ESTADO = "fechaEstado";
+    private static final String FIELD_VISIBLE = "visible";
+    private static final String FIELD_VIP = "vip";
+    private static final String FIELD_RESTRINGIDO_EDAD = "restringidoEdad";
+    private static final String FIELD_DISPONIBLE_HASTA = "disponibleHasta";
+    private static final int MAX_PAGINA_CATALOGO = 500;
     private static final String FIELD_AVG   = "avg";
     private static final String FIELD_COUNT = "count";
     private static final String MSG_YA_VALORADO = "Ya has valorado este contenido. La primera valoración es definitiva.";
     private static final String MSG_ERROR_ANADIR = "Error al añadir contenido: ";
 
 
-    public ContenidoService(ContenidoDAO contenidoDAO, MongoTemplate mongoTemplate, ListaPublicaDAO listaPublicaDAO) {
+    @Value("${contenidos.valoracion.bayes.media:3.5}")
+    private double bayesMedia = 3.5;
+
+    @Value("${contenidos.valoracion.bayes.peso:10}")
+    private double bayesPeso = 10;
+
+    @Value("${contenidos.valoracion.lote.max:100}")
+    private int maxLoteValoraciones = 100;
+
+    @Value("${contenidos.tarjetas.lote.max:200}")
+    private int maxLoteTarjetas = 200;
+
+    public ContenidoService(ContenidoDAO contenidoDAO, MongoTemplate mongoTemplate, ListaPublicaDAO listaPublicaDAO,
+                            StreamingTargetCache targetCache, PlaybackSessionRegistry sesiones,
+                            ReproduccionesBuffer reproduccionesBuffer,
+                            ContadorReproducciones contadorReproducciones,
+                            EstadisticasTops estadisticasTops,
+                            TendenciasReproducciones tendencias,
+                            MasReproducidosAhora masReproducidosAhora,
+                            TarjetasCache tarjetasCache) {
         this.contenidoDAO = contenidoDAO;
         this.mongoTemplate = mongoTemplate;
         this.listaPublicaDAO = listaPublicaDAO;
+        this.targetCache = targetCache;
+        this.sesiones = sesiones;
+        this.reproduccionesBuffer = reproduccionesBuffer;
+        this.contadorReproducciones = contadorReproducciones;
+        this.estadisticasTops = estadisticasTops;
+        this.tendencias = tendencias;
+        this.masReproducidosAhora = masReproducidosAhora;
+        this.tarjetasCache = tarjetasCache;
     }
 
     public Contenido anadirContenido(Contenido contenido) throws ContenidoAddException {
@@ -74,12 +138,119 @@ public class ContenidoService {
     } catch (ContenidoValidationException | IllegalArgumentException ex) {
         throw new ContenidoAddException(MSG_ERROR_ANADIR + ex.getMessage());
     }
+    sellarCreador(contenido);
+    reiniciarContadores(contenido);
+    contenido.sellarFechaEstado();
     return contenidoDAO.save(contenido);
 }
 
+    /**
+     * Valoraciones, reproducciones y lo que se deriva de ellas solo los escribe el
+     * servidor: un contenido nuevo empieza de cero aunque la petición traiga valores.
+     */
+    private static void reiniciarContadores(Contenido contenido) {
+        contenido.setRatingAvg(0);
+        contenido.setRatingCount(0);
+        contenido.setRatingSuma(0);
+        contenido.setRatingHistograma(null);
+        contenido.setRatingBayes(0);
+        contenido.setNumReproducciones(0);
+        contenido.setLotesContador(null);
+    }
+
+    /**
+     * Copia en el contenido la especialidad y el alias de su creador para que las
+     * estadísticas no tengan que leer users. Lo que venga en la petición se ignora.
+     */
+    private void sellarCreador(Contenido contenido) {
+        contenido.setEspecialidad(null);
+        contenido.setCreadorAlias(null);
+        if (contenido.getUserEmail() == null || contenido.getUserEmail().isBlank()) return;
+        Query q = new Query(where(FIELD_EMAIL).is(contenido.getUserEmail()));
+        q.fields().include(FIELD_ESPECIALIDAD).include(FIELD_ALIAS);
+        Document creador = mongoTemplate.findOne(q, Document.class, COLLECTION_USERS);
+        if (creador == null) return;
+        contenido.setEspecialidad(creador.getString(FIELD_ESPECIALIDAD));
+        contenido.setCreadorAlias(creador.getString(FIELD_ALIAS));
+    }
+
 
     public List<Contenido> listarContenidos() {
-        return contenidoDAO.findAll();
+        return mongoTemplate.find(tarjeta(new Query()), Contenido.class);
+    }
+
+    /** Página del catálogo por keyset: no hay skip, cada página cuesta lo mismo. */
+    public PaginaContenidos listarCatalogo(String cursor, int limite, FiltroAcceso filtro) {
+        int n = Math.max(1, Math.min(limite, MAX_PAGINA_CATALOGO));
+        Query q = consultaCatalogo(cursor != null && !cursor.isBlank() ? CursorCatalogo.decodificar(cursor) : null,
+                filtro, LocalDateTime.now());
+        q.limit(n + 1);
+        List<TarjetaContenido> items = mongoTemplate.find(q, Contenido.class).stream()
+                .map(TarjetaContenido::de).toList();
+        if (items.size() <= n) return new PaginaContenidos(items, null);
+        List<TarjetaContenido> pagina = items.subList(0, n);
+        return new PaginaContenidos(pagina, CursorCatalogo.tras(pagina.get(n - 1)).codificar());
+    }
+
+    /** Catálogo completo leído con cursor de Mongo; quien lo consume debe cerrarlo. */
+    public Stream<TarjetaContenido> streamCatalogo(FiltroAcceso filtro) {
+        return mongoTemplate.stream(consultaCatalogo(null, filtro, LocalDateTime.now()), Contenido.class)
+                .map(TarjetaContenido::de);
+    }
+
+    /** Con filtro solo se devuelve lo que validarAccesoAContenido dejaría reproducir. */
+    private static Query consultaCatalogo(CursorCatalogo desde, FiltroAcceso filtro, LocalDateTime now) {
+        List<Criteria> condiciones = new ArrayList<>();
+        if (filtro != null) condiciones.add(criterioReproducible(filtro, now));
+        if (desde != null) condiciones.add(tras(desde));
+        Query q = new Query();
+        if (condiciones.size() == 1) q.addCriteria(condiciones.get(0));
+        else if (!condiciones.isEmpty()) q.addCriteria(new Criteria().andOperator(condiciones));
+        q.with(Sort.by(Sort.Direction.DESC, FIELD_FECHA_ESTADO).and(Sort.by(Sort.Direction.DESC, "_id")));
+        q.fields().include(TarjetaContenido.CAMPOS);
+        return q;
+    }
+
+    /**
+     * Lo que va después del cursor en orden (fechaEstado, _id) descendente. En ese
+     * orden los contenidos sin fechaEstado van al final, así que se incluyen tras
+     * cualquier fecha y, entre ellos, se pagina solo por _id.
+     */
+    private static Criteria tras(CursorCatalogo desde) {
+        if (desde.fechaEstado() == null) {
+            return where(FIELD_FECHA_ESTADO).is(null).and("_id").lt(desde.id());
+        }
+        return new Criteria().orOperator(
+                where(FIELD_FECHA_ESTADO).lt(desde.fechaEstado()),
+                where(FIELD_FECHA_ESTADO).is(desde.fechaEstado()).and("_id").lt(desde.id()),
+                where(FIELD_FECHA_ESTADO).is(null));
+    }
+
+    /**
+     * Las mismas reglas que validarAccesoAContenido expresadas como consulta: visible,
+     * no caducado, VIP solo para VIP y edad mínima solo si la edad está verificada.
+     */
+    static Criteria criterioReproducible(FiltroAcceso filtro, LocalDateTime now) {
+        Criteria c = where(FIELD_VISIBLE).is(true);
+        if (!filtro.vip()) c = c.and(FIELD_VIP).is(false);
+        c = c.and(FIELD_RESTRINGIDO_EDAD).lte(filtro.edad() != null ? filtro.edad() : 0);
+        return c.orOperator(
+                where(FIELD_DISPONIBLE_HASTA).is(null),
+                where(FIELD_DISPONIBLE_HASTA).gt(now));
+    }
+
+    /**
+     * Las relaciones con usuarios viven en sus propias colecciones; si un documento
+     * aún no migrado las conserva embebidas, no se transfieren.
+     */
+    static Query tarjeta(Query q) {
+        q.fields().exclude(FIELD_REPRODUCTORES).exclude(FIELD_RATINGS).exclude(FAVORITOS_DE_USUARIOS);
+        return q;
+    }
+
+    private static Query relacion(String contenidoId, String email) {
+        return new Query(where(FIELD_CONTENIDO_ID).is(contenidoId)
+                .and(FIELD_USER_EMAIL).is(ContenidoReproductor.normalizarEmail(email)));
     }
 
     public Contenido modificarContenido(String id,
@@ -94,7 +265,10 @@ public class ContenidoService {
         opsFor(actual.getTipo()).patch(actual, cambios);
 
         validarcontenido(actual);
-        return contenidoDAO.save(actual);
+        Contenido guardado = contenidoDAO.save(actual);
+        targetCache.invalidate(id);
+        tarjetasCache.invalidate(id);
+        return guardado;
     }
 
     public void eliminarContenido(String id, Contenido.Tipo requesterTipo) {
@@ -103,6 +277,13 @@ public class ContenidoService {
 
         checkPermisosPorTipo(actual, requesterTipo, "eliminar");
         contenidoDAO.deleteById(id);
+        targetCache.invalidate(id);
+        Query relaciones = new Query(where(FIELD_CONTENIDO_ID).is(id));
+        mongoTemplate.remove(relaciones, ContenidoReproductor.class);
+        mongoTemplate.remove(relaciones, ContenidoFavorito.class);
+        estadisticasTops.contenidoEliminado(id);
+        tendencias.contenidoEliminado(id);
+        tarjetasCache.invalidate(id);
     }
 
     private void applyCommonPatch(Contenido actual, ModificarContenidoRequest c) {
@@ -122,11 +303,22 @@ public class ContenidoService {
 
     public StreamingTarget resolveStreamingTarget(String id, Boolean isVip, Integer ageYears)
             throws StreamingTargetResolutionException, StreamingTargetException {
-        Contenido c = contenidoDAO.findById(id)
-                .orElseThrow(() -> new StreamingTargetResolutionException(CONTENIDO_NO_ENCONTRADO + " " + id));
+        StreamingTargetCache.Entrada cached = targetCache.get(id);
+        if (cached != null) {
+            validarAccesoAContenido(cached.acceso(), isVip, ageYears, LocalDateTime.now());
+            return cached.target();
+        }
 
-        validarAccesoAContenido(c, isVip, ageYears, LocalDateTime.now());
-        return opsFor(c.getTipo()).buildTarget(c);
+        long generacion = targetCache.generacion(id);
+        Contenido c = mongoTemplate.findOne(tarjeta(new Query(where("_id").is(id))), Contenido.class);
+        if (c == null) throw new StreamingTargetResolutionException(CONTENIDO_NO_ENCONTRADO + " " + id);
+
+        StreamingTargetCache.AccesoContenido acceso = StreamingTargetCache.AccesoContenido.de(c);
+        validarAccesoAContenido(acceso, isVip, ageYears, LocalDateTime.now());
+        StreamingTarget target = opsFor(c.getTipo()).buildTarget(c)
+                .conMedia(c.getResolucion(), c.getDuracionMinutos() * 60L);
+        targetCache.put(id, generacion, acceso, target);
+        return target;
     }
 
     private interface TipoOps {
@@ -171,14 +363,7 @@ public class ContenidoService {
         
             java.nio.file.Path path = java.nio.file.Path.of(source);
             ensureReadableFile(path, "Fichero de audio no accesible");
-            long length;
-            try {
-                length = java.nio.file.Files.size(path);
-            } catch (java.io.IOException e) {
-                throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
-            }
-            String mime = guessMimeFromExt(source, AUDIO_DEFAULT);
-            return StreamingTarget.local(path, length, mime);
+            return localTarget(path, guessMimeFromExt(source, AUDIO_DEFAULT));
         }
     };
 
@@ -201,14 +386,7 @@ public class ContenidoService {
             }
             Path path = Path.of(urlOrPath);
             ensureReadableFile(path, "Fichero de vídeo no accesible");
-            long length;
-            try {
-                length = Files.size(path);
-            } catch (IOException e) {
-                throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
-            }
-            String mime = guessMimeFromExt(urlOrPath, VIDEO_MP4);
-            return StreamingTarget.local(path, length, mime);
+            return localTarget(path, guessMimeFromExt(urlOrPath, VIDEO_MP4));
         }
     };
 
@@ -217,6 +395,15 @@ public class ContenidoService {
         return (t == Contenido.Tipo.AUDIO) ? audioOps : videoOps;
     }
 
+    private StreamingTarget localTarget(Path path, String mime) throws StreamingTargetException {
+        try {
+            BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+            return StreamingTarget.local(path, attrs.size(), attrs.lastModifiedTime().toMillis(), mime);
+        } catch (IOException e) {
+            throw new StreamingTargetException("Error al obtener el tamaño del archivo: " + e.getMessage());
+        }
+    }
+
     private void ensureReadableFile(Path path, String msgPrefix) {
         if (!Files.exists(path) || !Files.isReadable(path)) {
             throw new IllegalStateException(msgPrefix + ": " + path);
@@ -245,18 +432,19 @@ public class ContenidoService {
         return fallback;
     }
 
-    private void validarAccesoAContenido(Contenido c, Boolean isVip, Integer ageYears, LocalDateTime now) {
-        if (!c.isVisible()) {
+    private void validarAccesoAContenido(StreamingTargetCache.AccesoContenido c, Boolean isVip, Integer ageYears,
+                                         LocalDateTime now) {
+        if (!c.visible()) {
             throw new ContenidoException("Este contenido no está disponible en este momento.");
         }
-        if (c.getDisponibleHasta() != null && !c.getDisponibleHasta().isAfter(now)) {
+        if (c.disponibleHasta() != null && !c.disponibleHasta().isAfter(now)) {
             throw new ContenidoException("Este contenido ha dejado de estar disponible.");
         }
 
-        if (c.isVip() && !Boolean.TRUE.equals(isVip)) {
+        if (c.vip() && !Boolean.TRUE.equals(isVip)) {
             throw new ContenidoException("Contenido VIP — necesitas una suscripción VIP para reproducirlo.");
         }
-        int minAge = c.getRestringidoEdad();
+        int minAge = c.restringidoEdad();
         if (minAge > 0) {
             if (ageYears == null) {
                 throw new ContenidoException("Contenido restringido — no se pudo verificar tu edad.");
@@ -267,16 +455,42 @@ public class ContenidoService {
         }
     }
 
-    public static Integer calcularEdad(LocalDate birthdate) {
-        if (birthdate == null) return null;
-        return Period.between(birthdate, LocalDate.now()).getYears();
+    /**
+     * Cuenta la reproducción una sola vez por sesión (cliente + contenido); las
+     * peticiones de rango y sondeos ?meta=true de la misma sesión no escriben.
+     */
+    public void registrarReproduccion(String contenidoId, String userRole, String userEmail, String cliente) {
+        if (!sesiones.registrarActividad(cliente, contenidoId)) return;
+        registrarReproduccionSiUsuario(contenidoId, userRole);
+        registrarReproductor(contenidoId, userEmail);
     }
 
     public void registrarReproduccionSiUsuario(String contenidoId, String userRole) {
         if (userRole == null || !userRole.equalsIgnoreCase(ROLE_USUARIO)) return;
-        Query q = new Query(where("_id").is(contenidoId));
-        Update u = new Update().inc(FIELD_REPRODUCCIONES, 1L);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        reproduccionesBuffer.registrarReproduccion(contenidoId);
+        masReproducidosAhora.registrar(contenidoId);
+    }
+
+    public long reproduccionesTotales(String contenidoId) {
+        return contadorReproducciones.total(contenidoId);
+    }
+
+    /** Sin tipo devuelve el ranking de cada tipo. */
+    public Map<String, List<Map<String, Object>>> tendencias(Contenido.Tipo tipo, int limite) {
+        int n = Math.max(1, limite);
+        Map<String, List<Map<String, Object>>> res = new LinkedHashMap<>();
+        for (Contenido.Tipo t : tipo != null ? List.of(tipo) : List.of(Contenido.Tipo.values())) {
+            res.put(t.name(), tendencias.tendencias(t, n));
+        }
+        return res;
+    }
+
+    public List<Map<String, Object>> masReproducidosAhora(int limite) {
+        return masReproducidosAhora.top(Math.max(1, limite));
+    }
+
+    public Map<String, Object> metricasReproducciones() {
+        return reproduccionesBuffer.metricas();
     }
 
     private void validarcontenido(Contenido contenido) throws ContenidoValidationException {
@@ -346,16 +560,7 @@ public class ContenidoService {
 
     public void registrarReproductor(String contenidoId, String userEmail) {
         if (userEmail == null || userEmail.isBlank()) return;
-        var q = new Query(Criteria.where("_id").is(contenidoId));
-        var u = new Update().addToSet("reproductores", userEmail);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
-    }
-
-    private String mapKeyForEmail(String email) {
-        if (email == null) return null;
-        return email.toLowerCase()
-                .replace(".", "%2E")
-                .replace("$", "%24");
+        reproduccionesBuffer.registrarReproductor(contenidoId, userEmail);
     }
 
     public Map<String,Object> rateContenido(String id, String userEmail, double score) {
@@ -368,49 +573,179 @@ public class ContenidoService {
     if (Math.abs(twoX - Math.rint(twoX)) > 1e-9)
         throw new ContenidoValidationException("La puntuación debe ser entera o media estrella (incrementos de 0.5).");
 
-    Contenido c = contenidoDAO.findById(id)
-        .orElseThrow(() -> new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id));
-
-    Set<String> repr = c.getReproductores();
-    if (repr == null || !repr.contains(userEmail)) {
-        throw new ContenidoException("Solo puedes valorar tras reproducir el contenido.");
-    }
-
-    Map<String, Double> ratings = c.getRatings();
-    if (ratings == null) {
-        ratings = new HashMap<>();
-        c.setRatings(ratings);
+    // la reproducción puede estar aún en el buffer de escritura diferida: se escribe
+    // solo su relación (upsert idempotente; el volcado posterior no la duplica)
+    if (reproduccionesBuffer.tieneReproductorPendiente(id, userEmail)) {
+        mongoTemplate.upsert(relacion(id, userEmail), new Update().setOnInsert("fecha", LocalDateTime.now()),
+                ContenidoReproductor.class);
     }
 
-    String key = mapKeyForEmail(userEmail);
-    if (ratings.containsKey(key)) {
-        throw new ContenidoException(MSG_YA_VALORADO);
+    // elegible (ha reproducido) y sin valoración previa, comprobado y fijado en una sola operación
+    LocalDateTime valoradoEn = LocalDateTime.now();
+    Query puerta = relacion(id, userEmail).addCriteria(where(FIELD_PUNTUACION).exists(false));
+    Update marca = new Update().set(FIELD_PUNTUACION, score).set(FIELD_VALORADO_EN, valoradoEn);
+    if (mongoTemplate.findAndModify(puerta, marca, ContenidoReproductor.class) == null) {
+        if (mongoTemplate.exists(relacion(id, userEmail), ContenidoReproductor.class)) {
+            throw new ContenidoException(MSG_YA_VALORADO);
+        }
+        throw new ContenidoException("Solo puedes valorar tras reproducir el contenido.");
     }
 
-    double total = c.getRatingAvg() * c.getRatingCount();
-    total += score;
-    c.setRatingCount(c.getRatingCount() + 1);
-    c.setRatingAvg(total / c.getRatingCount());
-    ratings.put(key, score);
-
-    contenidoDAO.save(c);
-
-    Map<String,Object> res = new HashMap<>();
-    res.put(FIELD_AVG, c.getRatingAvg());
-    res.put(FIELD_COUNT, c.getRatingCount());
-    return res;
+    Query q = new Query(where("_id").is(id));
+    // la tarjeta completa: con ella se refresca la caché compartida de tarjetas
+    q.fields().include(TarjetaContenido.CAMPOS).include(FIELD_RATING_HISTOGRAMA);
+    Contenido c;
+    try {
+        c = mongoTemplate.findAndModify(q, actualizacionMedia(score, bayesMedia, bayesPeso),
+                FindAndModifyOptions.options().returnNew(true), Contenido.class);
+    } catch (RuntimeException ex) {
+        retirarValoracion(id, userEmail, valoradoEn);
+        throw ex;
+    }
+    if (c == null) {
+        retirarValoracion(id, userEmail, valoradoEn);
+        throw new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id);
+    }
+    estadisticasTops.valoracionAplicada(c);
+    tarjetasCache.put(TarjetaContenido.de(c));
+    return resumen(c);
 }
 
-
+    /** Deshace la puerta si la media no llegó a actualizarse; solo si la marca sigue siendo la nuestra. */
+    private void retirarValoracion(String id, String userEmail, LocalDateTime valoradoEn) {
+        mongoTemplate.updateFirst(relacion(id, userEmail).addCriteria(where(FIELD_VALORADO_EN).is(valoradoEn)),
+                new Update().unset(FIELD_PUNTUACION).unset(FIELD_VALORADO_EN), ContenidoReproductor.class);
+    }
+
+    /**
+     * Media incremental calculada por el servidor: suma, contador e histograma se
+     * actualizan a la vez y la media y la media bayesiana se derivan de ellos, así que
+     * valoraciones concurrentes no se pisan. Los documentos anteriores sin ratingSuma
+     * la reconstruyen de avg*count.
+     * La media bayesiana es (peso * media + suma) / (peso + count): con pocas
+     * valoraciones manda la media a priori y con muchas la del contenido.
+     */
+    public static AggregationUpdate actualizacionMedia(double score, double media, double peso) {
+        Document count = new Document("$ifNull", List.of("$" + FIELD_RATING_COUNT, 0));
+        Document sumaPrevia = new Document("$ifNull", List.of("$" + FIELD_RATING_SUMA,
+                new Document("$multiply", List.of(new Document("$ifNull", List.of("$" + FIELD_RATING_AVG, 0)), count))));
+        Document acumular = new Document(FIELD_RATING_SUMA, new Document("$add", List.of(sumaPrevia, score)))
+                .append(FIELD_RATING_COUNT, new Document("$add", List.of(count, 1)))
+                .append(FIELD_RATING_HISTOGRAMA, incrementoHistograma(cubeta(score)));
+        Document derivados = new Document(FIELD_RATING_AVG,
+                new Document("$divide", List.of("$" + FIELD_RATING_SUMA, "$" + FIELD_RATING_COUNT)))
+                .append(FIELD_RATING_BAYES, new Document("$divide", List.of(
+                        new Document("$add", List.of(peso * media, "$" + FIELD_RATING_SUMA)),
+                        new Document("$add", List.of(peso, "$" + FIELD_RATING_COUNT)))));
+        AggregationOperation paso1 = ctx -> new Document("$set", acumular);
+        AggregationOperation paso2 = ctx -> new Document("$set", derivados);
+        return AggregationUpdate.from(List.of(paso1, paso2));
+    }
+
+    /** 0.5 estrellas va a la cubeta 0 y 5.0 a la 9. */
+    public static int cubeta(double score) {
+        return (int) Math.rint(score * 2) - 1;
+    }
+
+    /** Suma 1 a una posición del histograma; si no existía parte de diez ceros. */
+    private static Document incrementoHistograma(int cubeta) {
+        Document previo = new Document("$ifNull", List.of("$" + FIELD_RATING_HISTOGRAMA,
+                Collections.nCopies(CUBETAS_VALORACION, 0)));
+        return new Document("$map", new Document("input", new Document("$range", List.of(0, CUBETAS_VALORACION)))
+                .append("as", "i")
+                .append("in", new Document("$add", List.of(
+                        new Document("$arrayElemAt", List.of(previo, "$$i")),
+                        new Document("$cond", List.of(new Document("$eq", List.of("$$i", cubeta)), 1, 0))))));
+    }
+
+    /** Una sola lectura proyectada: el histograma viaja en el propio contenido. */
     public Map<String,Object> ratingResumen(String id) {
-    Contenido c = contenidoDAO.findById(id)
-            .orElseThrow(() -> new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id));
-    Map<String,Object> res = new HashMap<>();
-    res.put(FIELD_AVG, c.getRatingAvg());
-    res.put(FIELD_COUNT, c.getRatingCount());
-    return res;
+    return resumen(resumenValoracion(id));
 }
 
+    /**
+     * Resumen de valoraciones de varios contenidos para una rejilla del catálogo.
+     * Devuelve los ids en el orden pedido; los que no existen no aparecen.
+     */
+    public Map<String, Map<String,Object>> ratingResumenes(List<String> ids) {
+        Map<String, Map<String,Object>> res = new LinkedHashMap<>();
+        for (TarjetaContenido t : tarjetasPorId(ids, maxLoteValoraciones).values()) {
+            Map<String,Object> m = new HashMap<>();
+            m.put(FIELD_AVG, t.ratingAvg());
+            m.put(FIELD_COUNT, t.ratingCount());
+            m.put("bayes", t.ratingBayes());
+            res.put(t.id(), m);
+        }
+        return res;
+    }
+
+    /** Tarjetas en el orden pedido (repeticiones incluidas) e ids que no existen. */
+    public LoteTarjetas tarjetas(List<String> ids) {
+        Map<String, TarjetaContenido> porId = tarjetasPorId(ids, maxLoteTarjetas);
+        List<TarjetaContenido> tarjetas = new ArrayList<>();
+        LinkedHashSet<String> noEncontrados = new LinkedHashSet<>();
+        for (String id : ids != null ? ids : List.<String>of()) {
+            if (id == null || id.isBlank()) continue;
+            TarjetaContenido t = porId.get(id);
+            if (t != null) tarjetas.add(t);
+            else noEncontrados.add(id);
+        }
+        return new LoteTarjetas(tarjetas, List.copyOf(noEncontrados));
+    }
+
+    /**
+     * Lectura a través de la caché de tarjetas: lo que falta se lee con una sola
+     * consulta $in proyectada. El mapa sigue el orden de los ids pedidos.
+     */
+    public Map<String, TarjetaContenido> tarjetasPorId(List<String> ids, int max) {
+        List<String> pedidos = ids == null ? List.of()
+                : ids.stream().filter(id -> id != null && !id.isBlank()).distinct().toList();
+        if (pedidos.size() > max) {
+            throw new IllegalArgumentException("Como máximo " + max + " contenidos por petición");
+        }
+        Map<String, TarjetaContenido> encontrados = new HashMap<>();
+        List<String> pendientes = new ArrayList<>();
+        for (String id : pedidos) {
+            TarjetaContenido t = tarjetasCache.get(id);
+            if (t != null) encontrados.put(id, t);
+            else pendientes.add(id);
+        }
+        if (!pendientes.isEmpty()) {
+            Query q = new Query(where("_id").in(pendientes));
+            q.fields().include(TarjetaContenido.CAMPOS);
+            for (Contenido c : mongoTemplate.find(q, Contenido.class)) {
+                TarjetaContenido t = TarjetaContenido.de(c);
+                tarjetasCache.put(t);
+                encontrados.put(t.id(), t);
+            }
+        }
+        Map<String, TarjetaContenido> res = new LinkedHashMap<>();
+        for (String id : pedidos) {
+            TarjetaContenido t = encontrados.get(id);
+            if (t != null) res.put(id, t);
+        }
+        return res;
+    }
+
+    private static Map<String,Object> resumen(Contenido c) {
+        Map<String,Object> res = new HashMap<>();
+        res.put(FIELD_AVG, c.getRatingAvg());
+        res.put(FIELD_COUNT, c.getRatingCount());
+        res.put("bayes", c.getRatingBayes());
+        res.put("histograma", c.getRatingHistograma() != null
+                ? c.getRatingHistograma() : Collections.nCopies(CUBETAS_VALORACION, 0));
+        return res;
+    }
+
+    private Contenido resumenValoracion(String id) {
+        Query q = new Query(where("_id").is(id));
+        q.fields().include(FIELD_RATING_AVG).include(FIELD_RATING_COUNT)
+                .include(FIELD_RATING_BAYES).include(FIELD_RATING_HISTOGRAMA);
+        Contenido c = mongoTemplate.findOne(q, Contenido.class);
+        if (c == null) throw new ContenidoException(CONTENIDO_NO_ENCONTRADO + " " + id);
+        return c;
+    }
+
 
     public void addFavorito(String contenidoId, String userEmail, String roleHeader) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
@@ -422,28 +757,26 @@ public class ContenidoService {
             throw new AccessDeniedException("No se permite marcar como favorito");
         }
 
-        Query q = Query.query(Criteria.where("_id").is(contenidoId));
-        Update u = new Update().addToSet(FAVORITOS_DE_USUARIOS, email);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        Update u = new Update().setOnInsert("fecha", LocalDateTime.now());
+        mongoTemplate.upsert(relacion(contenidoId, email), u, ContenidoFavorito.class);
     }
 
     public void removeFavorito(String contenidoId, String userEmail) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
 
-        Query q = Query.query(Criteria.where("_id").is(contenidoId));
-        Update u = new Update().pull(FAVORITOS_DE_USUARIOS, email);
-        mongoTemplate.updateFirst(q, u, Contenido.class);
+        mongoTemplate.remove(relacion(contenidoId, email), ContenidoFavorito.class);
     }
 
     public List<String> listFavoritosIds(String userEmail) {
         String email = (userEmail != null && !userEmail.isBlank()) ? userEmail : currentUserEmailOrNull();
         if (email == null) throw new AccessDeniedException(USUARIO_NO_AUTENTICADO);
 
-        Query q = Query.query(Criteria.where(FAVORITOS_DE_USUARIOS).is(email))
-                .with(Sort.by(Sort.Direction.DESC, "fechaEstado"));
-        return mongoTemplate.find(q, Contenido.class)
-                .stream().map(Contenido::getId).toList();
+        Query q = Query.query(Criteria.where(FIELD_USER_EMAIL).is(ContenidoReproductor.normalizarEmail(email)))
+                .with(Sort.by(Sort.Direction.DESC, "fecha"));
+        q.fields().include(FIELD_CONTENIDO_ID);
+        return mongoTemplate.find(q, ContenidoFavorito.class)
+                .stream().map(ContenidoFavorito::getContenidoId).toList();
     }
 
     private String currentUserEmailOrNull() {
@@ -467,90 +800,17 @@ public class ContenidoService {
     }
 
     private boolean canFavorite(String contenidoId) {
-        Contenido c = mongoTemplate.findById(contenidoId, Contenido.class);
-        if (c == null) throw new AccessDeniedException("Contenido no disponible");
+        if (!mongoTemplate.exists(new Query(where("_id").is(contenidoId)), Contenido.class)) {
+            throw new AccessDeniedException("Contenido no disponible");
+        }
 
         List<ListaPublica> listas = listaPublicaDAO.findByContenidosIds(contenidoId);
         boolean enPrivada = listas.stream().anyMatch(lp -> !lp.isPublica());
         return !enPrivada;
     }
 
+    /** Vista materializada: no consulta Mongo, incluye actualizadoEn y reconciliadoEn. */
     public Map<String, Object> estadisticasGlobales() {
-        Map<String, Object> stats = new HashMap<>();
-        stats.put("topReproducciones", top5PorReproducciones());
-        stats.put("topValoraciones", top5PorValoraciones());
-        stats.put("topCategorias", top5CategoriasMasVistas());
-        return stats;
-    }
-
-    private List<Map<String, Object>> top5PorReproducciones() {
-        Query q = new Query().with(Sort.by(Sort.Direction.DESC, FIELD_REPRODUCCIONES)).limit(5);
-        List<Contenido> top = mongoTemplate.find(q, Contenido.class);
-        return top.stream().map(c -> {
-            Map<String, Object> m = new HashMap<>();
-            m.put("id", c.getId());
-            m.put("titulo", c.getTitulo());
-            m.put("tipo", c.getTipo() != null ? c.getTipo().name() : null);
-            m.put(FIELD_REPRODUCCIONES, c.getNumReproducciones());
-            return m;
-        }).toList();
-    }
-
-    private List<Map<String, Object>> top5PorValoraciones() {
-        Query q = new Query(Criteria.where("ratingCount").gt(0))
-                .with(Sort.by(Sort.Direction.DESC, "ratingAvg")
-                        .and(Sort.by(Sort.Direction.DESC, "ratingCount")))
-                .limit(5);
-        List<Contenido> top = mongoTemplate.find(q, Contenido.class);
-        return top.stream().map(c -> {
-            Map<String, Object> m = new HashMap<>();
-            m.put("id", c.getId());
-            m.put("titulo", c.getTitulo());
-            m.put("tipo", c.getTipo() != null ? c.getTipo().name() : null);
-            m.put("avg", c.getRatingAvg());
-            m.put(FIELD_COUNT, c.getRatingCount()); 
-            return m;
-        }).toList();
-    }
-
-    private List<Map<String, Object>> top5CategoriasMasVistas() {
-        Query q = new Query();
-        q.fields().include(FIELD_USER_EMAIL).include(FIELD_REPRODUCCIONES);
-        List<Contenido> contenidos = mongoTemplate.find(q, Contenido.class);
-
-        Set<String> emails = contenidos.stream()
-                .map(Contenido::getUserEmail)
-                .filter(e -> e != null && !e.isBlank())
-                .collect(HashSet::new, Set::add, Set::addAll);
-
-        Map<String, String> emailToEsp = new HashMap<>();
-        if (!emails.isEmpty()) {
-            Query uq = new Query(Criteria.where(FIELD_EMAIL).in(emails));
-            List<Document> users = mongoTemplate.find(uq, Document.class, COLLECTION_USERS);
-            for (Document d : users) {
-                String email = d.getString(FIELD_EMAIL);
-                String esp = d.getString(FIELD_ESPECIALIDAD);
-                emailToEsp.put(email, esp != null ? esp : SIN_ESPECIALIDAD);
-            }
-        }
-
-        Map<String, Long> acumulado = new HashMap<>();
-        for (Contenido c : contenidos) {
-            String email = c.getUserEmail();
-            if (email == null || email.isBlank()) continue;
-            String esp = emailToEsp.getOrDefault(email, SIN_ESPECIALIDAD);
-            acumulado.put(esp, acumulado.getOrDefault(esp, 0L) + c.getNumReproducciones());
-        }
-
-        return acumulado.entrySet().stream()
-                .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
-                .limit(5)
-                .map(e -> {
-                    Map<String, Object> m = new HashMap<>();
-                    m.put(FIELD_ESPECIALIDAD, e.getKey());
-                    m.put(FIELD_REPRODUCCIONES, e.getValue());
-                    return m;
-                })
-                .toList();
+        return estadisticasTops.tops();
     }
-}
\ No newline at end of file
+}
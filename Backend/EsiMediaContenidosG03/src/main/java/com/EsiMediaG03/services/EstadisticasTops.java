@@ -0,0 +1,306 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+
+/**
+ * Vista materializada de /Estadisticas/Tops. Se recalcula entera al reconciliar y
+ * entre medias se mantiene con los eventos: cada volcado de reproducciones y cada
+ * valoración. Leerla no consulta Mongo.
+ *
+ * Reproducciones solo crece, así que basta con conservar los N mejores candidatos
+ * y meter los contenidos recién volcados. Los totales se leen con
+ * ContadorReproducciones: en modo fragmentado incluyen lo no reconciliado y los
+ * candidatos salen tanto de los mejores por reproducciones como de los que más
+ * tienen aún en fragmentos. La media de valoración puede bajar: si un candidato
+ * cae por debajo del mejor que se quedó fuera, la vista se marca para reconciliar
+ * en la siguiente comprobación.
+ */
+@Component
+public class EstadisticasTops {
+
+    private static final Logger log = LoggerFactory.getLogger(EstadisticasTops.class);
+
+    static final String COLECCION = "estadisticas";
+    static final String ID_TOPS = "tops";
+    private static final String FIELD_ID = "id";
+    private static final String FIELD_TITULO = "titulo";
+    private static final String FIELD_TIPO = "tipo";
+    private static final String FIELD_USER_EMAIL = "userEmail";
+    private static final String FIELD_ESPECIALIDAD = "especialidad";
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+    private static final String FIELD_RATING_AVG = "ratingAvg";
+    private static final String FIELD_RATING_COUNT = "ratingCount";
+    private static final String FIELD_RATING_BAYES = "ratingBayes";
+    private static final int TOP = 5;
+
+    private record Fila(String id, String titulo, String tipo, long reproducciones, double avg, int count,
+                        double bayes) {
+        static Fila de(Contenido c) {
+            return de(c, c.getNumReproducciones());
+        }
+
+        static Fila de(Contenido c, long reproducciones) {
+            return new Fila(c.getId(), c.getTitulo(), c.getTipo() != null ? c.getTipo().name() : null,
+                    reproducciones, c.getRatingAvg(), c.getRatingCount(), c.getRatingBayes());
+        }
+    }
+
+    private static final Comparator<Fila> POR_REPRODUCCIONES =
+            Comparator.comparingLong(Fila::reproducciones).reversed();
+    /** Por media bayesiana: un único voto de 5 no supera a miles de 4.8. */
+    private static final Comparator<Fila> POR_VALORACION =
+            Comparator.comparingDouble(Fila::bayes).reversed()
+                    .thenComparing(Comparator.comparingInt(Fila::count).reversed());
+
+    private final MongoTemplate mongoTemplate;
+    private final ReproduccionesPorEspecialidad porEspecialidad;
+    private final ContadorReproducciones contador;
+    private final int candidatos;
+    private final long reconciliarMs;
+
+    private final Map<String, Fila> candidatosReproducciones = new HashMap<>();
+    private final Map<String, Fila> candidatosValoracion = new HashMap<>();
+    /** Mejor fila que ha quedado fuera de los candidatos de valoración. */
+    private Fila mejorExcluida;
+    private final Map<String, Long> porCategoria = new HashMap<>();
+
+    private volatile Map<String, Object> vista;
+    private volatile boolean sucia;
+    private volatile boolean sinPersistir;
+    private volatile long reconciliadoEn;
+
+    public EstadisticasTops(MongoTemplate mongoTemplate, ReproduccionesPorEspecialidad porEspecialidad,
+                            ContadorReproducciones contador,
+                            @Value("${contenidos.estadisticas.candidatos:20}") int candidatos,
+                            @Value("${contenidos.estadisticas.reconciliar-ms:600000}") long reconciliarMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.porEspecialidad = porEspecialidad;
+        this.contador = contador;
+        this.candidatos = Math.max(TOP, candidatos);
+        this.reconciliarMs = reconciliarMs;
+    }
+
+    /** Lectura O(1). La primera vez usa la última vista guardada o la calcula. */
+    public Map<String, Object> tops() {
+        Map<String, Object> v = vista;
+        if (v != null) return v;
+        synchronized (this) {
+            if (vista == null) {
+                Document guardada = mongoTemplate.findById(ID_TOPS, Document.class, COLECCION);
+                if (guardada != null) {
+                    guardada.remove("_id");
+                    vista = guardada;
+                    sucia = true;
+                } else {
+                    reconciliar();
+                }
+            }
+            return vista;
+        }
+    }
+
+    /**
+     * Tras volcar los incrementos: una lectura proyectada de los contenidos afectados,
+     * que ya traen su especialidad, hecha fuera del cerrojo. Como reproducciones solo
+     * crece, una lectura que llegue tarde no sustituye a una fila con más.
+     */
+    public void reproduccionesAplicadas(Map<String, Long> deltas) {
+        if (deltas.isEmpty() || !reconciliada()) return;
+        Query q = new Query(where("_id").in(deltas.keySet()));
+        q.fields().include(FIELD_TITULO).include(FIELD_TIPO).include(FIELD_REPRODUCCIONES)
+                .include(FIELD_USER_EMAIL).include(FIELD_ESPECIALIDAD);
+        List<Contenido> afectados = mongoTemplate.find(q, Contenido.class);
+        Map<String, Long> totales = contador.totales(afectados);
+        synchronized (this) {
+            for (Contenido c : afectados) {
+                if (tieneCreador(c)) {
+                    porCategoria.merge(ReproduccionesPorEspecialidad.especialidad(c),
+                            deltas.getOrDefault(c.getId(), 0L), Long::sum);
+                }
+                candidatosReproducciones.merge(c.getId(), Fila.de(c, totales.get(c.getId())),
+                        (antes, ahora) -> ahora.reproducciones() >= antes.reproducciones() ? ahora : antes);
+            }
+            recortar(candidatosReproducciones, POR_REPRODUCCIONES);
+            publicar();
+        }
+    }
+
+    /** El contenido devuelto por findAndModify trae ya la media y el contador nuevos. */
+    public synchronized void valoracionAplicada(Contenido c) {
+        if (!reconciliada() || c.getId() == null) return;
+        candidatosValoracion.put(c.getId(), Fila.de(c));
+        for (Fila fuera : recortar(candidatosValoracion, POR_VALORACION)) {
+            if (mejorExcluida == null || POR_VALORACION.compare(fuera, mejorExcluida) < 0) mejorExcluida = fuera;
+        }
+        if (!topValoracionFiable()) sucia = true;
+        publicar();
+    }
+
+    /** Hasta la primera reconciliación no hay candidatos (la vista puede venir de Mongo). */
+    private boolean reconciliada() {
+        return reconciliadoEn != 0;
+    }
+
+    /** El quinto candidato no puede quedar por detrás de ninguno de los que se quedaron fuera. */
+    private boolean topValoracionFiable() {
+        if (mejorExcluida == null) return true;
+        List<Fila> orden = ordenados(candidatosValoracion.values(), POR_VALORACION);
+        return orden.size() >= TOP && POR_VALORACION.compare(orden.get(TOP - 1), mejorExcluida) <= 0;
+    }
+
+    public synchronized void contenidoEliminado(String id) {
+        if (!reconciliada()) return;
+        candidatosReproducciones.remove(id);
+        candidatosValoracion.remove(id);
+        sucia = true;
+        publicar();
+    }
+
+    /** Reconcilia si la vista está marcada o es más antigua que reconciliar-ms; si no, solo la guarda. */
+    @Scheduled(fixedDelayString = "${contenidos.estadisticas.comprobar-ms:10000}")
+    public void mantener() {
+        if (vista == null) return;
+        try {
+            if (sucia || System.currentTimeMillis() - reconciliadoEn >= reconciliarMs) {
+                reconciliar();
+            } else if (sinPersistir) {
+                persistir();
+            }
+        } catch (RuntimeException ex) {
+            log.warn("No se pudieron mantener las estadísticas: {}", ex.toString());
+        }
+    }
+
+    /** Recalcula todo desde Mongo; es lo que antes se hacía en cada petición. */
+    public synchronized void reconciliar() {
+        candidatosReproducciones.clear();
+        Query qr = new Query().with(Sort.by(Sort.Direction.DESC, FIELD_REPRODUCCIONES)).limit(candidatos);
+        qr.fields().include(FIELD_TITULO).include(FIELD_TIPO).include(FIELD_REPRODUCCIONES);
+        List<Contenido> masVistos = new ArrayList<>(mongoTemplate.find(qr, Contenido.class));
+        // un contenido viral puede tener casi todo en fragmentos sin reconciliar
+        Set<String> leidos = masVistos.stream().map(Contenido::getId).collect(Collectors.toSet());
+        List<String> conPendientes = contador.masPendientes(candidatos).stream()
+                .filter(id -> !leidos.contains(id)).toList();
+        if (!conPendientes.isEmpty()) {
+            Query qp = new Query(where("_id").in(conPendientes));
+            qp.fields().include(FIELD_TITULO).include(FIELD_TIPO).include(FIELD_REPRODUCCIONES);
+            masVistos.addAll(mongoTemplate.find(qp, Contenido.class));
+        }
+        Map<String, Long> totales = contador.totales(masVistos);
+        masVistos.stream().map(c -> Fila.de(c, totales.get(c.getId())))
+                .sorted(POR_REPRODUCCIONES).limit(candidatos)
+                .forEach(f -> candidatosReproducciones.put(f.id(), f));
+
+        candidatosValoracion.clear();
+        // rango sobre el índice de ratingBayes: los contenidos sin valorar no tienen el campo
+        Query qv = new Query(where(FIELD_RATING_BAYES).gt(0))
+                .with(Sort.by(Sort.Direction.DESC, FIELD_RATING_BAYES))
+                .limit(candidatos + 1);
+        qv.fields().include(FIELD_TITULO).include(FIELD_TIPO).include(FIELD_RATING_AVG).include(FIELD_RATING_COUNT)
+                .include(FIELD_RATING_BAYES);
+        List<Fila> valoradas = mongoTemplate.find(qv, Contenido.class).stream().map(Fila::de).toList();
+        valoradas.stream().limit(candidatos).forEach(f -> candidatosValoracion.put(f.id(), f));
+        mejorExcluida = valoradas.size() > candidatos ? valoradas.get(candidatos) : null;
+
+        reconciliarCategorias();
+
+        reconciliadoEn = System.currentTimeMillis();
+        sucia = false;
+        publicar();
+        persistir();
+    }
+
+    private void reconciliarCategorias() {
+        porCategoria.clear();
+        porCategoria.putAll(porEspecialidad.calcular(null));
+    }
+
+    private static boolean tieneCreador(Contenido c) {
+        return c.getUserEmail() != null && !c.getUserEmail().isBlank();
+    }
+
+    private void publicar() {
+        Map<String, Object> v = new LinkedHashMap<>();
+        v.put("topReproducciones", ordenados(candidatosReproducciones.values(), POR_REPRODUCCIONES).stream()
+                .limit(TOP).map(f -> {
+                    Map<String, Object> m = fila(f);
+                    m.put(FIELD_REPRODUCCIONES, f.reproducciones());
+                    return m;
+                }).toList());
+        v.put("topValoraciones", ordenados(candidatosValoracion.values(), POR_VALORACION).stream()
+                .limit(TOP).map(f -> {
+                    Map<String, Object> m = fila(f);
+                    m.put("avg", f.avg());
+                    m.put("count", f.count());
+                    m.put("bayes", f.bayes());
+                    return m;
+                }).toList());
+        v.put("topCategorias", porCategoria.entrySet().stream()
+                .sorted((a, b) -> Long.compare(b.getValue(), a.getValue()))
+                .limit(TOP)
+                .map(e -> {
+                    Map<String, Object> m = new HashMap<>();
+                    m.put(FIELD_ESPECIALIDAD, e.getKey());
+                    m.put(FIELD_REPRODUCCIONES, e.getValue());
+                    return m;
+                }).toList());
+        v.put("actualizadoEn", System.currentTimeMillis());
+        v.put("reconciliadoEn", reconciliadoEn);
+        vista = Map.copyOf(v);
+        sinPersistir = true;
+    }
+
+    private void persistir() {
+        Document d = new Document(vista);
+        d.put("_id", ID_TOPS);
+        mongoTemplate.save(d, COLECCION);
+        sinPersistir = false;
+    }
+
+    private static Map<String, Object> fila(Fila f) {
+        Map<String, Object> m = new HashMap<>();
+        m.put(FIELD_ID, f.id());
+        m.put(FIELD_TITULO, f.titulo());
+        m.put(FIELD_TIPO, f.tipo());
+        return m;
+    }
+
+    /** Deja como mucho "candidatos" filas y devuelve las que salen. */
+    private List<Fila> recortar(Map<String, Fila> filas, Comparator<Fila> orden) {
+        List<Fila> fuera = new ArrayList<>();
+        while (filas.size() > candidatos) {
+            Fila peor = filas.values().stream().max(orden).orElseThrow();
+            filas.remove(peor.id());
+            fuera.add(peor);
+        }
+        return fuera;
+    }
+
+    private static List<Fila> ordenados(Collection<Fila> filas, Comparator<Fila> orden) {
+        List<Fila> l = new ArrayList<>(filas);
+        l.sort(orden);
+        return l;
+    }
+}
@@ -1,25 +1,50 @@
 package com.EsiMediaG03.services;
 
 import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.dto.FiltroAcceso;
+import com.EsiMediaG03.dto.ListaHidratada;
+import com.EsiMediaG03.dto.TarjetaContenido;
 import com.EsiMediaG03.model.ListaPublica;
 
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 import org.springframework.stereotype.Service;
 import org.springframework.web.context.request.RequestContextHolder;
 import org.springframework.web.context.request.ServletRequestAttributes;
 
+import java.time.LocalDateTime;
+import java.time.ZoneId;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
 @Service
 public class ListaPublicaService {
 
     private static final String LISTA_NO_ENCONTRADA = "Lista no encontrada con id ";
+    private static final String FIELD_CONTENIDOS_IDS = "contenidosIds";
+    public static final int MAX_VENTANA_LISTA = 200;
 
     private final ListaPublicaDAO listaPublicaDAO;
+    private final MongoTemplate mongoTemplate;
+    private final ContenidoService contenidoService;
 
-    public ListaPublicaService(ListaPublicaDAO listaPublicaDAO) {
+    public ListaPublicaService(ListaPublicaDAO listaPublicaDAO, MongoTemplate mongoTemplate,
+                               ContenidoService contenidoService) {
         this.listaPublicaDAO = listaPublicaDAO;
+        this.mongoTemplate = mongoTemplate;
+        this.contenidoService = contenidoService;
     }
 
     public ListaPublica crearLista(ListaPublica lista) {
@@ -38,54 +63,119 @@ public class ListaPublicaService {
         return listaPublicaDAO.findById(id);
     }
 
+    /**
+     * La lista con las tarjetas de una ventana de posiciones [desde, desde + limite):
+     * una lectura de la lista que solo trae esa ventana de ids y su tamaño total, y
+     * una lectura en lote de las tarjetas a través de la caché compartida.
+     */
+    public ListaHidratada obtenerListaHidratada(String id, int desde, int limite, FiltroAcceso filtro) {
+        int inicio = Math.max(0, desde);
+        int n = Math.max(1, Math.min(limite, MAX_VENTANA_LISTA));
+        Document ids = new Document("$ifNull", List.of("$" + FIELD_CONTENIDOS_IDS, List.of()));
+        Aggregation agg = Aggregation.newAggregation(
+                Aggregation.match(where("_id").is(id)),
+                ctx -> new Document("$project", new Document("nombre", 1).append("descripcion", 1)
+                        .append("userEmail", 1).append("publica", 1).append("fechaCreacion", 1)
+                        .append("total", new Document("$size", ids))
+                        .append(FIELD_CONTENIDOS_IDS, new Document("$slice", List.of(ids, inicio, n)))));
+        Document lista = mongoTemplate.aggregate(agg, ListaPublica.class, Document.class).getUniqueMappedResult();
+        if (lista == null) throw new RuntimeException(LISTA_NO_ENCONTRADA + id);
+
+        List<String> ventana = lista.getList(FIELD_CONTENIDOS_IDS, String.class, List.of());
+        Map<String, TarjetaContenido> tarjetas = contenidoService.tarjetasPorId(ventana, MAX_VENTANA_LISTA);
+        LocalDateTime now = LocalDateTime.now();
+        List<ListaHidratada.Elemento> elementos = new ArrayList<>(ventana.size());
+        for (int i = 0; i < ventana.size(); i++) {
+            String contenidoId = ventana.get(i);
+            TarjetaContenido t = tarjetas.get(contenidoId);
+            String motivo = t == null ? "NO_ENCONTRADO" : filtro.motivoBloqueo(t, now);
+            elementos.add(new ListaHidratada.Elemento(inicio + i, contenidoId, t, motivo == null, motivo));
+        }
+        int total = lista.getInteger("total", 0);
+        Date creada = lista.getDate("fechaCreacion");
+        return new ListaHidratada(id, lista.getString("nombre"), lista.getString("descripcion"),
+                lista.getString("userEmail"), lista.getBoolean("publica", true),
+                creada != null ? LocalDateTime.ofInstant(creada.toInstant(), ZoneId.systemDefault()) : null,
+                total, inicio, elementos, inicio + n < total ? inicio + n : null);
+    }
+
     public void  eliminarLista(String id) {
         listaPublicaDAO.deleteById(id);
     }
 
+    /**
+     * Un único $set sobre el documento en lugar de leer, modificar y guardar la
+     * lista entera: nombre, descripción y visibilidad siempre y contenidosIds solo
+     * si viene en el cuerpo (sustituye el array tal cual, como hasta ahora). Sin
+     * él no se pisan las ediciones atómicas que otros hagan a la vez.
+     */
     public ListaPublica actualizarLista(String id, ListaPublica nuevaLista) {
-        return listaPublicaDAO.findById(id)
-                .map(lista -> {
-                    lista.setNombre(nuevaLista.getNombre());
-                    lista.setDescripcion(nuevaLista.getDescripcion());
-                    lista.setContenidosIds(nuevaLista.getContenidosIds());
-                    lista.setPublica(nuevaLista.isPublica());
-                    return listaPublicaDAO.save(lista);
-                })
-                .orElseThrow(() -> new RuntimeException(LISTA_NO_ENCONTRADA + id));
+        Update cambio = new Update()
+                .set("nombre", nuevaLista.getNombre())
+                .set("descripcion", nuevaLista.getDescripcion())
+                .set("publica", nuevaLista.isPublica());
+        if (nuevaLista.getContenidosIds() != null) cambio.set(FIELD_CONTENIDOS_IDS, nuevaLista.getContenidosIds());
+        return modificarLista(id, cambio);
     }
     
-public ListaPublica anadirContenidoALista(String listaId, String contenidoId) {
-        ListaPublica lista = listaPublicaDAO.findById(listaId)
-            .orElseThrow(() -> new RuntimeException(LISTA_NO_ENCONTRADA + listaId));
-        List<String> ids = lista.getContenidosIds();
-        if (ids == null) {
-            ids = new ArrayList<>();
-            lista.setContenidosIds(ids);
-        }
-
-        if (!ids.contains(contenidoId)) {
-            ids.add(contenidoId);
-            listaPublicaDAO.save(lista);
-        }
-        return lista;
+    /** $addToSet: atómico y sin duplicados, aunque dos usuarios editen a la vez. */
+    public ListaPublica anadirContenidoALista(String listaId, String contenidoId) {
+        return modificarLista(listaId, new Update().addToSet(FIELD_CONTENIDOS_IDS, contenidoId));
     }
 
     public ListaPublica eliminarContenidoDeLista(String listaId, String contenidoId) {
-        ListaPublica lista = listaPublicaDAO.findById(listaId)
-            .orElseThrow(() -> new RuntimeException(LISTA_NO_ENCONTRADA + listaId));
+        return modificarLista(listaId, new Update().pull(FIELD_CONTENIDOS_IDS, contenidoId));
+    }
 
-        List<String> ids = lista.getContenidosIds();
-        if (ids == null) {
-            ids = new ArrayList<>();
-            lista.setContenidosIds(ids);
-        }
+    public ListaPublica anadirContenidosALista(String listaId, List<String> contenidosIds) {
+        return modificarLista(listaId,
+                new Update().addToSet(FIELD_CONTENIDOS_IDS).each(contenidosIds.toArray()));
+    }
 
-        if (ids.remove(contenidoId)) {
-            listaPublicaDAO.save(lista);
-        }
+    public ListaPublica eliminarContenidosDeLista(String listaId, List<String> contenidosIds) {
+        return modificarLista(listaId, new Update().pullAll(FIELD_CONTENIDOS_IDS, contenidosIds.toArray()));
+    }
+
+    /** Inserta en la posición indicada; si el contenido ya estaba, la lista no cambia. */
+    public ListaPublica insertarContenidoEnLista(String listaId, String contenidoId, int posicion) {
+        return modificarLista(listaId, colocacion(contenidoId, posicion, false));
+    }
+
+    /** Mueve el contenido a la posición indicada; si no estaba, la lista no cambia. */
+    public ListaPublica moverContenidoEnLista(String listaId, String contenidoId, int posicion) {
+        return modificarLista(listaId, colocacion(contenidoId, posicion, true));
+    }
+
+    /** Una sola ida y vuelta: la actualización se aplica en Mongo y devuelve la lista resultante. */
+    private ListaPublica modificarLista(String listaId, UpdateDefinition cambio) {
+        ListaPublica lista = mongoTemplate.findAndModify(new Query(where("_id").is(listaId)), cambio,
+                FindAndModifyOptions.options().returnNew(true), ListaPublica.class);
+        if (lista == null) throw new RuntimeException(LISTA_NO_ENCONTRADA + listaId);
         return lista;
     }
 
+    /**
+     * Pipeline que quita el contenido del array y lo vuelve a meter en la posición
+     * pedida: cabeza + [id] + cola. Con mover=true solo se aplica si ya estaba y con
+     * mover=false solo si no estaba. Una posición mayor que el tamaño lo deja al final.
+     */
+    static AggregationUpdate colocacion(String contenidoId, int posicion, boolean mover) {
+        int pos = Math.max(0, posicion);
+        Document ids = new Document("$ifNull", List.of("$" + FIELD_CONTENIDOS_IDS, List.of()));
+        // literal: un id que empiece por '$' no debe evaluarse como ruta de campo
+        Document id = new Document("$literal", contenidoId);
+        Document resto = new Document("$filter", new Document("input", ids).append("as", "c")
+                .append("cond", new Document("$ne", List.of("$$c", id))));
+        Object cabeza = pos == 0 ? List.of() : new Document("$slice", List.of(resto, pos));
+        Document cola = new Document("$slice", List.of(resto, pos,
+                new Document("$add", List.of(new Document("$size", resto), 1))));
+        Document colocado = new Document("$concatArrays", List.of(cabeza, List.of(id), cola));
+        Document presente = new Document("$in", List.of(id, ids));
+        Document valor = new Document("$cond", mover ? List.of(presente, colocado, ids) : List.of(presente, ids, colocado));
+        AggregationOperation paso = ctx -> new Document("$set", new Document(FIELD_CONTENIDOS_IDS, valor));
+        return AggregationUpdate.from(List.of(paso));
+    }
+
     public ListaPublica ensureMisFavoritosForUser(String email) {
         if (email == null || email.isBlank())
             throw new IllegalArgumentException("El email del usuario no puede ser nulo o vacío");
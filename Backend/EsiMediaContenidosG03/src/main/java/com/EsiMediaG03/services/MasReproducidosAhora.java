@@ -0,0 +1,175 @@
+package com.EsiMediaG03.services;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * "Lo más reproducido ahora" con un resumen Space-Saving: como mucho "capacidad"
+ * contadores, sea cual sea el tamaño del catálogo. Un contenido que no está en el
+ * resumen sustituye al de menor cuenta y hereda esa cuenta como error, así que
+ * cuenta - error es una cota inferior de sus reproducciones reales. Cualquier
+ * contenido con más de total/capacidad reproducciones está garantizado en el resumen.
+ *
+ * Las cuentas se reducen a la mitad cada semivida-ms para que pese lo reciente (el
+ * envejecimiento se aplica al leer y al guardar, no en cada reproducción), y el
+ * resumen se guarda periódicamente en "estadisticas" para sobrevivir a reinicios.
+ */
+@Component
+public class MasReproducidosAhora {
+
+    private static final Logger log = LoggerFactory.getLogger(MasReproducidosAhora.class);
+
+    static final String COLECCION = EstadisticasTops.COLECCION;
+    static final String ID_RESUMEN = "mas-reproducidos-ahora";
+
+    private static final class Contador {
+        final String id;
+        double cuenta;
+        double error;
+
+        Contador(String id, double cuenta, double error) {
+            this.id = id;
+            this.cuenta = cuenta;
+            this.error = error;
+        }
+    }
+
+    private static final Comparator<Contador> POR_CUENTA =
+            Comparator.comparingDouble((Contador c) -> c.cuenta).thenComparing(c -> c.id);
+
+    private final MongoTemplate mongoTemplate;
+    private final int capacidad;
+    private final double semividaMs;
+
+    private final Map<String, Contador> contadores = new HashMap<>();
+    /** El primero es el de menor cuenta, el que se sustituye. */
+    private final TreeSet<Contador> orden = new TreeSet<>(POR_CUENTA);
+    private long envejecidoEn = System.currentTimeMillis();
+
+    public MasReproducidosAhora(MongoTemplate mongoTemplate,
+                                @Value("${contenidos.ahora.capacidad:200}") int capacidad,
+                                @Value("${contenidos.ahora.semivida-ms:900000}") long semividaMs) {
+        this.mongoTemplate = mongoTemplate;
+        this.capacidad = Math.max(1, capacidad);
+        this.semividaMs = Math.max(1, semividaMs);
+    }
+
+    /** O(log capacidad) y sin E/S: se llama en cada reproducción. */
+    public synchronized void registrar(String contenidoId) {
+        Contador c = contadores.get(contenidoId);
+        if (c != null) {
+            orden.remove(c);
+            c.cuenta++;
+            orden.add(c);
+            return;
+        }
+        if (contadores.size() < capacidad) {
+            c = new Contador(contenidoId, 1, 0);
+        } else {
+            Contador min = orden.pollFirst();
+            contadores.remove(min.id);
+            c = new Contador(contenidoId, min.cuenta + 1, min.cuenta);
+        }
+        contadores.put(contenidoId, c);
+        orden.add(c);
+    }
+
+    public List<Map<String, Object>> top(int limite) {
+        return top(limite, System.currentTimeMillis());
+    }
+
+    /**
+     * Los más reproducidos con su cuenta estimada y su cota inferior. "garantizado"
+     * indica que su cota inferior supera la estimación del siguiente, es decir, que
+     * seguro que está por delante de él.
+     */
+    public synchronized List<Map<String, Object>> top(int limite, long ahora) {
+        envejecer(ahora);
+        List<Contador> mejores = new ArrayList<>(orden.descendingSet());
+        List<Map<String, Object>> res = new ArrayList<>();
+        for (int i = 0; i < Math.min(limite, mejores.size()); i++) {
+            Contador c = mejores.get(i);
+            double siguiente = i + 1 < mejores.size() ? mejores.get(i + 1).cuenta : 0;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", c.id);
+            m.put("reproducciones", c.cuenta);
+            m.put("minimo", c.cuenta - c.error);
+            m.put("garantizado", c.cuenta - c.error >= siguiente);
+            res.add(m);
+        }
+        return res;
+    }
+
+    /** Reduce todas las cuentas por el tiempo transcurrido desde la última vez. */
+    private void envejecer(long ahora) {
+        if (ahora <= envejecidoEn) return;
+        double f = Math.pow(0.5, (ahora - envejecidoEn) / semividaMs);
+        envejecidoEn = ahora;
+        List<Contador> todos = new ArrayList<>(orden);
+        orden.clear();
+        for (Contador c : todos) {
+            c.cuenta *= f;
+            c.error *= f;
+        }
+        orden.addAll(todos);
+    }
+
+    @PostConstruct
+    public void restaurar() {
+        try {
+            Document d = mongoTemplate.findById(ID_RESUMEN, Document.class, COLECCION);
+            if (d != null) restaurar(d);
+        } catch (DataAccessException ex) {
+            log.warn("No se pudo restaurar el resumen de más reproducidos: {}", ex.toString());
+        }
+    }
+
+    private synchronized void restaurar(Document d) {
+        contadores.clear();
+        orden.clear();
+        for (Object o : d.getList("contadores", Object.class, List.of())) {
+            if (!(o instanceof Document c) || contadores.size() >= capacidad) continue;
+            Contador k = new Contador(c.getString("id"),
+                    ((Number) c.get("cuenta")).doubleValue(), ((Number) c.get("error")).doubleValue());
+            contadores.put(k.id, k);
+            orden.add(k);
+        }
+        envejecidoEn = ((Number) d.getOrDefault("envejecidoEn", System.currentTimeMillis())).longValue();
+        envejecer(System.currentTimeMillis());
+    }
+
+    @Scheduled(fixedDelayString = "${contenidos.ahora.snapshot-ms:60000}")
+    public void guardar() {
+        Document d;
+        synchronized (this) {
+            envejecer(System.currentTimeMillis());
+            List<Document> filas = new ArrayList<>(contadores.size());
+            for (Contador c : orden.descendingSet()) {
+                filas.add(new Document("id", c.id).append("cuenta", c.cuenta).append("error", c.error));
+            }
+            d = new Document("_id", ID_RESUMEN).append("contadores", filas)
+                    .append("envejecidoEn", envejecidoEn);
+        }
+        try {
+            mongoTemplate.save(d, COLECCION);
+        } catch (DataAccessException ex) {
+            log.warn("No se pudo guardar el resumen de más reproducidos: {}", ex.toString());
+        }
+    }
+}
@@ -0,0 +1,89 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Migración única: copia la especialidad y el alias del creador en los contenidos
+ * que se crearon antes de guardarlos. Lee los creadores distintos (no los
+ * contenidos) y escribe un updateMulti por creador en lotes. Repetirla es seguro;
+ * al terminar deja una marca en "migraciones".
+ */
+@Component
+public class MigracionEspecialidadCreador {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionEspecialidadCreador.class);
+
+    static final String ID_MIGRACION = "especialidad-creador";
+    private static final String COLECCION_MIGRACIONES = MigracionRelacionesContenido.COLECCION_MIGRACIONES;
+    private static final String COLECCION_CONTENIDOS = "contenidos";
+    private static final String COLECCION_USERS = "users";
+    private static final String USER_EMAIL = "userEmail";
+    private static final String EMAIL = "email";
+    private static final String ESPECIALIDAD = "especialidad";
+    private static final String ALIAS = "alias";
+    private static final String CREADOR_ALIAS = "creadorAlias";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean habilitada;
+    private final int lote;
+
+    public MigracionEspecialidadCreador(MongoTemplate mongoTemplate,
+                                        @Value("${contenidos.migracion.especialidad.enabled:true}") boolean habilitada,
+                                        @Value("${contenidos.migracion.especialidad.lote:500}") int lote) {
+        this.mongoTemplate = mongoTemplate;
+        this.habilitada = habilitada;
+        this.lote = Math.max(1, lote);
+    }
+
+    @PostConstruct
+    public void migrarSiPendiente() {
+        if (!habilitada) return;
+        if (mongoTemplate.exists(new Query(where("_id").is(ID_MIGRACION)), COLECCION_MIGRACIONES)) return;
+        long creadores = migrar();
+        mongoTemplate.save(new Document("_id", ID_MIGRACION).append("fecha", LocalDateTime.now())
+                .append("creadores", creadores), COLECCION_MIGRACIONES);
+        log.info("Especialidad del creador copiada en los contenidos de {} creadores", creadores);
+    }
+
+    /** Devuelve el número de creadores cuyos contenidos se han actualizado. */
+    public long migrar() {
+        List<String> emails = mongoTemplate.findDistinct(
+                new Query(where(ESPECIALIDAD).exists(false).and(USER_EMAIL).exists(true).nin(null, "")),
+                USER_EMAIL, COLECCION_CONTENIDOS, String.class);
+        long creadores = 0;
+        for (int i = 0; i < emails.size(); i += lote) {
+            creadores += volcar(emails.subList(i, Math.min(emails.size(), i + lote)));
+        }
+        return creadores;
+    }
+
+    private int volcar(List<String> emails) {
+        Query uq = new Query(where(EMAIL).in(emails));
+        uq.fields().include(EMAIL).include(ESPECIALIDAD).include(ALIAS);
+        List<Document> usuarios = mongoTemplate.find(uq, Document.class, COLECCION_USERS);
+        if (usuarios.isEmpty()) return 0;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLECCION_CONTENIDOS);
+        for (Document u : usuarios) {
+            bulk.updateMulti(new Query(where(USER_EMAIL).is(u.getString(EMAIL))), new Update()
+                    .set(ESPECIALIDAD, u.getString(ESPECIALIDAD))
+                    .set(CREADOR_ALIAS, u.getString(ALIAS)));
+        }
+        bulk.execute();
+        return usuarios.size();
+    }
+}
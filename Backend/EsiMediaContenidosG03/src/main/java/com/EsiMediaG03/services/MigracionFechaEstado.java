@@ -0,0 +1,65 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.time.LocalDateTime;
+import java.util.Date;
+import java.util.List;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Migración única: da fechaEstado a los contenidos que no la tienen, para que el
+ * catálogo paginado ordene por un campo siempre presente. Se toma la fecha de
+ * creación del ObjectId; si el _id no lo es, el inicio de la época (van al final).
+ * Un único updateMulti con pipeline; al terminar deja una marca en "migraciones".
+ */
+@Component
+public class MigracionFechaEstado {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionFechaEstado.class);
+
+    static final String ID_MIGRACION = "fecha-estado";
+    private static final String COLECCION_MIGRACIONES = MigracionRelacionesContenido.COLECCION_MIGRACIONES;
+    private static final String COLECCION_CONTENIDOS = "contenidos";
+    private static final String FECHA_ESTADO = "fechaEstado";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean habilitada;
+
+    public MigracionFechaEstado(MongoTemplate mongoTemplate,
+                                @Value("${contenidos.migracion.fecha-estado.enabled:true}") boolean habilitada) {
+        this.mongoTemplate = mongoTemplate;
+        this.habilitada = habilitada;
+    }
+
+    @PostConstruct
+    public void migrarSiPendiente() {
+        if (!habilitada) return;
+        if (mongoTemplate.exists(new Query(where("_id").is(ID_MIGRACION)), COLECCION_MIGRACIONES)) return;
+        long contenidos = migrar();
+        mongoTemplate.save(new Document("_id", ID_MIGRACION).append("fecha", LocalDateTime.now())
+                .append("contenidos", contenidos), COLECCION_MIGRACIONES);
+        log.info("fechaEstado rellenada en {} contenidos", contenidos);
+    }
+
+    /** Devuelve el número de contenidos actualizados. */
+    public long migrar() {
+        Date epoca = new Date(0);
+        Document desdeId = new Document("$convert", new Document("input", "$_id").append("to", "date")
+                .append("onError", epoca).append("onNull", epoca));
+        AggregationOperation paso = ctx -> new Document("$set", new Document(FECHA_ESTADO, desdeId));
+        return mongoTemplate.updateMulti(new Query(where(FECHA_ESTADO).is(null)),
+                AggregationUpdate.from(List.of(paso)), COLECCION_CONTENIDOS).getModifiedCount();
+    }
+}
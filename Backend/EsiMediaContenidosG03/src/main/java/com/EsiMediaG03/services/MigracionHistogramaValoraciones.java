@@ -0,0 +1,149 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoReproductor;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Rellena histograma, suma, contador, media y media bayesiana de cada contenido a
+ * partir de las puntuaciones guardadas en las relaciones de reproducción, que son
+ * la fuente de verdad. Se ejecuta una vez; si después cambian la media o el peso a
+ * priori solo se recalcula ratingBayes, con un único updateMulti.
+ */
+@Component
+public class MigracionHistogramaValoraciones {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionHistogramaValoraciones.class);
+
+    static final String ID_MIGRACION = "histograma-valoraciones";
+    private static final String COLECCION_MIGRACIONES = MigracionRelacionesContenido.COLECCION_MIGRACIONES;
+    private static final String COLECCION_CONTENIDOS = "contenidos";
+    private static final String PUNTUACION = "puntuacion";
+    private static final String RATING_COUNT = "ratingCount";
+    private static final String RATING_SUMA = "ratingSuma";
+    private static final String RATING_BAYES = "ratingBayes";
+    private static final String MEDIA = "media";
+    private static final String PESO = "peso";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean habilitada;
+    private final double media;
+    private final double peso;
+    private final int lote;
+
+    /** Recibe la migración de relaciones para ejecutarse después de ella. */
+    public MigracionHistogramaValoraciones(MongoTemplate mongoTemplate,
+                                           MigracionRelacionesContenido relaciones,
+                                           @Value("${contenidos.migracion.histograma.enabled:true}") boolean habilitada,
+                                           @Value("${contenidos.valoracion.bayes.media:3.5}") double media,
+                                           @Value("${contenidos.valoracion.bayes.peso:10}") double peso,
+                                           @Value("${contenidos.migracion.histograma.lote:1000}") int lote) {
+        this.mongoTemplate = mongoTemplate;
+        this.habilitada = habilitada;
+        this.media = media;
+        this.peso = peso;
+        this.lote = Math.max(1, lote);
+    }
+
+    @PostConstruct
+    public void migrarSiPendiente() {
+        if (!habilitada) return;
+        Document marca = mongoTemplate.findById(ID_MIGRACION, Document.class, COLECCION_MIGRACIONES);
+        if (marca == null) {
+            long n = migrar();
+            log.info("Histogramas de valoración reconstruidos en {} contenidos", n);
+        } else if (!mismoValor(marca.get(MEDIA), media) || !mismoValor(marca.get(PESO), peso)) {
+            recalcularBayes();
+            log.info("Media bayesiana recalculada con media {} y peso {}", media, peso);
+        } else {
+            return;
+        }
+        mongoTemplate.save(new Document("_id", ID_MIGRACION).append("fecha", LocalDateTime.now())
+                .append(MEDIA, media).append(PESO, peso), COLECCION_MIGRACIONES);
+    }
+
+    private static boolean mismoValor(Object guardado, double actual) {
+        return guardado instanceof Number n && n.doubleValue() == actual;
+    }
+
+    /** Devuelve el número de contenidos actualizados. */
+    public long migrar() {
+        Aggregation agg = Aggregation.newAggregation(
+                Aggregation.match(where(PUNTUACION).exists(true).ne(null)),
+                ctx -> new Document("$group", new Document("_id",
+                        new Document("c", "$contenidoId").append("p", "$" + PUNTUACION))
+                        .append("n", new Document("$sum", 1))),
+                ctx -> new Document("$group", new Document("_id", "$_id.c")
+                        .append("cubetas", new Document("$push", new Document("p", "$_id.p").append("n", "$n")))));
+
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+        int pendientes = 0;
+        long actualizados = 0;
+        try (Stream<Document> filas = mongoTemplate.aggregateStream(agg, ContenidoReproductor.class, Document.class)) {
+            for (Document fila : (Iterable<Document>) filas::iterator) {
+                bulk.updateOne(new Query(where("_id").is(fila.get("_id"))), agregado(fila.getList("cubetas", Document.class)));
+                actualizados++;
+                if (++pendientes >= lote) {
+                    bulk.execute();
+                    bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+                    pendientes = 0;
+                }
+            }
+        }
+        if (pendientes > 0) bulk.execute();
+        return actualizados;
+    }
+
+    private Update agregado(List<Document> cubetas) {
+        List<Integer> histograma = new ArrayList<>(Collections.nCopies(ContenidoService.CUBETAS_VALORACION, 0));
+        double suma = 0;
+        int count = 0;
+        for (Document c : cubetas) {
+            double p = ((Number) c.get("p")).doubleValue();
+            int n = ((Number) c.get("n")).intValue();
+            int i = ContenidoService.cubeta(p);
+            if (i < 0 || i >= histograma.size()) continue;
+            histograma.set(i, histograma.get(i) + n);
+            suma += p * n;
+            count += n;
+        }
+        return new Update()
+                .set("ratingHistograma", histograma)
+                .set(RATING_SUMA, suma)
+                .set(RATING_COUNT, count)
+                .set("ratingAvg", count > 0 ? suma / count : 0)
+                .set(RATING_BAYES, count > 0 ? (peso * media + suma) / (peso + count) : 0);
+    }
+
+    /** Misma expresión que al valorar, aplicada a todos los contenidos valorados. */
+    public void recalcularBayes() {
+        Document expr = new Document("$divide", List.of(
+                new Document("$add", List.of(peso * media, "$" + RATING_SUMA)),
+                new Document("$add", List.of(peso, "$" + RATING_COUNT))));
+        AggregationOperation paso = ctx -> new Document("$set", new Document(RATING_BAYES, expr));
+        AggregationUpdate bayes = AggregationUpdate.from(List.of(paso));
+        mongoTemplate.updateMulti(new Query(where(RATING_COUNT).gt(0)), bayes, COLECCION_CONTENIDOS);
+    }
+}
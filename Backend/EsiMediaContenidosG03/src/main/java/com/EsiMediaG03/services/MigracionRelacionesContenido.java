@@ -0,0 +1,231 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.config.MongoIndexesConfig;
+import com.EsiMediaG03.model.ContenidoFavorito;
+import com.EsiMediaG03.model.ContenidoReproductor;
+
+import jakarta.annotation.PostConstruct;
+
+/**
+ * Migración única: pasa reproductores, favoritosDeUsuarios y ratings embebidos en
+ * cada contenido a sus colecciones de relaciones (la valoración se guarda en la
+ * relación de reproducción) y los elimina del documento.
+ * Recorre los contenidos con un cursor (sin cargarlos todos) y escribe por lotes;
+ * las relaciones se insertan con upsert sobre (contenidoId, userEmail), así que
+ * repetirla tras un fallo es seguro. Al terminar deja una marca en "migraciones".
+ * Los emails se guardan en minúsculas; un segundo paso (con su propia marca)
+ * normaliza las relaciones ya migradas con mayúsculas y funde los duplicados.
+ */
+@Component
+public class MigracionRelacionesContenido {
+
+    private static final Logger log = LoggerFactory.getLogger(MigracionRelacionesContenido.class);
+
+    static final String COLECCION_MIGRACIONES = "migraciones";
+    static final String ID_MIGRACION = "relaciones-contenido";
+    static final String ID_NORMALIZACION = "relaciones-email-minusculas";
+    private static final String COLECCION_CONTENIDOS = "contenidos";
+    private static final String LEGADO_REPRODUCTORES = "reproductores";
+    private static final String LEGADO_FAVORITOS = "favoritosDeUsuarios";
+    private static final String LEGADO_RATINGS = "ratings";
+    private static final String CONTENIDO_ID = "contenidoId";
+    private static final String USER_EMAIL = "userEmail";
+    private static final String PUNTUACION = "puntuacion";
+    private static final String VALORADO_EN = "valoradoEn";
+    private static final String FECHA = "fecha";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean habilitada;
+    private final int lote;
+
+    /** Recibe MongoIndexesConfig para que los índices únicos existan antes de migrar. */
+    public MigracionRelacionesContenido(MongoTemplate mongoTemplate,
+                                        MongoIndexesConfig indices,
+                                        @Value("${contenidos.migracion.relaciones.enabled:true}") boolean habilitada,
+                                        @Value("${contenidos.migracion.relaciones.lote:1000}") int lote) {
+        this.mongoTemplate = mongoTemplate;
+        this.habilitada = habilitada;
+        this.lote = Math.max(1, lote);
+    }
+
+    @PostConstruct
+    public void migrarSiPendiente() {
+        if (!habilitada) return;
+        if (!hecha(ID_MIGRACION)) {
+            long migrados = migrar();
+            marcar(ID_MIGRACION, "contenidos", migrados);
+            log.info("Migración de relaciones de contenido completada: {} contenidos", migrados);
+        }
+        if (!hecha(ID_NORMALIZACION)) {
+            Normalizacion reproductores = normalizarEmails(ContenidoReproductor.class);
+            Normalizacion favoritos = normalizarEmails(ContenidoFavorito.class);
+            if (reproductores.valoracionesDuplicadas() > 0) {
+                // las dos valoraciones contaban en el agregado: se reconstruye desde las relaciones
+                mongoTemplate.remove(new Query(where("_id").is(MigracionHistogramaValoraciones.ID_MIGRACION)),
+                        COLECCION_MIGRACIONES);
+            }
+            marcar(ID_NORMALIZACION, "relaciones", reproductores.corregidas() + favoritos.corregidas());
+            log.info("Emails de relaciones normalizados: {} reproducciones ({} valoraciones duplicadas), {} favoritos",
+                    reproductores.corregidas(), reproductores.valoracionesDuplicadas(), favoritos.corregidas());
+        }
+    }
+
+    private boolean hecha(String id) {
+        return mongoTemplate.exists(new Query(where("_id").is(id)), COLECCION_MIGRACIONES);
+    }
+
+    private void marcar(String id, String campo, long n) {
+        mongoTemplate.save(new Document("_id", id).append(FECHA, LocalDateTime.now())
+                .append(campo, n), COLECCION_MIGRACIONES);
+    }
+
+    /** Devuelve el número de contenidos migrados. */
+    public long migrar() {
+        Query q = new Query(new Criteria().orOperator(
+                where(LEGADO_REPRODUCTORES).exists(true),
+                where(LEGADO_FAVORITOS).exists(true),
+                where(LEGADO_RATINGS).exists(true)));
+        q.fields().include(LEGADO_REPRODUCTORES).include(LEGADO_FAVORITOS).include(LEGADO_RATINGS);
+        q.cursorBatchSize(lote);
+
+        Lote pendiente = new Lote();
+        long migrados = 0;
+        try (Stream<Document> cursor = mongoTemplate.stream(q, Document.class, COLECCION_CONTENIDOS)) {
+            for (Document d : (Iterable<Document>) cursor::iterator) {
+                pendiente.anadir(d);
+                migrados++;
+                if (pendiente.operaciones >= lote) pendiente = volcar(pendiente);
+            }
+        }
+        volcar(pendiente);
+        return migrados;
+    }
+
+    private final class Lote {
+        final BulkOperations reproductores = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContenidoReproductor.class);
+        final BulkOperations favoritos = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContenidoFavorito.class);
+        final BulkOperations limpieza = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, COLECCION_CONTENIDOS);
+        int nReproductores;
+        int nFavoritos;
+        int nValoraciones;
+        int documentos;
+        int operaciones;
+
+        void anadir(Document d) {
+            String id = d.get("_id").toString();
+            for (String email : emails(d.get(LEGADO_REPRODUCTORES))) {
+                reproductores.upsert(relacion(id, email), new Update().setOnInsert(FECHA, LocalDateTime.now()));
+                nReproductores++;
+            }
+            for (String email : emails(d.get(LEGADO_FAVORITOS))) {
+                favoritos.upsert(relacion(id, email), new Update().setOnInsert(FECHA, LocalDateTime.now()));
+                nFavoritos++;
+            }
+            if (d.get(LEGADO_RATINGS) instanceof Map<?, ?> ratings) {
+                for (Map.Entry<?, ?> e : ratings.entrySet()) {
+                    if (!(e.getValue() instanceof Number score)) continue;
+                    // quien valoró había reproducido: la valoración va en su relación de reproducción
+                    reproductores.upsert(relacion(id, decodificarEmail(e.getKey().toString())), new Update()
+                            .set(PUNTUACION, score.doubleValue())
+                            .set(VALORADO_EN, LocalDateTime.now())
+                            .setOnInsert(FECHA, LocalDateTime.now()));
+                    nValoraciones++;
+                }
+            }
+            limpieza.updateOne(new Query(where("_id").is(d.get("_id"))),
+                    new Update().unset(LEGADO_REPRODUCTORES).unset(LEGADO_FAVORITOS).unset(LEGADO_RATINGS));
+            documentos++;
+            operaciones = nReproductores + nFavoritos + nValoraciones + documentos;
+        }
+    }
+
+    /** Las relaciones se escriben antes de limpiar los contenidos del lote. */
+    private Lote volcar(Lote l) {
+        if (l.documentos == 0) return l;
+        if (l.nReproductores + l.nValoraciones > 0) l.reproductores.execute();
+        if (l.nFavoritos > 0) l.favoritos.execute();
+        l.limpieza.execute();
+        return new Lote();
+    }
+
+    private record Normalizacion(long corregidas, long valoracionesDuplicadas) {}
+
+    /**
+     * Pasa a minúsculas el email de las relaciones que aún lo tengan con mayúsculas.
+     * Si ya existe la relación en minúsculas se funde con ella (fecha más antigua y
+     * la valoración de la que la tenga, prefiriendo la canónica) y se borra la otra.
+     */
+    private Normalizacion normalizarEmails(Class<?> tipo) {
+        String coleccion = mongoTemplate.getCollectionName(tipo);
+        Query q = new Query(where(USER_EMAIL).regex("[A-Z]"));
+        q.cursorBatchSize(lote);
+        long corregidas = 0;
+        long valoracionesDuplicadas = 0;
+        try (Stream<Document> cursor = mongoTemplate.stream(q, Document.class, coleccion)) {
+            for (Document d : (Iterable<Document>) cursor::iterator) {
+                Query porId = new Query(where("_id").is(d.get("_id")));
+                String email = ContenidoReproductor.normalizarEmail(d.getString(USER_EMAIL));
+                Document canonica = mongoTemplate.findOne(relacion(d.getString(CONTENIDO_ID), email), Document.class, coleccion);
+                if (canonica == null) {
+                    mongoTemplate.updateFirst(porId, new Update().set(USER_EMAIL, email), coleccion);
+                } else {
+                    if (d.get(PUNTUACION) != null && canonica.get(PUNTUACION) != null) valoracionesDuplicadas++;
+                    Update fusion = fusion(canonica, d);
+                    if (!fusion.getUpdateObject().isEmpty()) {
+                        mongoTemplate.updateFirst(new Query(where("_id").is(canonica.get("_id"))), fusion, coleccion);
+                    }
+                    mongoTemplate.remove(porId, coleccion);
+                }
+                corregidas++;
+            }
+        }
+        return new Normalizacion(corregidas, valoracionesDuplicadas);
+    }
+
+    private static Update fusion(Document canonica, Document duplicada) {
+        Update u = new Update();
+        if (duplicada.get(FECHA) instanceof Date f
+                && (!(canonica.get(FECHA) instanceof Date c) || f.before(c))) {
+            u.set(FECHA, f);
+        }
+        if (canonica.get(PUNTUACION) == null && duplicada.get(PUNTUACION) != null) {
+            u.set(PUNTUACION, duplicada.get(PUNTUACION)).set(VALORADO_EN, duplicada.get(VALORADO_EN));
+        }
+        return u;
+    }
+
+    private static Query relacion(String contenidoId, String email) {
+        return new Query(where(CONTENIDO_ID).is(contenidoId).and(USER_EMAIL).is(ContenidoReproductor.normalizarEmail(email)));
+    }
+
+    private static Iterable<String> emails(Object valor) {
+        if (!(valor instanceof Collection<?> c)) return List.of();
+        return c.stream().filter(String.class::isInstance).map(String.class::cast)
+                .filter(s -> !s.isBlank()).toList();
+    }
+
+    /** Las claves de ratings eran el email en minúsculas con '.' y '$' escapados. */
+    static String decodificarEmail(String clave) {
+        return clave.replace("%2E", ".").replace("%24", "$");
+    }
+}
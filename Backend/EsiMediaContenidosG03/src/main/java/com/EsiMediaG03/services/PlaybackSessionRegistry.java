@@ -0,0 +1,52 @@
+package com.EsiMediaG03.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Sesiones de reproducción en memoria, identificadas por cliente (email o IP) y
+ * contenido. Cada petición de la misma reproducción renueva la sesión; solo la
+ * primera, o la que llega tras más de una ventana de inactividad, abre una nueva.
+ */
+@Component
+public class PlaybackSessionRegistry {
+
+    private final long ventanaMs;
+    private final int maxSesiones;
+    private final Map<String, Long> ultimaActividad;
+
+    public PlaybackSessionRegistry(
+            @Value("${contenidos.reproducciones.sesion.ventana-minutos:30}") long ventanaMinutos,
+            @Value("${contenidos.reproducciones.sesion.max-sesiones:100000}") int maxSesiones) {
+        this.ventanaMs = ventanaMinutos * 60_000L;
+        this.maxSesiones = Math.max(1, maxSesiones);
+        this.ultimaActividad = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > PlaybackSessionRegistry.this.maxSesiones;
+            }
+        };
+    }
+
+    /** Anota actividad y devuelve true si abre una sesión nueva. */
+    public boolean registrarActividad(String cliente, String contenidoId) {
+        return registrarActividad(cliente, contenidoId, System.currentTimeMillis());
+    }
+
+    public boolean registrarActividad(String cliente, String contenidoId, long ahora) {
+        String clave = (cliente != null ? cliente.toLowerCase() : "anon") + "|" + contenidoId;
+        synchronized (ultimaActividad) {
+            Long anterior = ultimaActividad.put(clave, ahora);
+            return anterior == null || ahora - anterior > ventanaMs;
+        }
+    }
+
+    public int sesionesActivas() {
+        synchronized (ultimaActividad) {
+            return ultimaActividad.size();
+        }
+    }
+}
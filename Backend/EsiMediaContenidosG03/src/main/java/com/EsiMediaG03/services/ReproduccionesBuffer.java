@@ -0,0 +1,279 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoReproductor;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Acumula en memoria los incrementos de reproducciones y los nuevos reproductores
+ * por contenido y los vuelca a Mongo por lotes (un bulkWrite para los contadores y
+ * otro para las relaciones contenido-usuario): periódicamente, al
+ * alcanzar el umbral de pendientes y al apagar la aplicación. Así la petición de
+ * streaming no espera a ninguna escritura y un contenido muy visto recibe una
+ * sola actualización por volcado.
+ */
+@Component
+public class ReproduccionesBuffer {
+
+    private static final Logger log = LoggerFactory.getLogger(ReproduccionesBuffer.class);
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+    private static final String FIELD_CONTENIDO_ID = "contenidoId";
+    private static final String FIELD_USER_EMAIL = "userEmail";
+
+    private final MongoTemplate mongoTemplate;
+    private final ContadorReproducciones contador;
+    private final EstadisticasTops estadisticas;
+    private final TendenciasReproducciones tendencias;
+    private final int umbral;
+
+    private final ConcurrentHashMap<String, Long> incrementos = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Set<String>> reproductores = new ConcurrentHashMap<>();
+    /** Reproductores sacados del buffer por el volcado en curso y aún no escritos. */
+    private final ConcurrentHashMap<String, Set<String>> enVuelo = new ConcurrentHashMap<>();
+    private final AtomicLong pendientes = new AtomicLong();
+
+    private final AtomicLong incrementosVolcados = new AtomicLong();
+    private final AtomicLong reproductoresVolcados = new AtomicLong();
+    private final AtomicLong volcados = new AtomicLong();
+    private final AtomicLong volcadosFallidos = new AtomicLong();
+    private volatile long ultimoVolcado;
+
+    private final AtomicBoolean volcadoEnCurso = new AtomicBoolean();
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "reproducciones-flush");
+        t.setDaemon(true);
+        return t;
+    });
+
+    public ReproduccionesBuffer(MongoTemplate mongoTemplate, ContadorReproducciones contador,
+                                EstadisticasTops estadisticas, TendenciasReproducciones tendencias,
+                                @Value("${contenidos.reproducciones.buffer.umbral:500}") int umbral) {
+        this.mongoTemplate = mongoTemplate;
+        this.contador = contador;
+        this.estadisticas = estadisticas;
+        this.tendencias = tendencias;
+        this.umbral = Math.max(1, umbral);
+    }
+
+    public void registrarReproduccion(String contenidoId) {
+        incrementos.merge(contenidoId, 1L, Long::sum);
+        alAnadirPendiente();
+    }
+
+    public void registrarReproductor(String contenidoId, String userEmail) {
+        String email = ContenidoReproductor.normalizarEmail(userEmail);
+        boolean[] nuevo = {false};
+        reproductores.compute(contenidoId, (k, set) -> {
+            Set<String> s = set != null ? set : ConcurrentHashMap.newKeySet();
+            nuevo[0] = s.add(email);
+            return s;
+        });
+        if (nuevo[0]) alAnadirPendiente();
+    }
+
+    /** Pendiente o en un volcado que aún no ha escrito la relación. */
+    public boolean tieneReproductorPendiente(String contenidoId, String userEmail) {
+        String email = ContenidoReproductor.normalizarEmail(userEmail);
+        Set<String> s = reproductores.get(contenidoId);
+        if (s != null && s.contains(email)) return true;
+        Set<String> v = enVuelo.get(contenidoId);
+        return v != null && v.contains(email);
+    }
+
+    private void alAnadirPendiente() {
+        if (pendientes.incrementAndGet() >= umbral && volcadoEnCurso.compareAndSet(false, true)) {
+            executor.execute(() -> {
+                try {
+                    volcar();
+                } finally {
+                    volcadoEnCurso.set(false);
+                }
+            });
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${contenidos.reproducciones.buffer.flush-ms:5000}")
+    public void volcadoPeriodico() {
+        volcar();
+    }
+
+    /**
+     * Vuelca todo lo pendiente. Devuelve el número de contenidos actualizados.
+     * Las estadísticas leen de Mongo, así que se notifican fuera del cerrojo.
+     */
+    public int volcar() {
+        Map<String, Long> aplicados = new HashMap<>();
+        int actualizados;
+        synchronized (this) {
+            try {
+                actualizados = volcarPendientes(aplicados);
+            } finally {
+                enVuelo.clear();
+            }
+        }
+        notificarEstadisticas(aplicados);
+        return actualizados;
+    }
+
+    /** Deja en aplicados los incrementos que han llegado a Mongo. */
+    private int volcarPendientes(Map<String, Long> aplicados) {
+        Map<String, Long> deltas = new HashMap<>();
+        for (String id : incrementos.keySet()) {
+            Long n = incrementos.remove(id);
+            if (n != null) deltas.put(id, n);
+        }
+        Map<String, Set<String>> nuevos = new HashMap<>();
+        for (String id : reproductores.keySet()) {
+            Set<String> s = reproductores.get(id);
+            if (s == null) continue;
+            // visible como en vuelo antes de dejar de estar pendiente
+            enVuelo.put(id, s);
+            reproductores.remove(id);
+            nuevos.put(id, s);
+        }
+        if (deltas.isEmpty() && nuevos.isEmpty()) return 0;
+
+        long totalIncrementos = deltas.values().stream().mapToLong(Long::longValue).sum();
+        long totalReproductores = nuevos.values().stream().mapToLong(Set::size).sum();
+        pendientes.addAndGet(-(totalIncrementos + totalReproductores));
+
+        Map<String, Long> rechazados;
+        try {
+            rechazados = aplicarIncrementos(deltas);
+        } catch (RuntimeException ex) {
+            // sin resultado del bulk no se sabe qué se aplicó; se reintenta todo
+            volcadoFallido(deltas.size() + nuevos.size(), ex);
+            deltas.forEach(this::reponerIncremento);
+            nuevos.forEach(this::reponerReproductores);
+            return 0;
+        }
+        if (!rechazados.isEmpty()) {
+            volcadosFallidos.incrementAndGet();
+            log.warn("Mongo rechazó {} de {} incrementos de reproducciones; se reintentarán", rechazados.size(), deltas.size());
+            rechazados.forEach(this::reponerIncremento);
+            deltas.keySet().removeAll(rechazados.keySet());
+            totalIncrementos -= rechazados.values().stream().mapToLong(Long::longValue).sum();
+        }
+        aplicados.putAll(deltas);
+        try {
+            aplicarReproductores(nuevos);
+        } catch (RuntimeException ex) {
+            volcadoFallido(nuevos.size(), ex);
+            incrementosVolcados.addAndGet(totalIncrementos);
+            nuevos.forEach(this::reponerReproductores);
+            return 0;
+        }
+
+        Set<String> ids = new HashSet<>(deltas.keySet());
+        ids.addAll(nuevos.keySet());
+        incrementosVolcados.addAndGet(totalIncrementos);
+        reproductoresVolcados.addAndGet(totalReproductores);
+        volcados.incrementAndGet();
+        ultimoVolcado = System.currentTimeMillis();
+        return ids.size();
+    }
+
+    /** Devuelve los incrementos que Mongo rechazó; los demás ya están aplicados. */
+    private Map<String, Long> aplicarIncrementos(Map<String, Long> deltas) {
+        if (deltas.isEmpty()) return Map.of();
+        if (contador.isFragmentado()) return contador.incrementar(deltas);
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class);
+        List<String> orden = new ArrayList<>(deltas.keySet());
+        orden.forEach(id ->
+                bulk.updateOne(new Query(where("_id").is(id)), new Update().inc(FIELD_REPRODUCCIONES, deltas.get(id))));
+        return ContadorReproducciones.ejecutar(bulk, orden, deltas);
+    }
+
+    /** Una relación contenido-usuario por reproductor; el upsert la hace idempotente. */
+    private void aplicarReproductores(Map<String, Set<String>> nuevos) {
+        if (nuevos.isEmpty()) return;
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContenidoReproductor.class);
+        LocalDateTime ahora = LocalDateTime.now();
+        nuevos.forEach((id, emails) -> emails.forEach(email -> bulk.upsert(
+                new Query(where(FIELD_CONTENIDO_ID).is(id).and(FIELD_USER_EMAIL).is(email)),
+                new Update().setOnInsert("fecha", ahora))));
+        bulk.execute();
+    }
+
+    /** Las estadísticas se reconcilian solas; un fallo aquí no debe reponer lo ya volcado. */
+    private void notificarEstadisticas(Map<String, Long> deltas) {
+        if (deltas.isEmpty()) return;
+        try {
+            estadisticas.reproduccionesAplicadas(deltas);
+        } catch (RuntimeException ex) {
+            log.warn("No se pudieron actualizar las estadísticas tras el volcado: {}", ex.toString());
+        }
+        try {
+            tendencias.reproduccionesAplicadas(deltas);
+        } catch (RuntimeException ex) {
+            log.warn("No se pudieron actualizar las tendencias tras el volcado: {}", ex.toString());
+        }
+    }
+
+    private void volcadoFallido(int contenidos, RuntimeException ex) {
+        volcadosFallidos.incrementAndGet();
+        log.warn("No se pudieron volcar {} contenidos de reproducciones; se reintentará: {}", contenidos, ex.toString());
+    }
+
+    private void reponerReproductores(String id, Set<String> emails) {
+        emails.forEach(e -> registrarReproductor(id, e));
+    }
+
+    private void reponerIncremento(String id, long n) {
+        incrementos.merge(id, n, Long::sum);
+        pendientes.addAndGet(n);
+    }
+
+    public Map<String, Object> metricas() {
+        long incPendientes = incrementos.values().stream().mapToLong(Long::longValue).sum();
+        long reprPendientes = reproductores.values().stream().mapToLong(Set::size).sum();
+        Map<String, Object> m = new HashMap<>();
+        m.put("incrementosPendientes", incPendientes);
+        m.put("reproductoresPendientes", reprPendientes);
+        m.put("contenidosPendientes", incrementos.size());
+        m.put("incrementosVolcados", incrementosVolcados.get());
+        m.put("reproductoresVolcados", reproductoresVolcados.get());
+        m.put("volcados", volcados.get());
+        m.put("volcadosFallidos", volcadosFallidos.get());
+        m.put("ultimoVolcado", ultimoVolcado);
+        return m;
+    }
+
+    @PreDestroy
+    public void cerrar() {
+        executor.shutdown();
+        try {
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        volcar();
+    }
+}
@@ -0,0 +1,96 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationOperation;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+
+/**
+ * Reproducciones sumadas por especialidad del creador, ordenadas de más a menos.
+ * La especialidad se lee de la copia que guarda cada contenido, nunca de users.
+ * Dos motores: "java" lee los contenidos proyectados y agrupa en memoria;
+ * "agregacion" hace la agrupación, el orden y el límite en Mongo, de modo que
+ * solo viajan las filas del resultado.
+ */
+@Component
+public class ReproduccionesPorEspecialidad {
+
+    static final String MOTOR_AGREGACION = "agregacion";
+    static final String SIN_ESPECIALIDAD = "Sin especialidad";
+    private static final String FIELD_USER_EMAIL = "userEmail";
+    private static final String FIELD_ESPECIALIDAD = "especialidad";
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+
+    private final MongoTemplate mongoTemplate;
+    private final boolean agregacion;
+
+    public ReproduccionesPorEspecialidad(MongoTemplate mongoTemplate,
+                                         @Value("${contenidos.estadisticas.categorias.motor:java}") String motor) {
+        this.mongoTemplate = mongoTemplate;
+        this.agregacion = MOTOR_AGREGACION.equalsIgnoreCase(motor);
+    }
+
+    public String motor() {
+        return agregacion ? MOTOR_AGREGACION : "java";
+    }
+
+    /** Con limite null devuelve todas las especialidades. */
+    public Map<String, Long> calcular(Integer limite) {
+        return agregacion ? conAgregacion(limite) : enJava(limite);
+    }
+
+    public Map<String, Long> enJava(Integer limite) {
+        Query q = new Query(where(FIELD_USER_EMAIL).exists(true).nin(null, ""));
+        q.fields().include(FIELD_ESPECIALIDAD).include(FIELD_REPRODUCCIONES);
+
+        Map<String, Long> acumulado = new HashMap<>();
+        for (Contenido c : mongoTemplate.find(q, Contenido.class)) {
+            acumulado.merge(especialidad(c), c.getNumReproducciones(), Long::sum);
+        }
+
+        Map<String, Long> res = new LinkedHashMap<>();
+        acumulado.entrySet().stream()
+                .sorted(Map.Entry.<String, Long>comparingByValue().reversed()
+                        .thenComparing(Map.Entry.comparingByKey()))
+                .limit(limite != null ? limite : Long.MAX_VALUE)
+                .forEach(e -> res.put(e.getKey(), e.getValue()));
+        return res;
+    }
+
+    public Map<String, Long> conAgregacion(Integer limite) {
+        Map<String, Long> res = new LinkedHashMap<>();
+        for (Document d : mongoTemplate.aggregate(pipeline(limite), Contenido.class, Document.class).getMappedResults()) {
+            res.put(d.getString("_id"), ((Number) d.get(FIELD_REPRODUCCIONES)).longValue());
+        }
+        return res;
+    }
+
+    /** La especialidad va copiada en cada contenido: basta un $group, sin $lookup a users. */
+    static Aggregation pipeline(Integer limite) {
+        List<AggregationOperation> etapas = new ArrayList<>();
+        etapas.add(Aggregation.match(where(FIELD_USER_EMAIL).exists(true).nin(null, "")));
+        etapas.add(ctx -> new Document("$group", new Document("_id",
+                new Document("$ifNull", List.of("$" + FIELD_ESPECIALIDAD, SIN_ESPECIALIDAD)))
+                .append(FIELD_REPRODUCCIONES, new Document("$sum", "$" + FIELD_REPRODUCCIONES))));
+        etapas.add(ctx -> new Document("$sort", new Document(FIELD_REPRODUCCIONES, -1).append("_id", 1)));
+        if (limite != null) etapas.add(ctx -> new Document("$limit", limite));
+        return Aggregation.newAggregation(etapas);
+    }
+
+    static String especialidad(Contenido c) {
+        return c.getEspecialidad() != null ? c.getEspecialidad() : SIN_ESPECIALIDAD;
+    }
+}
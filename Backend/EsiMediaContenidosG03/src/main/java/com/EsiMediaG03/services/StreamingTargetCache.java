@@ -0,0 +1,229 @@
+package com.EsiMediaG03.services;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.LocalDateTime;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.model.Contenido;
+
+import jakarta.annotation.PreDestroy;
+
+/**
+ * Caché acotada (LRU + TTL) de lo que necesita una reproducción: los campos de
+ * acceso del contenido y su {@link StreamingTarget} ya resuelto. Se invalida por id
+ * al modificar/eliminar y, para ficheros locales, cuando el WatchService avisa de
+ * cambios en su directorio.
+ * Cada invalidación sube la generación del id; quien carga un contenido lee la
+ * generación antes de ir a Mongo y su put se descarta si entretanto cambió, para
+ * que una lectura anterior a la modificación no vuelva a meter la entrada vieja.
+ */
+@Component
+public class StreamingTargetCache {
+
+    private static final Logger log = LoggerFactory.getLogger(StreamingTargetCache.class);
+
+    public record AccesoContenido(boolean visible, boolean vip, int restringidoEdad,
+                                  LocalDateTime disponibleHasta, Contenido.Tipo tipo) {
+        public static AccesoContenido de(Contenido c) {
+            return new AccesoContenido(c.isVisible(), c.isVip(), c.getRestringidoEdad(),
+                    c.getDisponibleHasta(), c.getTipo());
+        }
+    }
+
+    public record Entrada(AccesoContenido acceso, StreamingTarget target, long cargadaEn) {}
+
+    private final int maxEntradas;
+    private final long ttlMs;
+    private final boolean vigilarFicheros;
+
+    private final Map<String, Entrada> entradas;
+    /** Generación de la última invalidación de cada id (LRU); los expulsados suben el suelo. */
+    private final Map<String, Long> invalidaciones;
+    private long reloj;
+    private long suelo;
+    private final Map<Path, Set<String>> idsPorFichero = new ConcurrentHashMap<>();
+    private final Set<Path> directoriosVigilados = ConcurrentHashMap.newKeySet();
+    private WatchService watchService;
+    private Thread vigilante;
+
+    public StreamingTargetCache(@Value("${contenidos.streaming.cache.max-entries:5000}") int maxEntradas,
+                                @Value("${contenidos.streaming.cache.ttl-seconds:600}") long ttlSeconds,
+                                @Value("${contenidos.streaming.cache.watch-files:true}") boolean vigilarFicheros) {
+        this.maxEntradas = Math.max(1, maxEntradas);
+        this.ttlMs = ttlSeconds * 1000L;
+        this.vigilarFicheros = vigilarFicheros;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+                if (size() <= StreamingTargetCache.this.maxEntradas) return false;
+                olvidarFichero(eldest.getKey(), eldest.getValue());
+                return true;
+            }
+        };
+        this.invalidaciones = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                if (size() <= StreamingTargetCache.this.maxEntradas) return false;
+                suelo = Math.max(suelo, eldest.getValue());
+                return true;
+            }
+        };
+    }
+
+    public Entrada get(String id) {
+        synchronized (entradas) {
+            Entrada e = entradas.get(id);
+            if (e == null) return null;
+            if (ttlMs > 0 && System.currentTimeMillis() - e.cargadaEn() > ttlMs) {
+                entradas.remove(id);
+                olvidarFichero(id, e);
+                return null;
+            }
+            return e;
+        }
+    }
+
+    /** Generación actual del id: se lee antes de cargar el contenido y se pasa a put. */
+    public long generacion(String id) {
+        synchronized (entradas) {
+            return invalidaciones.getOrDefault(id, suelo);
+        }
+    }
+
+    public Entrada put(String id, AccesoContenido acceso, StreamingTarget target) {
+        return put(id, generacion(id), acceso, target);
+    }
+
+    /** Guarda la entrada solo si el id no se ha invalidado desde que se leyó la generación; si no, null. */
+    public Entrada put(String id, long generacion, AccesoContenido acceso, StreamingTarget target) {
+        Entrada e = new Entrada(acceso, target, System.currentTimeMillis());
+        synchronized (entradas) {
+            if (invalidaciones.getOrDefault(id, suelo) != generacion) return null;
+            Entrada anterior = entradas.put(id, e);
+            if (anterior != null) olvidarFichero(id, anterior);
+        }
+        if (target != null && !target.isExternalRedirect() && target.path() != null) {
+            Path file = target.path().toAbsolutePath().normalize();
+            idsPorFichero.computeIfAbsent(file, k -> ConcurrentHashMap.newKeySet()).add(id);
+            vigilar(file.getParent());
+        }
+        return e;
+    }
+
+    public void invalidate(String id) {
+        synchronized (entradas) {
+            invalidaciones.put(id, ++reloj);
+            Entrada e = entradas.remove(id);
+            if (e != null) olvidarFichero(id, e);
+        }
+    }
+
+    public void invalidateAll() {
+        synchronized (entradas) {
+            invalidaciones.clear();
+            suelo = ++reloj;
+            entradas.clear();
+        }
+        idsPorFichero.clear();
+    }
+
+    public void invalidarFichero(Path file) {
+        Set<String> ids = idsPorFichero.remove(file.toAbsolutePath().normalize());
+        if (ids == null) return;
+        synchronized (entradas) {
+            for (String id : ids) {
+                invalidaciones.put(id, ++reloj);
+                entradas.remove(id);
+            }
+        }
+    }
+
+    public int size() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+
+    private void olvidarFichero(String id, Entrada e) {
+        if (e.target() == null || e.target().path() == null) return;
+        Path file = e.target().path().toAbsolutePath().normalize();
+        Set<String> ids = idsPorFichero.get(file);
+        if (ids != null) {
+            ids.remove(id);
+            if (ids.isEmpty()) idsPorFichero.remove(file, ids);
+        }
+    }
+
+    private void vigilar(Path dir) {
+        if (!vigilarFicheros || dir == null || !directoriosVigilados.add(dir)) return;
+        try {
+            dir.register(watchService(),
+                    StandardWatchEventKinds.ENTRY_MODIFY,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_CREATE);
+        } catch (IOException | UnsupportedOperationException ex) {
+            directoriosVigilados.remove(dir);
+            log.warn("No se pudo vigilar el directorio de medios {}: {}", dir, ex.toString());
+        }
+    }
+
+    private synchronized WatchService watchService() throws IOException {
+        if (watchService == null) {
+            watchService = FileSystems.getDefault().newWatchService();
+            vigilante = new Thread(this::procesarEventos, "media-watch");
+            vigilante.setDaemon(true);
+            vigilante.start();
+        }
+        return watchService;
+    }
+
+    private void procesarEventos() {
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                WatchKey key = watchService.take();
+                Path dir = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        invalidateAll();
+                    } else {
+                        invalidarFichero(dir.resolve((Path) event.context()));
+                    }
+                }
+                if (!key.reset()) directoriosVigilados.remove(dir);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException ex) {
+            // cierre normal
+        }
+    }
+
+    @PreDestroy
+    public synchronized void close() {
+        if (watchService == null) return;
+        try {
+            watchService.close();
+        } catch (IOException ex) {
+            log.debug("Error cerrando el WatchService: {}", ex.toString());
+        }
+        vigilante.interrupt();
+        watchService = null;
+        directoriosVigilados.clear();
+    }
+}
@@ -0,0 +1,68 @@
+package com.EsiMediaG03.services;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.dto.TarjetaContenido;
+
+/**
+ * Caché acotada (LRU + TTL corto) de tarjetas de contenido, compartida por las
+ * lecturas por lista de ids: tarjetas en lote, resúmenes de valoración y listas
+ * hidratadas. Al valorar se sustituye la tarjeta por la que devuelve el
+ * findAndModify y al modificar/eliminar se invalida, así que el TTL solo cubre
+ * escrituras de otras instancias y el contador de reproducciones.
+ */
+@Component
+public class TarjetasCache {
+
+    private record Entrada(TarjetaContenido tarjeta, long cargadaEn) {}
+
+    private final int maxEntradas;
+    private final long ttlMs;
+    private final Map<String, Entrada> entradas;
+
+    public TarjetasCache(@Value("${contenidos.tarjetas.cache.max-entries:10000}") int maxEntradas,
+                         @Value("${contenidos.tarjetas.cache.ttl-seconds:30}") long ttlSeconds) {
+        this.maxEntradas = Math.max(1, maxEntradas);
+        this.ttlMs = ttlSeconds * 1000L;
+        this.entradas = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entrada> eldest) {
+                return size() > TarjetasCache.this.maxEntradas;
+            }
+        };
+    }
+
+    public TarjetaContenido get(String id) {
+        synchronized (entradas) {
+            Entrada e = entradas.get(id);
+            if (e == null) return null;
+            if (ttlMs > 0 && System.currentTimeMillis() - e.cargadaEn() > ttlMs) {
+                entradas.remove(id);
+                return null;
+            }
+            return e.tarjeta();
+        }
+    }
+
+    public void put(TarjetaContenido tarjeta) {
+        synchronized (entradas) {
+            entradas.put(tarjeta.id(), new Entrada(tarjeta, System.currentTimeMillis()));
+        }
+    }
+
+    public void invalidate(String id) {
+        synchronized (entradas) {
+            entradas.remove(id);
+        }
+    }
+
+    public int size() {
+        synchronized (entradas) {
+            return entradas.size();
+        }
+    }
+}
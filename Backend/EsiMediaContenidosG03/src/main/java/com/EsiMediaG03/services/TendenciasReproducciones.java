@@ -0,0 +1,305 @@
+package com.EsiMediaG03.services;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ReproduccionesTramo;
+import com.EsiMediaG03.model.ReproduccionesTramo.Granularidad;
+
+/**
+ * Ranking de tendencias: cada reproducción pesa la mitad cada semivida-horas.
+ *
+ * Se usa decaimiento "hacia delante": una reproducción en t suma 2^((t - referencia)/semivida)
+ * y la puntuación actual es ese valor escalado por 2^(-(ahora - referencia)/semivida). Como el
+ * factor de escala es el mismo para todos, el orden no cambia con el tiempo y solo hay que
+ * recolocar los contenidos que reciben reproducciones: un top-K acotado por tipo se mantiene
+ * de forma incremental. Las reproducciones se guardan además en tramos por hora y por día
+ * (reproducciones_tramos), de los que se reconstruye el ranking al arrancar.
+ */
+@Component
+public class TendenciasReproducciones {
+
+    private static final Logger log = LoggerFactory.getLogger(TendenciasReproducciones.class);
+
+    private static final String FIELD_TITULO = "titulo";
+    private static final String FIELD_TIPO = "tipo";
+    private static final String FIELD_CONTENIDO_ID = "contenidoId";
+    private static final String FIELD_GRANULARIDAD = "granularidad";
+    private static final String FIELD_INICIO = "inicio";
+    private static final String FIELD_REPRODUCCIONES = "reproducciones";
+    /** Por debajo de esta puntuación una entrada fuera del top se olvida al rebasar. */
+    private static final double MINIMO = 0.01;
+
+    private static final class Entrada {
+        final String id;
+        Contenido.Tipo tipo;
+        String titulo;
+        double valor;
+
+        Entrada(String id) { this.id = id; }
+    }
+
+    private static final Comparator<Entrada> ORDEN = Comparator.comparingDouble((Entrada e) -> e.valor).reversed()
+            .thenComparing(e -> e.id);
+
+    private final MongoTemplate mongoTemplate;
+    private final double semividaMs;
+    private final int k;
+    private final int ventanaDias;
+
+    private final Map<String, Entrada> entradas = new HashMap<>();
+    private final Map<Contenido.Tipo, TreeSet<Entrada>> tops = new EnumMap<>(Contenido.Tipo.class);
+    private long referencia;
+    private boolean cargada;
+
+    public TendenciasReproducciones(MongoTemplate mongoTemplate,
+                                    @Value("${contenidos.tendencias.semivida-horas:24}") double semividaHoras,
+                                    @Value("${contenidos.tendencias.k:20}") int k,
+                                    @Value("${contenidos.tendencias.ventana-dias:7}") int ventanaDias) {
+        this.mongoTemplate = mongoTemplate;
+        this.semividaMs = Math.max(1.0, semividaHoras) * 3_600_000d;
+        this.k = Math.max(1, k);
+        this.ventanaDias = Math.max(2, ventanaDias);
+        for (Contenido.Tipo t : Contenido.Tipo.values()) tops.put(t, new TreeSet<>(ORDEN));
+    }
+
+    public void reproduccionesAplicadas(Map<String, Long> deltas) {
+        reproduccionesAplicadas(deltas, System.currentTimeMillis());
+    }
+
+    /** Llamado tras cada volcado del buffer: actualiza los tops y suma los tramos en un bulk. */
+    public synchronized void reproduccionesAplicadas(Map<String, Long> deltas, long ahora) {
+        if (deltas.isEmpty()) return;
+        resolver(deltas.keySet());
+        Map<String, Long> conocidos = new HashMap<>();
+        deltas.forEach((id, n) -> {
+            Entrada e = entradas.get(id);
+            if (e != null && e.tipo != null) conocidos.put(id, n);
+        });
+        if (conocidos.isEmpty()) return;
+        if (cargada) {
+            double peso = peso(ahora);
+            conocidos.forEach((id, n) -> sumar(entradas.get(id), n * peso));
+            completarTitulos();
+            escribirTramos(conocidos, ahora);
+        } else {
+            // la carga inicial lee los tramos, incluidos los que se acaban de escribir
+            escribirTramos(conocidos, ahora);
+            cargar(ahora);
+        }
+    }
+
+    public synchronized void contenidoEliminado(String id) {
+        Entrada e = entradas.remove(id);
+        if (e == null || e.tipo == null || !tops.get(e.tipo).remove(e)) return;
+        rellenar(e.tipo);
+        completarTitulos();
+    }
+
+    public List<Map<String, Object>> tendencias(Contenido.Tipo tipo, int limite) {
+        return tendencias(tipo, limite, System.currentTimeMillis());
+    }
+
+    /** Los K mejores de un tipo con su puntuación actual, en reproducciones equivalentes a ahora. */
+    public synchronized List<Map<String, Object>> tendencias(Contenido.Tipo tipo, int limite, long ahora) {
+        if (!cargada) cargar(ahora);
+        double escala = 1.0 / peso(ahora);
+        List<Map<String, Object>> res = new ArrayList<>();
+        for (Entrada e : tops.get(tipo)) {
+            if (res.size() >= limite) break;
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("id", e.id);
+            m.put(FIELD_TITULO, e.titulo);
+            m.put(FIELD_TIPO, e.tipo.name());
+            m.put("puntuacion", e.valor * escala);
+            res.add(m);
+        }
+        return res;
+    }
+
+    /** Rebasa la referencia para que los valores no crezcan sin límite y purga tramos caducados. */
+    @Scheduled(fixedDelayString = "${contenidos.tendencias.mantenimiento-ms:3600000}")
+    public void mantener() {
+        try {
+            mantener(System.currentTimeMillis());
+        } catch (RuntimeException ex) {
+            log.warn("No se pudo mantener el ranking de tendencias: {}", ex.toString());
+        }
+    }
+
+    public synchronized void mantener(long ahora) {
+        if (!cargada) return;
+        double escala = 1.0 / peso(ahora);
+        referencia = ahora;
+        Set<Entrada> enTop = new HashSet<>();
+        tops.values().forEach(enTop::addAll);
+        entradas.values().removeIf(e -> {
+            e.valor *= escala;
+            return e.valor < MINIMO && !enTop.contains(e);
+        });
+        // escalar puede redondear empates: se reordena en lugar de confiar en el orden previo
+        tops.values().forEach(s -> {
+            List<Entrada> l = new ArrayList<>(s);
+            s.clear();
+            s.addAll(l);
+        });
+
+        LocalDateTime corte = corteHoras(ahora);
+        mongoTemplate.remove(new Query(new Criteria().orOperator(
+                where(FIELD_GRANULARIDAD).is(Granularidad.HORA).and(FIELD_INICIO).lt(corte),
+                where(FIELD_GRANULARIDAD).is(Granularidad.DIA).and(FIELD_INICIO).lt(corte.minusDays(ventanaDias - 2L)))),
+                ReproduccionesTramo.class);
+    }
+
+    /**
+     * Reconstruye el ranking desde los tramos: horarios para ayer y hoy, diarios para
+     * el resto de la ventana. Cada tramo pesa como si sus reproducciones fuesen a mitad del tramo.
+     */
+    private void cargar(long ahora) {
+        entradas.clear();
+        tops.values().forEach(Set::clear);
+        referencia = ahora;
+        LocalDateTime corte = corteHoras(ahora);
+        Query q = new Query(new Criteria().orOperator(
+                where(FIELD_GRANULARIDAD).is(Granularidad.HORA).and(FIELD_INICIO).gte(corte),
+                where(FIELD_GRANULARIDAD).is(Granularidad.DIA).and(FIELD_INICIO)
+                        .gte(corte.minusDays(ventanaDias - 2L)).lt(corte)));
+        q.fields().include(FIELD_CONTENIDO_ID).include(FIELD_TIPO).include(FIELD_GRANULARIDAD)
+                .include(FIELD_INICIO).include(FIELD_REPRODUCCIONES);
+        try (Stream<ReproduccionesTramo> tramos = mongoTemplate.stream(q, ReproduccionesTramo.class)) {
+            tramos.forEach(t -> {
+                if (t.getTipo() == null) return;
+                long medio = Math.min(ahora, ms(t.getInicio()) + t.getGranularidad().duracionMs() / 2);
+                Entrada e = entradas.computeIfAbsent(t.getContenidoId(), Entrada::new);
+                e.tipo = t.getTipo();
+                e.valor += t.getReproducciones() * peso(medio);
+            });
+        }
+        for (Contenido.Tipo tipo : Contenido.Tipo.values()) rellenar(tipo);
+        cargada = true;
+        completarTitulos();
+    }
+
+    private void sumar(Entrada e, double incremento) {
+        TreeSet<Entrada> top = tops.get(e.tipo);
+        boolean estaba = top.remove(e);
+        e.valor += incremento;
+        if (estaba || top.size() < k) {
+            top.add(e);
+        } else if (ORDEN.compare(e, top.last()) < 0) {
+            top.add(e);
+            top.pollLast();
+        }
+    }
+
+    /** Completa el top de un tipo con las mejores entradas que están fuera. */
+    private void rellenar(Contenido.Tipo tipo) {
+        TreeSet<Entrada> top = tops.get(tipo);
+        if (top.size() >= k) return;
+        entradas.values().stream()
+                .filter(e -> e.tipo == tipo && !top.contains(e))
+                .sorted(ORDEN)
+                .limit((long) k - top.size())
+                .forEach(top::add);
+    }
+
+    /** Tipo y título de los contenidos que aún no conoce: una lectura proyectada con $in. */
+    private void resolver(Set<String> ids) {
+        Set<String> faltan = new HashSet<>();
+        for (String id : ids) {
+            Entrada e = entradas.get(id);
+            if (e == null || e.tipo == null || e.titulo == null) faltan.add(id);
+        }
+        if (faltan.isEmpty()) return;
+        Query q = new Query(where("_id").in(faltan));
+        q.fields().include(FIELD_TITULO).include(FIELD_TIPO);
+        for (Contenido c : mongoTemplate.find(q, Contenido.class)) {
+            Entrada e = entradas.computeIfAbsent(c.getId(), Entrada::new);
+            e.tipo = c.getTipo();
+            e.titulo = c.getTitulo();
+        }
+    }
+
+    /** Los que entran en el top sin título se leen; los que ya no existen se sacan. */
+    private void completarTitulos() {
+        Set<String> sinTitulo = new HashSet<>();
+        tops.values().forEach(s -> s.forEach(e -> {
+            if (e.titulo == null) sinTitulo.add(e.id);
+        }));
+        while (!sinTitulo.isEmpty()) {
+            resolver(sinTitulo);
+            Set<Contenido.Tipo> huecos = new HashSet<>();
+            for (String id : sinTitulo) {
+                Entrada e = entradas.get(id);
+                if (e.titulo != null) continue;
+                entradas.remove(id);
+                tops.get(e.tipo).remove(e);
+                huecos.add(e.tipo);
+            }
+            sinTitulo.clear();
+            for (Contenido.Tipo tipo : huecos) {
+                rellenar(tipo);
+                tops.get(tipo).forEach(e -> {
+                    if (e.titulo == null) sinTitulo.add(e.id);
+                });
+            }
+        }
+    }
+
+    private void escribirTramos(Map<String, Long> deltas, long ahora) {
+        LocalDateTime t = LocalDateTime.ofInstant(Instant.ofEpochMilli(ahora), ZoneId.systemDefault());
+        BulkOperations bulk = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ReproduccionesTramo.class);
+        deltas.forEach((id, n) -> {
+            for (Granularidad g : Granularidad.values()) {
+                LocalDateTime inicio = g.inicio(t);
+                bulk.upsert(new Query(where("_id").is(ReproduccionesTramo.clave(id, g, inicio))), new Update()
+                        .inc(FIELD_REPRODUCCIONES, n)
+                        .setOnInsert(FIELD_CONTENIDO_ID, id)
+                        .setOnInsert(FIELD_TIPO, entradas.get(id).tipo)
+                        .setOnInsert(FIELD_GRANULARIDAD, g)
+                        .setOnInsert(FIELD_INICIO, inicio));
+            }
+        });
+        bulk.execute();
+    }
+
+    /** Inicio de ayer: desde ahí se usan los tramos por hora. */
+    private static LocalDateTime corteHoras(long ahora) {
+        return Granularidad.DIA.inicio(LocalDateTime.ofInstant(Instant.ofEpochMilli(ahora), ZoneId.systemDefault()))
+                .minusDays(1);
+    }
+
+    private double peso(long t) {
+        return Math.pow(2, (t - referencia) / semividaMs);
+    }
+
+    private static long ms(LocalDateTime t) {
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+}
@@ -0,0 +1,117 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+
+import com.EsiMediaG03.services.ContenidoService;
+
+/**
+ * Comprueba el documento de pipeline que construye ContenidoService.actualizacionMedia
+ * evaluándolo etapa a etapa sobre un contenido, como haría Mongo en un findAndModify.
+ * Las valoraciones en paralelo se prueban en ValoracionConcurrenteTest.
+ */
+class ActualizacionMediaPipelineTest {
+
+    private static final double MEDIA = 3.5;
+    private static final double PESO = 10;
+
+    private static void aplicar(Document contenido, double score) {
+        aplicar(contenido, ContenidoService.actualizacionMedia(score, MEDIA, PESO));
+    }
+
+    /** Aplica las etapas $set del pipeline sobre el documento, en orden. */
+    static void aplicar(Document contenido, AggregationUpdate update) {
+        for (Document etapa : update.toPipeline(Aggregation.DEFAULT_CONTEXT)) {
+            Document set = (Document) etapa.get("$set");
+            Document nuevos = new Document();
+            set.forEach((campo, expr) -> nuevos.put(campo, evaluar(expr, contenido)));
+            contenido.putAll(nuevos);
+        }
+    }
+
+    private static double numero(Document d, String campo) {
+        return ((Number) d.get(campo)).doubleValue();
+    }
+
+    @Test
+    void primera_valoracion_crea_histograma_y_medias() {
+        Document contenido = new Document("_id", "C1");
+
+        aplicar(contenido, 4.5);
+
+        assertEquals(1, ((Number) contenido.get("ratingCount")).intValue());
+        assertEquals(4.5, numero(contenido, "ratingSuma"), 0.0);
+        assertEquals(4.5, numero(contenido, "ratingAvg"), 0.0);
+        assertEquals(List.of(0L, 0L, 0L, 0L, 0L, 0L, 0L, 0L, 1L, 0L),
+                ((List<?>) contenido.get("ratingHistograma")).stream().map(n -> ((Number) n).longValue()).toList());
+        assertEquals((PESO * MEDIA + 4.5) / (PESO + 1), numero(contenido, "ratingBayes"), 1e-9);
+    }
+
+    @Test
+    void documento_antiguo_reconstruye_la_suma_y_acumula() {
+        // anterior al cambio: tiene media y contador pero no ratingSuma ni histograma
+        Document contenido = new Document("_id", "C1").append("ratingAvg", 4.0).append("ratingCount", 10);
+        double[] puntuaciones = {0.5, 5.0, 3.0, 3.0, 2.5};
+        int[] esperado = new int[ContenidoService.CUBETAS_VALORACION];
+        double suma = 40.0;
+        for (double p : puntuaciones) {
+            aplicar(contenido, p);
+            esperado[ContenidoService.cubeta(p)]++;
+            suma += p;
+        }
+
+        int count = 10 + puntuaciones.length;
+        assertEquals(count, ((Number) contenido.get("ratingCount")).intValue());
+        assertEquals(suma, numero(contenido, "ratingSuma"), 1e-9);
+        assertEquals(suma / count, numero(contenido, "ratingAvg"), 1e-9);
+        // el histograma solo cuenta las valoraciones posteriores: las 10 antiguas no tienen cubeta
+        List<?> histograma = (List<?>) contenido.get("ratingHistograma");
+        for (int i = 0; i < esperado.length; i++) assertEquals(esperado[i], ((Number) histograma.get(i)).intValue());
+        assertEquals((PESO * MEDIA + suma) / (PESO + count), numero(contenido, "ratingBayes"), 1e-9);
+    }
+
+    /** Evaluador mínimo de las expresiones de agregación que usa el servicio. */
+    private static Object evaluar(Object expr, Document doc) {
+        return evaluar(expr, doc, Map.of());
+    }
+
+    private static Object evaluar(Object expr, Document doc, Map<String, Object> vars) {
+        if (expr instanceof String s && s.startsWith("$$")) return vars.get(s.substring(2));
+        if (expr instanceof String s && s.startsWith("$")) return doc.get(s.substring(1));
+        if (expr instanceof List<?> l) return l.stream().map(a -> evaluar(a, doc, vars)).toList();
+        if (!(expr instanceof Document d)) return expr;
+        Map.Entry<String, Object> op = d.entrySet().iterator().next();
+        if (op.getKey().equals("$map")) {
+            Document m = (Document) op.getValue();
+            String as = m.getString("as");
+            return ((List<?>) evaluar(m.get("input"), doc, vars)).stream().map(x -> {
+                Map<String, Object> ambito = new HashMap<>(vars);
+                ambito.put(as, x);
+                return evaluar(m.get("in"), doc, ambito);
+            }).toList();
+        }
+        List<?> args = (List<?>) evaluar(op.getValue(), doc, vars);
+        return switch (op.getKey()) {
+            case "$ifNull" -> args.get(0) != null ? args.get(0) : args.get(1);
+            case "$add" -> args.stream().allMatch(a -> a instanceof Integer || a instanceof Long)
+                    ? (Object) args.stream().mapToLong(a -> ((Number) a).longValue()).sum()
+                    : (Object) args.stream().mapToDouble(a -> ((Number) a).doubleValue()).sum();
+            case "$multiply" -> ((Number) args.get(0)).doubleValue() * ((Number) args.get(1)).doubleValue();
+            case "$divide" -> ((Number) args.get(0)).doubleValue() / ((Number) args.get(1)).doubleValue();
+            case "$range" -> IntStream.range(((Number) args.get(0)).intValue(), ((Number) args.get(1)).intValue())
+                    .boxed().toList();
+            case "$arrayElemAt" -> ((List<?>) args.get(0)).get(((Number) args.get(1)).intValue());
+            case "$eq" -> ((Number) args.get(0)).longValue() == ((Number) args.get(1)).longValue();
+            case "$cond" -> Boolean.TRUE.equals(args.get(0)) ? args.get(1) : args.get(2);
+            default -> throw new IllegalArgumentException("Operador no soportado: " + op.getKey());
+        };
+    }
+}
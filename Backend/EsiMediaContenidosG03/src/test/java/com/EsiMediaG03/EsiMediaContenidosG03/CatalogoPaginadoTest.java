@@ -0,0 +1,215 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.jsonPath;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.request;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Nested;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import com.EsiMediaG03.dto.CursorCatalogo;
+import com.EsiMediaG03.dto.PaginaContenidos;
+import com.EsiMediaG03.dto.TarjetaContenido;
+import com.EsiMediaG03.http.ContenidoController;
+import com.EsiMediaG03.http.RangePolicy;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.ContenidoService;
+
+class CatalogoPaginadoTest {
+
+    private static final LocalDateTime BASE = LocalDateTime.of(2025, 3, 1, 12, 0);
+
+    private static Contenido contenido(int i) {
+        Contenido c = new Contenido();
+        c.setId(String.format("%024x", i));
+        c.setTitulo("T" + i);
+        c.setTipo(Contenido.Tipo.VIDEO);
+        ReflectionTestUtils.setField(c, "fechaEstado", BASE.minusMinutes(i));
+        return c;
+    }
+
+    @Test
+    void cursor_ida_y_vuelta() {
+        CursorCatalogo c = new CursorCatalogo(BASE, "65f0c0ffee0000000000abcd");
+        assertEquals(c, CursorCatalogo.decodificar(c.codificar()));
+        assertThrows(IllegalArgumentException.class, () -> CursorCatalogo.decodificar("no-es-un-cursor"));
+    }
+
+    @Test
+    void cursor_sin_fecha_estado_ida_y_vuelta() {
+        CursorCatalogo c = new CursorCatalogo(null, "65f0c0ffee0000000000abcd");
+        assertEquals(c, CursorCatalogo.decodificar(c.codificar()));
+    }
+
+    @Test
+    void contenido_leido_sin_fecha_estado_no_la_inventa() {
+        assertNull(new Contenido().getFechaEstado());
+    }
+
+    @Nested
+    @ExtendWith(MockitoExtension.class)
+    class Servicio {
+
+        @Mock MongoTemplate mongoTemplate;
+        @InjectMocks ContenidoService service;
+
+        @Test
+        void primera_pagina_pide_uno_mas_y_devuelve_cursor() {
+            List<Contenido> filas = new ArrayList<>();
+            for (int i = 0; i < 4; i++) filas.add(contenido(i));
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(filas);
+
+            PaginaContenidos p = service.listarCatalogo(null, 3, null);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+            assertEquals(4, q.getValue().getLimit());
+            assertEquals(new Document("fechaEstado", -1).append("_id", -1), q.getValue().getSortObject());
+            assertTrue(q.getValue().getFieldsObject().containsKey("titulo"));
+            assertTrue(!q.getValue().getFieldsObject().containsKey("urlVideo"));
+            assertTrue(q.getValue().getQueryObject().isEmpty());
+
+            assertEquals(3, p.items().size());
+            assertEquals(CursorCatalogo.tras(p.items().get(2)), CursorCatalogo.decodificar(p.siguiente()));
+        }
+
+        @Test
+        void ultima_pagina_sin_cursor_siguiente() {
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(contenido(0)));
+            PaginaContenidos p = service.listarCatalogo(null, 3, null);
+            assertEquals(1, p.items().size());
+            assertNull(p.siguiente());
+        }
+
+        @Test
+        void con_cursor_filtra_por_keyset() {
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+            String cursor = new CursorCatalogo(BASE, "65f0c0ffee0000000000abcd").codificar();
+
+            service.listarCatalogo(cursor, 10, null);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+            assertNotNull(q.getValue().getQueryObject().get("$or"));
+        }
+
+        @Test
+        void cursor_sin_fecha_pagina_solo_por_id_entre_los_que_no_la_tienen() {
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+            String cursor = new CursorCatalogo(null, "65f0c0ffee0000000000abcd").codificar();
+
+            service.listarCatalogo(cursor, 10, null);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+            Document filtro = q.getValue().getQueryObject();
+            assertTrue(filtro.containsKey("fechaEstado"));
+            assertNull(filtro.get("fechaEstado"));
+            assertEquals(new Document("$lt", "65f0c0ffee0000000000abcd"), filtro.get("_id"));
+        }
+
+        @Test
+        void con_cursor_incluye_al_final_los_que_no_tienen_fecha() {
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+            service.listarCatalogo(new CursorCatalogo(BASE, "65f0c0ffee0000000000abcd").codificar(), 10, null);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+            List<?> ramas = (List<?>) q.getValue().getQueryObject().get("$or");
+            assertTrue(ramas.contains(new Document("fechaEstado", null)));
+        }
+
+        @Test
+        void limite_acotado() {
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+            service.listarCatalogo(null, 1_000_000, null);
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+            assertEquals(501, q.getValue().getLimit());
+        }
+    }
+
+    @Nested
+    class Controlador {
+
+        private final ContenidoService service = mock(ContenidoService.class);
+        private final MockMvc mvc = MockMvcBuilders.standaloneSetup(new ContenidoController(service,
+                        new RangePolicy("adaptive", 1024L * 1024L, 30, 64L * 1024L * 1024L, 30)))
+                .setMessageConverters(new MappingJackson2HttpMessageConverter())
+                .build();
+
+        @Test
+        void json_por_defecto() throws Exception {
+            when(service.listarCatalogo(null, 50, null)).thenReturn(
+                    new PaginaContenidos(List.of(TarjetaContenido.de(contenido(1))), "abc"));
+
+            mvc.perform(get("/Contenidos/Catalogo").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isOk())
+                    .andExpect(jsonPath("$.items[0].titulo").value("T1"))
+                    .andExpect(jsonPath("$.items[0].urlVideo").doesNotExist())
+                    .andExpect(jsonPath("$.siguiente").value("abc"));
+        }
+
+        @Test
+        void cursor_invalido_400() throws Exception {
+            when(service.listarCatalogo("x", 50, null)).thenThrow(new IllegalArgumentException("Cursor no válido"));
+            mvc.perform(get("/Contenidos/Catalogo").param("cursor", "x").accept(MediaType.APPLICATION_JSON))
+                    .andExpect(status().isBadRequest());
+        }
+
+        @Test
+        void ndjson_una_tarjeta_por_linea_y_cierra_el_cursor() throws Exception {
+            AtomicBoolean cerrado = new AtomicBoolean();
+            when(service.streamCatalogo(null)).thenReturn(Stream.of(contenido(1), contenido(2))
+                    .map(TarjetaContenido::de).onClose(() -> cerrado.set(true)));
+
+            MvcResult r = mvc.perform(get("/Contenidos/Catalogo").accept(MediaType.APPLICATION_NDJSON))
+                    .andExpect(request().asyncStarted())
+                    .andReturn();
+            String body = mvc.perform(asyncDispatch(r))
+                    .andExpect(status().isOk())
+                    .andExpect(content().contentType(MediaType.APPLICATION_NDJSON))
+                    .andReturn().getResponse().getContentAsString();
+
+            String[] lineas = body.split("\n");
+            assertEquals(2, lineas.length);
+            assertTrue(lineas[0].contains("\"titulo\":\"T1\""));
+            assertTrue(lineas[0].contains("\"fechaEstado\":\"2025-03-01T11:59:00\""));
+            assertTrue(lineas[1].contains("\"titulo\":\"T2\""));
+            assertTrue(cerrado.get());
+        }
+    }
+}
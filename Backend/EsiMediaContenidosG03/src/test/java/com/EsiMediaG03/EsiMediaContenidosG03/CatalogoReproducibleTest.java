@@ -0,0 +1,109 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.util.List;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.EsiMediaG03.dto.CursorCatalogo;
+import com.EsiMediaG03.dto.FiltroAcceso;
+import com.EsiMediaG03.dto.PaginaContenidos;
+import com.EsiMediaG03.http.ContenidoController;
+import com.EsiMediaG03.http.RangePolicy;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.ContenidoService;
+
+@ExtendWith(MockitoExtension.class)
+class CatalogoReproducibleTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @InjectMocks ContenidoService service;
+
+    private Document filtroEnviado(FiltroAcceso filtro, String cursor) {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of());
+        service.listarCatalogo(cursor, 20, filtro);
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+        return q.getValue().getQueryObject();
+    }
+
+    @Test
+    void no_vip_sin_edad_solo_ve_contenido_libre_y_vigente() {
+        Document f = filtroEnviado(new FiltroAcceso(false, null), null);
+
+        assertEquals(true, f.get("visible"));
+        assertEquals(false, f.get("vip"));
+        assertEquals(new Document("$lte", 0), f.get("restringidoEdad"));
+        List<?> vigencia = (List<?>) f.get("$or");
+        assertEquals(new Document("disponibleHasta", null), vigencia.get(0));
+        assertNotNull(((Document) ((Document) vigencia.get(1)).get("disponibleHasta")).get("$gt"));
+    }
+
+    @Test
+    void vip_con_edad_no_filtra_por_vip() {
+        Document f = filtroEnviado(new FiltroAcceso(true, 18), null);
+
+        assertFalse(f.containsKey("vip"));
+        assertEquals(new Document("$lte", 18), f.get("restringidoEdad"));
+    }
+
+    @Test
+    void filtro_y_cursor_se_combinan_con_and() {
+        String cursor = new CursorCatalogo(LocalDateTime.of(2025, 1, 1, 0, 0), "65f0c0ffee0000000000abcd").codificar();
+        Document f = filtroEnviado(new FiltroAcceso(false, 30), cursor);
+
+        List<?> partes = (List<?>) f.get("$and");
+        assertEquals(2, partes.size());
+        assertEquals(true, ((Document) partes.get(0)).get("visible"));
+        assertNotNull(((Document) partes.get(1)).get("$or"));
+    }
+
+    @Test
+    void controlador_construye_el_filtro_con_las_cabeceras_de_reproduccion() throws Exception {
+        ContenidoService mockService = mock(ContenidoService.class);
+        MockMvc mvc = MockMvcBuilders.standaloneSetup(new ContenidoController(mockService,
+                        new RangePolicy("adaptive", 1024L * 1024L, 30, 64L * 1024L * 1024L, 30)))
+                .setMessageConverters(new MappingJackson2HttpMessageConverter())
+                .build();
+        when(mockService.listarCatalogo(any(), eq(50), any())).thenReturn(new PaginaContenidos(List.of(), null));
+
+        mvc.perform(get("/Contenidos/Catalogo").param("reproducibles", "true")
+                        .header("X-User-Vip", "true")
+                        .header("X-User-Birthdate", LocalDate.now().minusYears(20).toString())
+                        .accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+        mvc.perform(get("/Contenidos/Catalogo").accept(MediaType.APPLICATION_JSON))
+                .andExpect(status().isOk());
+
+        ArgumentCaptor<FiltroAcceso> filtros = ArgumentCaptor.forClass(FiltroAcceso.class);
+        verify(mockService, times(2)).listarCatalogo(any(), eq(50), filtros.capture());
+        assertEquals(new FiltroAcceso(true, 20), filtros.getAllValues().get(0));
+        assertNull(filtros.getAllValues().get(1));
+    }
+}
@@ -0,0 +1,195 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.ContadorReproducciones;
+import com.mongodb.bulk.BulkWriteError;
+
+@ExtendWith(MockitoExtension.class)
+class ContadorReproduccionesTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations bulk;
+
+    private static Contenido conReproducciones(long n) {
+        Contenido c = new Contenido();
+        c.setNumReproducciones(n);
+        return c;
+    }
+
+    @Test
+    void incrementar_reparte_sobre_fragmentos_con_upsert() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContadorReproducciones.COLECCION)).thenReturn(bulk);
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 5000, 60_000);
+
+        contador.incrementar(Map.of("A", 7L, "B", 1L));
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(bulk, times(2)).upsert(qs.capture(), us.capture());
+        verify(bulk).execute();
+        Set<String> ids = qs.getAllValues().stream()
+                .map(q -> (String) q.getQueryObject().get("_id")).collect(Collectors.toSet());
+        assertTrue(ids.stream().allMatch(id -> id.matches("[AB]:[0-3]")));
+    }
+
+    @Test
+    void total_suma_base_y_fragmentos_y_se_cachea() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(conReproducciones(100));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION)))
+                .thenReturn(List.of(new Document("_id", "A:0").append("contenidoId", "A").append("n", 5L),
+                                    new Document("_id", "A:3").append("contenidoId", "A").append("n", 2)));
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 60_000, 60_000);
+
+        assertEquals(107L, contador.total("A"));
+        assertEquals(107L, contador.total("A"));
+        verify(mongoTemplate, times(1)).findOne(any(Query.class), eq(Contenido.class));
+    }
+
+    @Test
+    void total_modo_directo_no_lee_fragmentos() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(conReproducciones(9));
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "directo", 4, 0, 60_000);
+
+        assertEquals(9L, contador.total("A"));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION));
+    }
+
+    @Test
+    void total_cuenta_lo_apartado_solo_si_el_contenido_no_tiene_su_lote() {
+        when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(conReproducciones(100));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION)))
+                .thenReturn(List.of(new Document("_id", "A:0").append("contenidoId", "A").append("n", 5L),
+                                    new Document("_id", "A:1").append("contenidoId", "A").append("n", 0L)
+                                            .append("pendiente", 3L).append("lote", "L1")));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("contenidos")))
+                .thenReturn(List.of(), List.of(new Document("_id", "A").append("lotesContador", List.of("L1"))));
+        // sin caché: cache-ms negativo para que la segunda lectura vuelva a Mongo
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, -1, 60_000);
+
+        // aún no sumado al contenido: cuenta; ya sumado: va incluido en reproducciones
+        assertEquals(108L, contador.total("A"));
+        assertEquals(105L, contador.total("A"));
+    }
+
+    private static Document apartado(String id, String contenidoId, long pendiente, String lote) {
+        return new Document("_id", id).append("contenidoId", contenidoId).append("pendiente", pendiente).append("lote", lote);
+    }
+
+    @Test
+    void reconciliar_aparta_suma_por_contenido_y_lote_y_vacia() {
+        BulkOperations sumar = mock(BulkOperations.class);
+        BulkOperations desmarcar = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(sumar, desmarcar);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContadorReproducciones.COLECCION)).thenReturn(bulk);
+        // A:2 lo dejó a medias una pasada anterior
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION)))
+                .thenReturn(List.of(apartado("A:0", "A", 5, "L"), apartado("A:1", "A", 3, "L"),
+                        apartado("B:0", "B", 1, "L"), apartado("A:2", "A", 2, "viejo")));
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 0, 60_000);
+
+        assertEquals(2, contador.reconciliar());
+
+        ArgumentCaptor<AggregationUpdate> aparte = ArgumentCaptor.forClass(AggregationUpdate.class);
+        verify(mongoTemplate).updateMulti(any(Query.class), aparte.capture(), eq(ContadorReproducciones.COLECCION));
+        Document set = (Document) aparte.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$set");
+        assertEquals("$n", set.get("pendiente"));
+        assertEquals(0L, set.get("n"));
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(sumar, times(3)).updateOne(qs.capture(), us.capture());
+        Map<String, Long> sumado = new HashMap<>();
+        for (int i = 0; i < 3; i++) {
+            Document q = qs.getAllValues().get(i).getQueryObject();
+            Document u = us.getAllValues().get(i).getUpdateObject();
+            // el $inc solo se aplica si el contenido no tiene ya la marca del lote
+            Object lote = ((Document) q.get("lotesContador")).get("$ne");
+            assertEquals(lote, ((Document) u.get("$addToSet")).get("lotesContador"));
+            sumado.put(q.get("_id") + "/" + lote, (Long) ((Document) u.get("$inc")).get("reproducciones"));
+        }
+        assertEquals(Map.of("A/L", 8L, "B/L", 1L, "A/viejo", 2L), sumado);
+        verify(bulk, times(3)).updateMulti(any(Query.class), any(Update.class));
+        verify(desmarcar, times(3)).updateOne(any(Query.class), any(Update.class));
+        verify(bulk).execute();
+        verify(desmarcar).execute();
+    }
+
+    @Test
+    void reconciliar_conserva_lo_apartado_si_falla_la_suma() {
+        BulkOperations sumar = mock(BulkOperations.class);
+        BulkOperations desmarcar = mock(BulkOperations.class);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(sumar, desmarcar);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContadorReproducciones.COLECCION)).thenReturn(bulk);
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION)))
+                .thenReturn(List.of(apartado("A:0", "A", 5, "L"), apartado("B:0", "B", 1, "L")));
+        BulkWriteError error = mock(BulkWriteError.class);
+        when(error.getIndex()).thenReturn(0);
+        BulkOperationException ex = mock(BulkOperationException.class);
+        when(ex.getErrors()).thenReturn(List.of(error));
+        when(sumar.execute()).thenThrow(ex);
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 0, 60_000);
+
+        assertEquals(1, contador.reconciliar());
+
+        // A sigue con pendiente para la siguiente pasada; solo se vacía B
+        ArgumentCaptor<Query> vaciados = ArgumentCaptor.forClass(Query.class);
+        verify(bulk).updateMulti(vaciados.capture(), any(Update.class));
+        assertEquals("B", vaciados.getValue().getQueryObject().get("contenidoId"));
+        verify(desmarcar, times(1)).updateOne(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void reconciliar_sin_fragmentos_apartados_no_escribe_en_contenidos() {
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 0, 60_000);
+
+        assertEquals(0, contador.reconciliar());
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), any(Class.class));
+    }
+
+    @Test
+    void reconciliar_no_hace_nada_si_otra_instancia_tiene_el_turno() {
+        when(mongoTemplate.upsert(any(Query.class), any(Update.class), eq("bloqueos")))
+                .thenThrow(new DuplicateKeyException("turno ocupado"));
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 0, 60_000);
+
+        assertEquals(0, contador.reconciliar());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION));
+    }
+
+    @Test
+    void reconciliar_modo_directo_no_hace_nada() {
+        ContadorReproducciones contador = new ContadorReproducciones(mongoTemplate, "directo", 4, 0, 60_000);
+        assertEquals(0, contador.reconciliar());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), any(String.class));
+    }
+}
@@ -56,7 +56,7 @@ class ContenidoControllerErrorPathsTest {
         assertThrows(StreamingTargetResolutionException.class, () ->
                 controller.stream("id-x", new HttpHeaders(), null, null,null, null, null, true));
 
-        verify(contenidoService, never()).registrarReproduccionSiUsuario(anyString(), any());
+        verify(contenidoService, never()).registrarReproduccion(anyString(), any(), any(), any());
     }
 
     @Test
@@ -1,8 +1,12 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.LoteTarjetas;
 import com.EsiMediaG03.dto.ModificarContenidoRequest;
+import com.EsiMediaG03.dto.MultipartFileRegions;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.http.ContenidoController;
+import com.EsiMediaG03.http.RangePolicy;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
 import org.junit.jupiter.api.*;
@@ -16,6 +20,10 @@ import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.context.request.RequestContextHolder;
+import org.springframework.web.context.request.ServletRequestAttributes;
 
 import java.io.InputStream;
 import java.nio.file.Files;
@@ -34,6 +42,9 @@ class ContenidoControllerTest {
     @Mock
     ContenidoService contenidoService;
 
+    @Spy
+    RangePolicy rangePolicy = new RangePolicy("adaptive", 1024L * 1024L, 30, 64L * 1024L * 1024L, 30);
+
     @InjectMocks
     ContenidoController controller;
 
@@ -49,9 +60,17 @@ class ContenidoControllerTest {
 
     @AfterEach
     void tearDown() throws Exception {
+        RequestContextHolder.resetRequestAttributes();
         Files.deleteIfExists(tempFile);
     }
 
+    private MockHttpServletRequest bindRequest(boolean sendfileSupport) {
+        MockHttpServletRequest req = new MockHttpServletRequest();
+        if (sendfileSupport) req.setAttribute("org.apache.tomcat.sendfile.support", Boolean.TRUE);
+        RequestContextHolder.setRequestAttributes(new ServletRequestAttributes(req));
+        return req;
+    }
+
     private StreamingTarget mockFileTarget() {
         StreamingTarget t = mock(StreamingTarget.class, withSettings().lenient());
         when(t.isExternalRedirect()).thenReturn(false);
@@ -62,6 +81,11 @@ class ContenidoControllerTest {
         return t;
     }
 
+    private StreamingTarget realFileTarget() throws Exception {
+        long mtime = Files.getLastModifiedTime(tempFile).toMillis();
+        return StreamingTarget.local(tempFile, data.length, mtime, "application/octet-stream");
+    }
+
     private static byte[] readAll(InputStream is) throws Exception {
         return is.readAllBytes();
     }
@@ -167,6 +191,196 @@ class ContenidoControllerTest {
         assertEquals("https://cdn.example.com/video.mp4", resp.getHeaders().getLocation().toString());
     }
 
+    @Test
+    void testStreamLocalSinRange_devuelveFicheroCompleto() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertEquals(data.length, resp.getHeaders().getContentLength());
+        assertEquals(new FileRegion(tempFile, 0, data.length), resp.getBody());
+    }
+
+    @Test
+    void testStreamLocalConRange_devuelveRegionPosicionada() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=20-25");
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 20-25/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(new FileRegion(tempFile, 20, 6), resp.getBody());
+        assertEquals("0", resp.getHeaders().getFirst("X-Round-Trips-Saved"));
+        verify(rangePolicy).responseLength(target, 20, 25, false);
+    }
+
+    @Test
+    void testStreamRangoAbiertoYSufijo_seDistinguenPorSusLimites() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders abierto = new HttpHeaders();
+        abierto.set(HttpHeaders.RANGE, "bytes=10-");
+        HttpHeaders sufijo = new HttpHeaders();
+        sufijo.set(HttpHeaders.RANGE, "bytes=-4");
+
+        controller.stream("id", abierto, null, null, null, null, null, null);
+        controller.stream("id", sufijo, null, null, null, null, null, null);
+
+        verify(rangePolicy).responseLength(target, 10, 25, true);
+        verify(rangePolicy).responseLength(target, 22, 25, false);
+    }
+
+    @Test
+    void testStreamLocalRangeFueraDeFichero_416() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=30-40");
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null);
+
+        assertEquals(416, resp.getStatusCodeValue());
+        assertEquals("bytes */26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+    }
+
+    @Test
+    void testStreamVariosRangos_respondeMultipartByteranges() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=0-3, -4, 100-200");
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("multipart", resp.getHeaders().getContentType().getType());
+        assertEquals("byteranges", resp.getHeaders().getContentType().getSubtype());
+        MultipartFileRegions body = (MultipartFileRegions) resp.getBody();
+        assertEquals(List.of(new FileRegion(tempFile, 0, 4), new FileRegion(tempFile, 22, 4)), body.regions());
+        assertEquals(body.boundary(), resp.getHeaders().getContentType().getParameter("boundary"));
+        assertEquals(body.contentLength(), resp.getHeaders().getContentLength());
+    }
+
+    @Test
+    void testStreamVariosRangos_unoSatisfacible_respondeParteUnica() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=2-4, 50-60");
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertEquals("bytes 2-4/26", resp.getHeaders().getFirst(HttpHeaders.CONTENT_RANGE));
+        assertEquals(new FileRegion(tempFile, 2, 3), resp.getBody());
+    }
+
+    @Test
+    void testStreamValidadores_etagYLastModified() throws Exception {
+        StreamingTarget target = realFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertEquals(target.etag(), resp.getHeaders().getETag());
+        assertEquals(target.lastModified() / 1000, resp.getHeaders().getLastModified() / 1000);
+    }
+
+    @Test
+    void testStreamIfNoneMatch_304() throws Exception {
+        StreamingTarget target = realFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.setIfNoneMatch(List.of("\"otra\"", "W/" + target.etag()));
+
+        ResponseEntity<Object> resp = controller.stream("id", req, null, null, null, null, null, null);
+
+        assertEquals(304, resp.getStatusCodeValue());
+        assertNull(resp.getBody());
+        assertEquals(target.etag(), resp.getHeaders().getETag());
+    }
+
+    @Test
+    void testStreamIfModifiedSince_304_yEtagDistintoGana() throws Exception {
+        StreamingTarget target = realFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.setIfModifiedSince(target.lastModified() + 5000);
+
+        assertEquals(304, controller.stream("id", req, null, null, null, null, null, null).getStatusCodeValue());
+
+        req.setIfNoneMatch("\"otra\"");
+        assertEquals(200, controller.stream("id", req, null, null, null, null, null, null).getStatusCodeValue());
+    }
+
+    @Test
+    void testStreamIfRange_coincide206_noCoincide200() throws Exception {
+        StreamingTarget target = realFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        HttpHeaders req = new HttpHeaders();
+        req.set(HttpHeaders.RANGE, "bytes=10-");
+        req.set(HttpHeaders.IF_RANGE, target.etag());
+
+        ResponseEntity<Object> parcial = controller.stream("id", req, null, null, null, null, null, null);
+        assertEquals(206, parcial.getStatusCodeValue());
+        assertEquals(new FileRegion(tempFile, 10, 16), parcial.getBody());
+
+        req.set(HttpHeaders.IF_RANGE, "\"version-anterior\"");
+        ResponseEntity<Object> completo = controller.stream("id", req, null, null, null, null, null, null);
+        assertEquals(200, completo.getStatusCodeValue());
+        assertEquals(FileRegion.whole(tempFile, data.length), completo.getBody());
+    }
+
+    @Test
+    void testStreamSendfile_conectorCompatible_cedeFicheroATomcat() throws Exception {
+        ReflectionTestUtils.setField(controller, "sendfileMinBytes", 1L);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockHttpServletRequest req = bindRequest(true);
+        HttpHeaders range = new HttpHeaders();
+        range.set(HttpHeaders.RANGE, "bytes=5-");
+
+        ResponseEntity<Object> resp = controller.stream("id", range, null, null, null, null, null, null);
+
+        assertEquals(206, resp.getStatusCodeValue());
+        assertNull(resp.getBody());
+        assertEquals(21, resp.getHeaders().getContentLength());
+        assertEquals(tempFile.toAbsolutePath().toString(), req.getAttribute("org.apache.tomcat.sendfile.filename"));
+        assertEquals(5L, req.getAttribute("org.apache.tomcat.sendfile.start"));
+        assertEquals(26L, req.getAttribute("org.apache.tomcat.sendfile.end"));
+    }
+
+    @Test
+    void testStreamSendfile_sinSoporte_usaRegion() throws Exception {
+        ReflectionTestUtils.setField(controller, "sendfileMinBytes", 1L);
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockHttpServletRequest req = bindRequest(false);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null);
+
+        assertEquals(FileRegion.whole(tempFile, data.length), resp.getBody());
+        assertNull(req.getAttribute("org.apache.tomcat.sendfile.filename"));
+    }
+
+    @Test
+    void testStreamSendfile_ficheroPequeno_usaRegion() throws Exception {
+        StreamingTarget target = mockFileTarget();
+        when(contenidoService.resolveStreamingTarget(any(), any(), any())).thenReturn(target);
+        MockHttpServletRequest req = bindRequest(true);
+
+        ResponseEntity<Object> resp = controller.stream("id", new HttpHeaders(), null, null, null, null, null, null);
+
+        assertEquals(FileRegion.whole(tempFile, data.length), resp.getBody());
+        assertNull(req.getAttribute("org.apache.tomcat.sendfile.filename"));
+    }
+
     @Test
     void testHeadLocal() throws Exception {
         StreamingTarget target = mock(StreamingTarget.class);
@@ -181,4 +395,25 @@ class ContenidoControllerTest {
         assertEquals("bytes", resp.getHeaders().getFirst(HttpHeaders.ACCEPT_RANGES));
     }
 
+    @Test
+    void tendencias_delega_en_el_servicio() {
+        Map<String, List<Map<String, Object>>> ranking = Map.of("VIDEO", List.of(Map.of("id", "c1")));
+        when(contenidoService.tendencias(Contenido.Tipo.VIDEO, 5)).thenReturn(ranking);
+
+        var resp = controller.tendencias(Contenido.Tipo.VIDEO, 5);
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertSame(ranking, resp.getBody());
+    }
+
+    @Test
+    void batch_devuelve_tarjetas_y_noEncontrados() {
+        LoteTarjetas lote = new LoteTarjetas(List.of(), List.of("x"));
+        when(contenidoService.tarjetas(List.of("x"))).thenReturn(lote);
+
+        var resp = controller.tarjetas(List.of("x"));
+
+        assertEquals(200, resp.getStatusCodeValue());
+        assertSame(lote, resp.getBody());
+    }
 }
@@ -1,10 +1,13 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dto.LoteTarjetas;
+import com.EsiMediaG03.dto.TarjetaContenido;
 import com.EsiMediaG03.exceptions.ContenidoAddException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
-import org.bson.Document;
+import com.EsiMediaG03.services.EstadisticasTops;
+import com.EsiMediaG03.services.TarjetasCache;
 import org.junit.jupiter.api.*;
 import org.junit.jupiter.api.extension.ExtendWith;
 import org.junit.jupiter.params.ParameterizedTest;
@@ -15,7 +18,6 @@ import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
 import org.springframework.data.mongodb.core.query.Query;
 
-import java.time.LocalDateTime;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
@@ -80,6 +82,43 @@ class ContenidoServiceTest {
         verify(contenidoDAO).save(c);
     }
 
+    @Test
+    void anadirContenido_copia_especialidad_y_alias_del_creador() throws Throwable {
+        Contenido c = baseAudio();
+        c.setUserEmail("creador@esi.com");
+        c.setEspecialidad("La que mande el cliente");
+        when(mongoTemplate.findOne(any(org.springframework.data.mongodb.core.query.Query.class),
+                eq(org.bson.Document.class), eq("users")))
+                .thenReturn(new org.bson.Document("especialidad", "Medicina").append("alias", "doc"));
+        when(contenidoDAO.save(any(Contenido.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        Contenido out = service.anadirContenido(c);
+
+        assertEquals("Medicina", out.getEspecialidad());
+        assertEquals("doc", out.getCreadorAlias());
+    }
+
+    @Test
+    void anadirContenido_ignora_valoraciones_y_reproducciones_de_la_peticion() throws Throwable {
+        Contenido c = baseAudio();
+        c.setRatingAvg(5.0);
+        c.setRatingCount(1000);
+        c.setRatingSuma(5000.0);
+        c.setRatingHistograma(java.util.List.of(0, 0, 0, 0, 0, 0, 0, 0, 0, 1000));
+        c.setRatingBayes(5.0);
+        c.setNumReproducciones(1_000_000L);
+        when(contenidoDAO.save(any(Contenido.class))).thenAnswer(inv -> inv.getArgument(0));
+
+        Contenido out = service.anadirContenido(c);
+
+        assertEquals(0.0, out.getRatingAvg());
+        assertEquals(0, out.getRatingCount());
+        assertEquals(0.0, out.getRatingSuma());
+        assertNull(out.getRatingHistograma());
+        assertEquals(0.0, out.getRatingBayes());
+        assertEquals(0L, out.getNumReproducciones());
+    }
+
     @Test
     void tipo_null_lanza() {
         Contenido c = baseAudio();
@@ -94,85 +133,60 @@ class ContenidoServiceTest {
 
     // ====================== TESTS ESTADISTICAS ======================
 
-    @Test
-    void estadisticasGlobales_devuelve_tres_listas() {
-        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
-                .thenReturn(List.of(new Contenido()));
+    @Mock
+    EstadisticasTops estadisticasTops;
 
-        Map<String, Object> res = service.estadisticasGlobales();
+    @Test
+    void estadisticasGlobales_lee_la_vista_materializada() {
+        Map<String, Object> vista = Map.of("topReproducciones", List.of());
+        when(estadisticasTops.tops()).thenReturn(vista);
 
-        assertTrue(res.containsKey("topReproducciones"));
-        assertTrue(res.containsKey("topValoraciones"));
-        assertTrue(res.containsKey("topCategorias"));
+        assertSame(vista, service.estadisticasGlobales());
+        verifyNoInteractions(mongoTemplate);
     }
 
-    @Test
-    void top5PorReproducciones_ok() {
-        Contenido c1 = new Contenido();
-        c1.setId("id1");
-        c1.setTitulo("Uno");
-        c1.setTipo(Contenido.Tipo.AUDIO);
-        c1.setNumReproducciones(10L); // Asegúrate de usar Long
-
-        Contenido c2 = new Contenido();
-        c2.setId("id2");
-        c2.setTitulo("Dos");
-        c2.setTipo(Contenido.Tipo.VIDEO);
-        c2.setNumReproducciones(5L);
-
-        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
-                .thenReturn(List.of(c1, c2));
-
-        Map<String, Object> res = service.estadisticasGlobales();
-        List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topReproducciones");
-
-        assertEquals("id1", top.get(0).get("id"));
-        assertEquals(10L, top.get(0).get("reproducciones"));
-    }
+    // ====================== TESTS TARJETAS EN LOTE ======================
 
+    @Spy
+    TarjetasCache tarjetasCache = new TarjetasCache(100, 30);
 
-    @Test
-    void top5PorValoraciones_filtra_ratingCount() {
-        Contenido c1 = new Contenido();
-        c1.setId("v1");
-        c1.setTitulo("V1");
-        c1.setTipo(Contenido.Tipo.VIDEO);
-        c1.setRatingCount(2);
-        c1.setRatingAvg(4.0);
-
-        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(c1));
-
-        Map<String, Object> res = service.estadisticasGlobales();
-        List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topValoraciones");
-
-        assertEquals(1, top.size());
-        assertEquals("v1", top.get(0).get("id"));
-        assertEquals(4.0, top.get(0).get("avg"));
+    private static Contenido conId(String id) {
+        Contenido c = baseAudio();
+        c.setId(id);
+        return c;
     }
 
-@Test
-void top5CategoriasMasVistas_ok() {
-    Contenido c1 = new Contenido();
-    c1.setUserEmail("a@a.com");
-    c1.setNumReproducciones(10L);
-
-    Contenido c2 = new Contenido();
-    c2.setUserEmail("b@b.com");
-    c2.setNumReproducciones(20L);
+    @Test
+    void tarjetas_en_orden_con_noEncontrados_y_una_sola_consulta() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(conId("b"), conId("a")));
 
-    Document userA = new Document("email", "a@a.com").append("especialidad", "Informatica");
-    Document userB = new Document("email", "b@b.com").append("especialidad", "Medicina");
+        LoteTarjetas lote = service.tarjetas(List.of("a", "x", "b", "a"));
 
-    when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
-            .thenReturn(List.of(c1, c2));
-    when(mongoTemplate.find(any(Query.class), eq(Document.class), anyString()))
-            .thenReturn(List.of(userA, userB));
+        assertEquals(List.of("a", "b", "a"), lote.tarjetas().stream().map(TarjetaContenido::id).toList());
+        assertEquals(List.of("x"), lote.noEncontrados());
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+        assertEquals(List.of("a", "x", "b"), ((org.bson.Document) q.getValue().getQueryObject().get("_id")).get("$in"));
+        assertEquals(Set.of(TarjetaContenido.CAMPOS), q.getValue().getFieldsObject().keySet());
+    }
 
-    Map<String, Object> res = service.estadisticasGlobales();
-    List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topCategorias");
+    @Test
+    void tarjetas_comparte_cache_con_los_resumenes_de_valoracion() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(conId("a")));
+        service.tarjetas(List.of("a"));
+
+        // solo se consulta lo que no estaba en caché
+        service.ratingResumenes(List.of("a", "b"));
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(2)).find(q.capture(), eq(Contenido.class));
+        assertEquals(List.of("b"), ((org.bson.Document) q.getValue().getQueryObject().get("_id")).get("$in"));
+    }
 
-    assertEquals(2, top.size());
-    assertEquals("Medicina", top.get(0).get("especialidad"));
-    assertEquals(20L, top.get(0).get("reproducciones"));    
-}
+    @Test
+    void tarjetas_por_encima_del_maximo_lanza() {
+        List<String> ids = new ArrayList<>();
+        for (int i = 0; i <= 200; i++) ids.add("c" + i);
+        assertThrows(IllegalArgumentException.class, () -> service.tarjetas(ids));
+        verifyNoInteractions(mongoTemplate);
+    }
 }
@@ -12,20 +12,30 @@ import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.mockito.ArgumentMatchers.any;
 import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
 import com.EsiMediaG03.dto.StreamingTarget;
 import com.EsiMediaG03.exceptions.ContenidoException;
 import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.EstadisticasTops;
+import com.EsiMediaG03.services.MasReproducidosAhora;
+import com.EsiMediaG03.services.TendenciasReproducciones;
+import com.EsiMediaG03.services.TarjetasCache;
+import com.EsiMediaG03.services.PlaybackSessionRegistry;
+import com.EsiMediaG03.services.ReproduccionesBuffer;
+import com.EsiMediaG03.services.StreamingTargetCache;
 
 /**
  * Pruebas integrales (controller con MockMvc) y unitarias (service con Mockito)
@@ -43,22 +53,61 @@ import com.EsiMediaG03.services.ContenidoService;
         @Mock
         MongoTemplate mongoTemplate;
 
+        @Spy
+        StreamingTargetCache targetCache = new StreamingTargetCache(100, 600, false);
+
+        @Spy
+        PlaybackSessionRegistry sesiones = new PlaybackSessionRegistry(30, 1000);
+
+        @Mock
+        ReproduccionesBuffer reproduccionesBuffer;
+
+        @Mock
+        EstadisticasTops estadisticasTops;
+
+        @Mock
+        TendenciasReproducciones tendencias;
+
+        @Mock
+        MasReproducidosAhora masReproducidosAhora;
+
+        @Mock
+        TarjetasCache tarjetasCache;
+
         @InjectMocks
         ContenidoService service;
 
         @Test
         void registrarReproduccion_siUsuario_incrementa_unaVez() {
             service.registrarReproduccionSiUsuario("IDX", "USUARIO");
-            verify(mongoTemplate, times(1))
-                    .updateFirst(any(), any(), eq(Contenido.class));
+            verify(reproduccionesBuffer, times(1)).registrarReproduccion("IDX");
+            verify(masReproducidosAhora, times(1)).registrar("IDX");
+            verify(mongoTemplate, never()).updateFirst(any(), any(), eq(Contenido.class));
         }
 
         @Test
         void registrarReproduccion_noIncrementa_paraNoUsuario() {
             service.registrarReproduccionSiUsuario("IDX", "ADMIN");
             service.registrarReproduccionSiUsuario("IDX", null);
-            verify(mongoTemplate, never())
-                    .updateFirst(any(), any(), eq(Contenido.class));
+            verify(reproduccionesBuffer, never()).registrarReproduccion(any());
+            verify(masReproducidosAhora, never()).registrar(any());
+        }
+
+        @Test
+        void registrarReproduccion_mismaSesion_soloCuentaLaPrimera() {
+            for (int i = 0; i < 50; i++) {
+                service.registrarReproduccion("IDX", "USUARIO", "u@esi.com", "u@esi.com");
+            }
+            verify(reproduccionesBuffer, times(1)).registrarReproduccion("IDX");
+            verify(reproduccionesBuffer, times(1)).registrarReproductor("IDX", "u@esi.com");
+        }
+
+        @Test
+        void registrarReproduccion_otroCliente_abreOtraSesion() {
+            service.registrarReproduccion("IDX", "USUARIO", null, "10.0.0.1");
+            service.registrarReproduccion("IDX", "USUARIO", null, "10.0.0.2");
+            service.registrarReproduccion("IDX", "USUARIO", null, "10.0.0.1");
+            verify(reproduccionesBuffer, times(2)).registrarReproduccion("IDX");
         }
 
         @Test
@@ -87,7 +136,7 @@ import com.EsiMediaG03.services.ContenidoService;
                     .visible(true).vip(false).restringidoEdad(0)
                     .tipo(Contenido.Tipo.VIDEO).urlVideo("https://youtu.be/xyz").build();
 
-            when(contenidoDAO.findById("IDV")).thenReturn(Optional.of(c));
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(c);
 
             StreamingTarget t = service.resolveStreamingTarget("IDV", false, 22);
             Assertions.assertTrue(t.isExternalRedirect());
@@ -106,7 +155,7 @@ import com.EsiMediaG03.services.ContenidoService;
                     .visible(true).vip(false).restringidoEdad(0)
                     .tipo(Contenido.Tipo.VIDEO).urlVideo(tmp.getAbsolutePath()).build();
 
-            when(contenidoDAO.findById("IDL")).thenReturn(Optional.of(c));
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(c);
 
             StreamingTarget t = service.resolveStreamingTarget("IDL", false, 22);
             Assertions.assertFalse(t.isExternalRedirect());
@@ -115,8 +164,77 @@ import com.EsiMediaG03.services.ContenidoService;
             Assertions.assertTrue(t.mimeType().startsWith("video/"));
         }
 
+        @Test
+        void resolveStreamingTarget_segundaVez_usaCacheSinMongo() throws Exception {
+            File tmp = File.createTempFile("video-", ".mp4");
+            tmp.deleteOnExit();
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(true).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo(tmp.getAbsolutePath()).build();
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(c);
+
+            StreamingTarget t1 = service.resolveStreamingTarget("IDC", true, 30);
+            StreamingTarget t2 = service.resolveStreamingTarget("IDC", true, 30);
+
+            Assertions.assertSame(t1, t2);
+            verify(mongoTemplate, times(1)).findOne(any(Query.class), eq(Contenido.class));
+            // Las reglas de acceso se siguen aplicando con datos cacheados
+            Assertions.assertThrows(ContenidoException.class, () -> service.resolveStreamingTarget("IDC", false, 30));
+        }
+
+        @Test
+        void resolveStreamingTarget_proyectaSinColeccionesDeUsuarios() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://cdn/x.mp4").build();
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(c);
+
+            service.resolveStreamingTarget("IDP", false, 30);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).findOne(q.capture(), eq(Contenido.class));
+            Assertions.assertEquals(0, q.getValue().getFieldsObject().get("reproductores"));
+            Assertions.assertEquals(0, q.getValue().getFieldsObject().get("ratings"));
+            Assertions.assertEquals(0, q.getValue().getFieldsObject().get("favoritosDeUsuarios"));
+        }
+
+        @Test
+        void eliminarContenido_invalidaCache() throws Exception {
+            Contenido c = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://cdn/x.mp4").build();
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(c);
+            when(contenidoDAO.findById("IDE")).thenReturn(Optional.of(c));
+
+            service.resolveStreamingTarget("IDE", false, 30);
+            service.eliminarContenido("IDE", Contenido.Tipo.VIDEO);
+            service.resolveStreamingTarget("IDE", false, 30);
+
+            verify(targetCache).invalidate("IDE");
+            verify(estadisticasTops).contenidoEliminado("IDE");
+            verify(tendencias).contenidoEliminado("IDE");
+            verify(tarjetasCache).invalidate("IDE");
+            verify(mongoTemplate, times(2)).findOne(any(Query.class), eq(Contenido.class));
+        }
+
+        @Test
+        void resolveStreamingTarget_invalidadoDuranteLaLectura_noCacheaElDocumentoViejo() throws Exception {
+            Contenido viejo = new ContenidoBuilder()
+                    .visible(true).vip(false).restringidoEdad(0)
+                    .tipo(Contenido.Tipo.VIDEO).urlVideo("https://cdn/x.mp4").build();
+            // el contenido se hace VIP mientras esta petición lee el documento anterior
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenAnswer(inv -> {
+                targetCache.invalidate("IDR");
+                return viejo;
+            });
+
+            service.resolveStreamingTarget("IDR", false, 30);
+
+            Assertions.assertNull(targetCache.get("IDR"));
+        }
+
         private void callResolveWith(Contenido contenido, boolean vip, Integer age, boolean shouldPass) throws Exception {
-            when(contenidoDAO.findById("IDZ")).thenReturn(Optional.of(contenido));
+            when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(contenido);
             if (shouldPass) {
                 service.resolveStreamingTarget("IDZ", vip, age);
             } else {
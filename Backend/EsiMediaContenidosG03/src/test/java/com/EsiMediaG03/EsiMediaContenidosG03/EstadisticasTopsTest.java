@@ -0,0 +1,298 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.ContadorReproducciones;
+import com.EsiMediaG03.services.EstadisticasTops;
+import com.EsiMediaG03.services.ReproduccionesPorEspecialidad;
+
+@ExtendWith(MockitoExtension.class)
+class EstadisticasTopsTest {
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    EstadisticasTops estadisticas;
+
+    @BeforeEach
+    void setUp() {
+        estadisticas = new EstadisticasTops(mongoTemplate, new ReproduccionesPorEspecialidad(mongoTemplate, "java"),
+                new ContadorReproducciones(mongoTemplate, "directo", 16, 0, 60_000), 5, 600_000);
+    }
+
+    @Test
+    void estadisticasGlobales_devuelve_tres_listas() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
+                .thenReturn(List.of(new Contenido()));
+
+        Map<String, Object> res = estadisticas.tops();
+
+        assertTrue(res.containsKey("topReproducciones"));
+        assertTrue(res.containsKey("topValoraciones"));
+        assertTrue(res.containsKey("topCategorias"));
+    }
+
+    @Test
+    void top5PorReproducciones_ok() {
+        Contenido c1 = new Contenido();
+        c1.setId("id1");
+        c1.setTitulo("Uno");
+        c1.setTipo(Contenido.Tipo.AUDIO);
+        c1.setNumReproducciones(10L); // Asegúrate de usar Long
+
+        Contenido c2 = new Contenido();
+        c2.setId("id2");
+        c2.setTitulo("Dos");
+        c2.setTipo(Contenido.Tipo.VIDEO);
+        c2.setNumReproducciones(5L);
+
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
+                .thenReturn(List.of(c1, c2));
+
+        Map<String, Object> res = estadisticas.tops();
+        List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topReproducciones");
+
+        assertEquals("id1", top.get(0).get("id"));
+        assertEquals(10L, top.get(0).get("reproducciones"));
+    }
+
+
+    @Test
+    void top5PorValoraciones_filtra_ratingCount() {
+        Contenido c1 = new Contenido();
+        c1.setId("v1");
+        c1.setTitulo("V1");
+        c1.setTipo(Contenido.Tipo.VIDEO);
+        c1.setRatingCount(2);
+        c1.setRatingAvg(4.0);
+        c1.setRatingBayes(3.58);
+
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(c1));
+
+        Map<String, Object> res = estadisticas.tops();
+        List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topValoraciones");
+
+        assertEquals(1, top.size());
+        assertEquals("v1", top.get(0).get("id"));
+        assertEquals(4.0, top.get(0).get("avg"));
+        assertEquals(3.58, top.get(0).get("bayes"));
+    }
+
+    @Test
+    void topValoraciones_ordena_por_media_bayesiana() {
+        // 5.0 con una sola valoración no supera a 4.6 con cuatrocientas
+        Contenido pocas = valorado("pocas", 5.0, 1);
+        pocas.setRatingBayes((10 * 3.5 + 5.0) / 11);
+        Contenido muchas = valorado("muchas", 4.6, 400);
+        muchas.setRatingBayes((10 * 3.5 + 4.6 * 400) / 410);
+        catalogo(List.of(), List.of(pocas, muchas), List.of(), List.of());
+        estadisticas.reconciliar();
+
+        List<Map<String, Object>> top = (List<Map<String, Object>>) estadisticas.tops().get("topValoraciones");
+        assertEquals(List.of("muchas", "pocas"), top.stream().map(m -> m.get("id")).toList());
+    }
+
+    @Test
+    void top5CategoriasMasVistas_ok() {
+        Contenido c1 = new Contenido();
+        c1.setUserEmail("a@a.com");
+        c1.setEspecialidad("Informatica");
+        c1.setNumReproducciones(10L);
+
+        Contenido c2 = new Contenido();
+        c2.setUserEmail("b@b.com");
+        c2.setEspecialidad("Medicina");
+        c2.setNumReproducciones(20L);
+
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class)))
+                .thenReturn(List.of(c1, c2));
+
+        Map<String, Object> res = estadisticas.tops();
+        List<Map<String, Object>> top = (List<Map<String, Object>>) res.get("topCategorias");
+
+        assertEquals(2, top.size());
+        assertEquals("Medicina", top.get(0).get("especialidad"));
+        assertEquals(20L, top.get(0).get("reproducciones"));
+    }
+
+    // ====================== MANTENIMIENTO INCREMENTAL ======================
+
+    private static Contenido contenido(String id, long reproducciones, String email) {
+        Contenido c = new Contenido();
+        c.setId(id);
+        c.setTitulo(id);
+        c.setTipo(Contenido.Tipo.VIDEO);
+        c.setNumReproducciones(reproducciones);
+        c.setUserEmail(email);
+        if (email != null) c.setEspecialidad(email.startsWith("a") ? "Informatica" : "Medicina");
+        return c;
+    }
+
+    private static Contenido valorado(String id, double avg, int count) {
+        Contenido c = contenido(id, 0, null);
+        c.setRatingAvg(avg);
+        c.setRatingCount(count);
+        c.setRatingBayes(avg);
+        return c;
+    }
+
+    /** Responde a cada consulta según su forma: tops, recorrido completo o contenidos de un volcado. */
+    private void catalogo(List<Contenido> topReproducciones, List<Contenido> topValoraciones,
+                          List<Contenido> todos, List<Contenido> afectados) {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenAnswer(inv -> {
+            Query q = inv.getArgument(0);
+            if (q.getQueryObject().containsKey("_id")) return afectados;
+            if (q.getQueryObject().containsKey("ratingBayes")) return topValoraciones;
+            if (q.getSortObject().containsKey("reproducciones")) return topReproducciones;
+            return todos;
+        });
+    }
+
+    @Test
+    void volcado_actualiza_tops_y_categorias_sin_recalcular() {
+        List<Contenido> top = new ArrayList<>();
+        for (int i = 0; i < 5; i++) top.add(contenido("c" + i, 100 - i, "a@a.com"));
+        List<Contenido> todos = new ArrayList<>(top);
+        todos.add(contenido("nuevo", 1, "b@b.com"));
+        catalogo(top, List.of(), todos, List.of(contenido("nuevo", 500, "b@b.com")));
+        estadisticas.reconciliar();
+
+        estadisticas.reproduccionesAplicadas(Map.of("nuevo", 499L));
+        Map<String, Object> res = estadisticas.tops();
+
+        List<Map<String, Object>> topR = (List<Map<String, Object>>) res.get("topReproducciones");
+        assertEquals("nuevo", topR.get(0).get("id"));
+        assertEquals(500L, topR.get(0).get("reproducciones"));
+        assertEquals(5, topR.size());
+        List<Map<String, Object>> cats = (List<Map<String, Object>>) res.get("topCategorias");
+        assertEquals("Medicina", cats.get(0).get("especialidad"));
+        assertEquals(500L, cats.get(0).get("reproducciones"));
+        assertEquals(490L, cats.get(1).get("reproducciones"));
+        assertNotNull(res.get("actualizadoEn"));
+        // 3 consultas de la reconciliación + 1 del volcado; la especialidad viene en el contenido
+        verify(mongoTemplate, times(4)).find(any(Query.class), eq(Contenido.class));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), anyString());
+    }
+
+    @Test
+    void modo_fragmentado_suma_lo_no_reconciliado() {
+        estadisticas = new EstadisticasTops(mongoTemplate, new ReproduccionesPorEspecialidad(mongoTemplate, "java"),
+                new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 0, 60_000), 5, 600_000);
+        List<Contenido> top = List.of(contenido("a", 100, "a@a.com"), contenido("b", 90, "a@a.com"));
+        catalogo(top, List.of(), top, List.of(contenido("b", 95, "a@a.com")));
+        // "b" tiene 20 reproducciones en fragmentos que aún no se han reconciliado
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION)))
+                .thenReturn(List.of(new Document("_id", "b:0").append("contenidoId", "b").append("n", 20L)));
+        conPendientes("b");
+
+        estadisticas.reconciliar();
+        List<Map<String, Object>> topR = (List<Map<String, Object>>) estadisticas.tops().get("topReproducciones");
+        assertEquals("b", topR.get(0).get("id"));
+        assertEquals(110L, topR.get(0).get("reproducciones"));
+
+        estadisticas.reproduccionesAplicadas(Map.of("b", 5L));
+        topR = (List<Map<String, Object>>) estadisticas.tops().get("topReproducciones");
+        assertEquals(115L, topR.get(0).get("reproducciones"));
+    }
+
+    /** Respuesta de la agregación de ContadorReproducciones.masPendientes. */
+    private void conPendientes(String... ids) {
+        List<Document> filas = new ArrayList<>();
+        for (String id : ids) filas.add(new Document("_id", id));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(ContadorReproducciones.COLECCION), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(filas, new Document()));
+    }
+
+    @Test
+    void modo_fragmentado_un_viral_sin_reconciliar_entra_como_candidato() {
+        estadisticas = new EstadisticasTops(mongoTemplate, new ReproduccionesPorEspecialidad(mongoTemplate, "java"),
+                new ContadorReproducciones(mongoTemplate, "fragmentado", 4, 0, 60_000), 5, 600_000);
+        List<Contenido> top = new ArrayList<>();
+        for (int i = 0; i < 5; i++) top.add(contenido("c" + i, 100 - i, "a@a.com"));
+        // "viral" aún tiene 1 en reproducciones: no sale en la consulta ordenada por ese campo
+        catalogo(top, List.of(), top, List.of(contenido("viral", 1, "a@a.com")));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq(ContadorReproducciones.COLECCION)))
+                .thenReturn(List.of(new Document("_id", "viral:2").append("contenidoId", "viral").append("n", 5000L)));
+        conPendientes("viral");
+
+        estadisticas.reconciliar();
+
+        List<Map<String, Object>> topR = (List<Map<String, Object>>) estadisticas.tops().get("topReproducciones");
+        assertEquals("viral", topR.get(0).get("id"));
+        assertEquals(5001L, topR.get(0).get("reproducciones"));
+        assertEquals(5, topR.size());
+    }
+
+    @Test
+    void valoracion_que_deja_hueco_para_un_excluido_marca_reconciliacion() {
+        List<Contenido> topV = new ArrayList<>();
+        for (int i = 0; i < 6; i++) topV.add(valorado("v" + i, 5.0 - i * 0.1, 10));
+        catalogo(List.of(), topV, List.of(), List.of());
+        estadisticas.reconciliar();
+
+        // v0 sigue siendo mejor que v5 (el excluido): no hace falta reconciliar
+        estadisticas.valoracionAplicada(valorado("v0", 4.8, 11));
+        estadisticas.mantener();
+        verify(mongoTemplate, times(3)).find(any(Query.class), eq(Contenido.class));
+
+        // v1 cae por debajo de v5: v5 debería entrar en el top
+        estadisticas.valoracionAplicada(valorado("v1", 1.0, 11));
+        List<Map<String, Object>> topVal = (List<Map<String, Object>>) estadisticas.tops().get("topValoraciones");
+        assertEquals("v0", topVal.get(0).get("id"));
+        estadisticas.mantener();
+        verify(mongoTemplate, times(6)).find(any(Query.class), eq(Contenido.class));
+    }
+
+    @Test
+    void primera_lectura_usa_la_vista_guardada() {
+        Document guardada = new Document("_id", "tops").append("topReproducciones", List.of())
+                .append("actualizadoEn", 1L);
+        when(mongoTemplate.findById("tops", Document.class, "estadisticas")).thenReturn(guardada);
+
+        Map<String, Object> res = estadisticas.tops();
+
+        assertEquals(1L, res.get("actualizadoEn"));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Contenido.class));
+        // los eventos se ignoran hasta reconciliar: no hay candidatos con los que combinarlos
+        estadisticas.reproduccionesAplicadas(Map.of("x", 1L));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Contenido.class));
+    }
+
+    @Test
+    void reconciliar_guarda_la_vista_y_lecturas_repetidas_no_consultan() {
+        catalogo(List.of(), List.of(), List.of(), List.of());
+        Map<String, Object> a = estadisticas.tops();
+        Map<String, Object> b = estadisticas.tops();
+
+        assertSame(a, b);
+        verify(mongoTemplate).save(any(Document.class), eq("estadisticas"));
+        verify(mongoTemplate, times(3)).find(any(Query.class), eq(Contenido.class));
+        assertTrue((long) a.get("reconciliadoEn") > 0);
+    }
+}
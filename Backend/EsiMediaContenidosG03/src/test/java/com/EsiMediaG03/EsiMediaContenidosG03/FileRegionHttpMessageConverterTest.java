@@ -0,0 +1,78 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.MediaType;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.http.FileRegionHttpMessageConverter;
+
+class FileRegionHttpMessageConverterTest {
+
+    private final FileRegionHttpMessageConverter converter = new FileRegionHttpMessageConverter();
+    private Path file;
+    private byte[] data;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        data = new byte[200_000];
+        for (int i = 0; i < data.length; i++) data[i] = (byte) (i % 251);
+        file = Files.createTempFile("region-", ".bin");
+        Files.write(file, data);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    @DisplayName("Solo escribe FileRegion, nunca lee")
+    void soportaSoloEscrituraDeFileRegion() {
+        assertTrue(converter.canWrite(FileRegion.class, MediaType.parseMediaType("video/mp4")));
+        assertFalse(converter.canRead(FileRegion.class, MediaType.APPLICATION_OCTET_STREAM));
+        assertFalse(converter.canWrite(String.class, MediaType.TEXT_PLAIN));
+    }
+
+    @Test
+    @DisplayName("Rango intermedio mayor que el buffer -> bytes exactos y Content-Length")
+    void escribeRangoIntermedio() throws Exception {
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        converter.write(new FileRegion(file, 70_001, 100_000), MediaType.parseMediaType("video/mp4"), out);
+
+        assertArrayEquals(Arrays.copyOfRange(data, 70_001, 170_001), out.getBodyAsBytes());
+        assertEquals(100_000, out.getHeaders().getContentLength());
+    }
+
+    @Test
+    @DisplayName("Fichero completo")
+    void escribeFicheroCompleto() throws Exception {
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        converter.write(FileRegion.whole(file, data.length), null, out);
+
+        assertArrayEquals(data, out.getBodyAsBytes());
+        assertEquals(MediaType.APPLICATION_OCTET_STREAM, out.getHeaders().getContentType());
+    }
+
+    @Test
+    @DisplayName("Región que excede el fichero -> IOException")
+    void regionFueraDeFichero_lanza() {
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+        assertThrows(IOException.class,
+                () -> converter.write(new FileRegion(file, data.length - 10, 20), null, out));
+    }
+}
@@ -1,5 +1,7 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
+import com.EsiMediaG03.dto.FiltroAcceso;
+import com.EsiMediaG03.dto.ListaHidratada;
 import com.EsiMediaG03.http.ListaPublicaController;
 import com.EsiMediaG03.model.ListaPublica;
 import com.EsiMediaG03.services.ListaPublicaService;
@@ -161,4 +163,57 @@ class ListaPublicaControllerTest {
                 .andExpect(status().isOk())
                 .andExpect(jsonPath("$.nombre").value("Mis Favoritos"));
     }
+
+    @Test
+    @DisplayName("GET /listas/{id}/hidratada -> ventana con el perfil de las cabeceras")
+    void obtenerListaHidratada_ok() throws Exception {
+        ListaHidratada lista = new ListaHidratada("l1", "Mi lista", null, "u@x.com", true, null, 1, 0,
+                List.of(new ListaHidratada.Elemento(0, "c1", null, false, "NO_ENCONTRADO")), null);
+        when(listaService.obtenerListaHidratada("l1", 0, 20, new FiltroAcceso(true, 30))).thenReturn(lista);
+
+        mvc.perform(get("/listas/l1/hidratada").param("limite", "20")
+                        .header("X-User-Vip", "true").header("X-User-Age", "30"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.total").value(1))
+                .andExpect(jsonPath("$.elementos[0].motivo").value("NO_ENCONTRADO"));
+    }
+
+    @Test
+    @DisplayName("POST /listas/{listaId}/contenidos/{contenidoId}?posicion= -> insertar en posición")
+    void insertarContenidoEnLista_ok() throws Exception {
+        ListaPublica lista = new ListaPublica();
+        lista.setContenidosIds(List.of("c1", "c2"));
+        when(listaService.insertarContenidoEnLista("l1", "c1", 0)).thenReturn(lista);
+
+        mvc.perform(post("/listas/l1/contenidos/c1").param("posicion", "0"))
+                .andExpect(status().isOk())
+                .andExpect(jsonPath("$.contenidosIds[0]").value("c1"));
+        verify(listaService, never()).anadirContenidoALista(anyString(), anyString());
+    }
+
+    @Test
+    @DisplayName("PUT /listas/{listaId}/contenidos/{contenidoId}/posicion/{posicion} -> mover")
+    void moverContenidoEnLista_ok() throws Exception {
+        when(listaService.moverContenidoEnLista("l1", "c2", 0)).thenReturn(new ListaPublica());
+
+        mvc.perform(put("/listas/l1/contenidos/c2/posicion/0"))
+                .andExpect(status().isOk());
+        verify(listaService).moverContenidoEnLista("l1", "c2", 0);
+    }
+
+    @Test
+    @DisplayName("POST /listas/{listaId}/contenidos[/eliminar] -> añadir y eliminar en lote")
+    void contenidosEnLote_ok() throws Exception {
+        when(listaService.anadirContenidosALista("l1", List.of("c1", "c2"))).thenReturn(new ListaPublica());
+        when(listaService.eliminarContenidosDeLista("l1", List.of("c1"))).thenReturn(new ListaPublica());
+
+        mvc.perform(post("/listas/l1/contenidos").contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsString(List.of("c1", "c2"))))
+                .andExpect(status().isOk());
+        mvc.perform(post("/listas/l1/contenidos/eliminar").contentType(MediaType.APPLICATION_JSON)
+                        .content(om.writeValueAsString(List.of("c1"))))
+                .andExpect(status().isOk());
+        verify(listaService).anadirContenidosALista("l1", List.of("c1", "c2"));
+        verify(listaService).eliminarContenidosDeLista("l1", List.of("c1"));
+    }
 }
@@ -1,19 +1,37 @@
 package com.EsiMediaG03.EsiMediaContenidosG03;
 
 import com.EsiMediaG03.dao.ListaPublicaDAO;
+import com.EsiMediaG03.dto.FiltroAcceso;
+import com.EsiMediaG03.dto.ListaHidratada;
+import com.EsiMediaG03.dto.TarjetaContenido;
+import com.EsiMediaG03.model.Contenido;
 import com.EsiMediaG03.model.ListaPublica;
+import com.EsiMediaG03.services.ContenidoService;
 import com.EsiMediaG03.services.ListaPublicaService;
+import org.bson.Document;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.core.query.UpdateDefinition;
 
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.*;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.*;
 
 @ExtendWith(MockitoExtension.class)
@@ -75,13 +93,9 @@ class ListaPublicaServiceTest {
     }
 
     @Test
-    @DisplayName("actualizarLista OK -> actualiza campos y guarda")
+    @DisplayName("actualizarLista OK -> un $set que sustituye también contenidosIds si viene")
     void actualizarLista_ok() {
-        ListaPublica original = new ListaPublica();
-        original.setNombre("old");
-        original.setDescripcion("d1");
-        original.setContenidosIds(new ArrayList<>(List.of("c1")));
-        original.setPublica(true);
+        stubFindAndModify();
 
         ListaPublica cambios = new ListaPublica();
         cambios.setNombre("new");
@@ -89,61 +103,235 @@ class ListaPublicaServiceTest {
         cambios.setContenidosIds(new ArrayList<>(List.of("c2", "c3")));
         cambios.setPublica(false);
 
-        when(listaPublicaDAO.findById("L3")).thenReturn(Optional.of(original));
-        when(listaPublicaDAO.save(any(ListaPublica.class))).thenAnswer(i -> i.getArgument(0));
+        service.actualizarLista("L4", cambios);
 
-        ListaPublica res = service.actualizarLista("L3", cambios);
+        Document set = (Document) ultimaActualizacion().get("$set");
+        assertEquals(new Document("nombre", "new").append("descripcion", "d2").append("publica", false)
+                .append("contenidosIds", List.of("c2", "c3")), set);
+        verifyNoInteractions(listaPublicaDAO);
+    }
+
+    @Test
+    @DisplayName("actualizarLista sin contenidosIds -> no toca los contenidos")
+    void actualizarLista_sinContenidos() {
+        stubFindAndModify();
+
+        ListaPublica cambios = new ListaPublica();
+        cambios.setNombre("new");
+
+        ListaPublica res = service.actualizarLista("L4", cambios);
 
-        assertEquals("new", res.getNombre());
-        assertEquals("d2", res.getDescripcion());
-        assertEquals(List.of("c2", "c3"), res.getContenidosIds());
-        assertFalse(res.isPublica());
-        verify(listaPublicaDAO).save(original);
+        assertFalse(((Document) ultimaActualizacion().get("$set")).containsKey("contenidosIds"));
+        assertEquals(List.of("a", "b", "c", "d"), res.getContenidosIds());
     }
 
     @Test
     @DisplayName("actualizarLista NotFound -> lanza RuntimeException")
     void actualizarLista_notFound() {
-        when(listaPublicaDAO.findById("NOPE")).thenReturn(Optional.empty());
+        stubFindAndModify();
 
         RuntimeException ex = assertThrows(RuntimeException.class,
                 () -> service.actualizarLista("NOPE", new ListaPublica()));
         assertTrue(ex.getMessage().contains("Lista no encontrada"));
-        verify(listaPublicaDAO, never()).save(any());
+        verifyNoInteractions(listaPublicaDAO);
+    }
+
+    // ====================== MUTACIONES ATÓMICAS ======================
+
+    private final List<Object> actualizaciones = new ArrayList<>();
+
+    /** findAndModify sobre "L4" con [a, b, c, d]: aplica el pipeline como lo haría Mongo. */
+    private void stubFindAndModify() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(UpdateDefinition.class),
+                any(FindAndModifyOptions.class), eq(ListaPublica.class))).thenAnswer(inv -> {
+                    Query q = inv.getArgument(0);
+                    if (!"L4".equals(q.getQueryObject().get("_id"))) return null;
+                    UpdateDefinition u = inv.getArgument(1);
+                    actualizaciones.add(u);
+                    ListaPublica lista = new ListaPublica();
+                    lista.setContenidosIds(List.of("a", "b", "c", "d"));
+                    if (u instanceof AggregationUpdate au) {
+                        Document doc = new Document("contenidosIds", lista.getContenidosIds());
+                        for (Document etapa : au.toPipeline(Aggregation.DEFAULT_CONTEXT)) {
+                            Document set = (Document) etapa.get("$set");
+                            Object nuevo = evaluar(set.get("contenidosIds"), doc, Map.of());
+                            doc.put("contenidosIds", nuevo);
+                        }
+                        lista.setContenidosIds(doc.getList("contenidosIds", String.class));
+                    }
+                    return lista;
+                });
+    }
+
+    private Document ultimaActualizacion() {
+        return ((Update) actualizaciones.get(actualizaciones.size() - 1)).getUpdateObject();
     }
 
     @Test
-    @DisplayName("anadirContenidoALista -> inicializa lista si null, no duplica y guarda una vez; findById llamado 2 veces")
+    @DisplayName("anadirContenidoALista -> un $addToSet, sin leer ni guardar la lista entera")
     void anadirContenidoALista() {
-        ListaPublica lista = new ListaPublica();
-        lista.setContenidosIds(null);
-        when(listaPublicaDAO.findById("L4")).thenReturn(Optional.of(lista));
-        when(listaPublicaDAO.save(any(ListaPublica.class))).thenAnswer(i -> i.getArgument(0));
-
-        // 1ª llamada: añade y guarda
-        ListaPublica r1 = service.anadirContenidoALista("L4", "c1");
-        assertEquals(List.of("c1"), r1.getContenidosIds());
+        stubFindAndModify();
 
-        // 2ª llamada: duplicado -> no guarda
-        ListaPublica r2 = service.anadirContenidoALista("L4", "c1");
-        assertEquals(List.of("c1"), r2.getContenidosIds());
+        service.anadirContenidoALista("L4", "c1");
 
-        verify(listaPublicaDAO, times(2)).findById("L4"); // se llama dos veces
-        verify(listaPublicaDAO, times(1)).save(lista);    // solo guarda la primera
-        verifyNoMoreInteractions(listaPublicaDAO);
+        assertEquals(new Document("contenidosIds", "c1"), ultimaActualizacion().get("$addToSet"));
+        verifyNoInteractions(listaPublicaDAO);
     }
 
     @Test
-    @DisplayName("eliminarContenidoDeLista -> elimina si existe y guarda")
+    @DisplayName("eliminarContenidoDeLista -> un $pull; lista inexistente lanza")
     void eliminarContenidoDeLista() {
-        ListaPublica lista = new ListaPublica();
-        lista.setContenidosIds(new ArrayList<>(List.of("c1", "c2")));
-        when(listaPublicaDAO.findById("L5")).thenReturn(Optional.of(lista));
-        when(listaPublicaDAO.save(any(ListaPublica.class))).thenAnswer(i -> i.getArgument(0));
+        stubFindAndModify();
+
+        service.eliminarContenidoDeLista("L4", "c1");
+        assertEquals(new Document("contenidosIds", "c1"), ultimaActualizacion().get("$pull"));
+
+        RuntimeException ex = assertThrows(RuntimeException.class,
+                () -> service.eliminarContenidoDeLista("NOPE", "c1"));
+        assertTrue(ex.getMessage().contains("Lista no encontrada"));
+        verifyNoInteractions(listaPublicaDAO);
+    }
+
+    @Test
+    @DisplayName("añadir/eliminar en lote -> $addToSet con $each y $pullAll")
+    void contenidosEnLote() {
+        stubFindAndModify();
+
+        service.anadirContenidosALista("L4", List.of("x", "y"));
+        Document add = (Document) ultimaActualizacion().get("$addToSet");
+        Update.Modifier each = (Update.Modifier) add.get("contenidosIds");
+        assertEquals("$each", each.getKey());
+        assertArrayEquals(new Object[] {"x", "y"}, (Object[]) each.getValue());
+
+        service.eliminarContenidosDeLista("L4", List.of("a", "b"));
+        Document pull = (Document) ultimaActualizacion().get("$pullAll");
+        assertEquals(List.of("a", "b"), pull.get("contenidosIds"));
+    }
+
+    @Test
+    @DisplayName("insertarContenidoEnLista -> inserta en la posición; si ya estaba no cambia")
+    void insertarContenidoEnLista() {
+        stubFindAndModify();
+
+        assertEquals(List.of("a", "x", "b", "c", "d"), service.insertarContenidoEnLista("L4", "x", 1).getContenidosIds());
+        assertEquals(List.of("x", "a", "b", "c", "d"), service.insertarContenidoEnLista("L4", "x", 0).getContenidosIds());
+        assertEquals(List.of("a", "b", "c", "d", "x"), service.insertarContenidoEnLista("L4", "x", 99).getContenidosIds());
+        assertEquals(List.of("a", "b", "c", "d"), service.insertarContenidoEnLista("L4", "b", 0).getContenidosIds());
+        assertEquals(List.of("a", "$b", "b", "c", "d"), service.insertarContenidoEnLista("L4", "$b", 1).getContenidosIds());
+    }
+
+    @Test
+    @DisplayName("moverContenidoEnLista -> mueve en el servidor; si no estaba no cambia")
+    void moverContenidoEnLista() {
+        stubFindAndModify();
+
+        assertEquals(List.of("a", "d", "b", "c"), service.moverContenidoEnLista("L4", "d", 1).getContenidosIds());
+        assertEquals(List.of("b", "c", "d", "a"), service.moverContenidoEnLista("L4", "a", 3).getContenidosIds());
+        assertEquals(List.of("a", "c", "d", "b"), service.moverContenidoEnLista("L4", "b", 99).getContenidosIds());
+        assertEquals(List.of("a", "b", "c", "d"), service.moverContenidoEnLista("L4", "x", 0).getContenidosIds());
+        verifyNoInteractions(listaPublicaDAO);
+    }
+
+    /** Evaluador mínimo de las expresiones que usan las colocaciones. */
+    private static Object evaluar(Object expr, Document doc, Map<String, Object> vars) {
+        if (expr instanceof String s && s.startsWith("$$")) return vars.get(s.substring(2));
+        if (expr instanceof String s && s.startsWith("$")) return doc.get(s.substring(1));
+        if (expr instanceof List<?> l) return l.stream().map(a -> evaluar(a, doc, vars)).toList();
+        if (!(expr instanceof Document d)) return expr;
+        Map.Entry<String, Object> op = d.entrySet().iterator().next();
+        if (op.getKey().equals("$literal")) return op.getValue();
+        if (op.getKey().equals("$filter")) {
+            Document f = (Document) op.getValue();
+            String as = f.getString("as");
+            return ((List<?>) evaluar(f.get("input"), doc, vars)).stream().filter(x -> {
+                Map<String, Object> ambito = new HashMap<>(vars);
+                ambito.put(as, x);
+                return Boolean.TRUE.equals(evaluar(f.get("cond"), doc, ambito));
+            }).toList();
+        }
+        List<?> args = op.getValue() instanceof List<?> l
+                ? (List<?>) evaluar(l, doc, vars) : List.of(evaluar(op.getValue(), doc, vars));
+        return switch (op.getKey()) {
+            case "$ifNull" -> args.get(0) != null ? args.get(0) : args.get(1);
+            case "$ne" -> !Objects.equals(args.get(0), args.get(1));
+            case "$in" -> ((List<?>) args.get(1)).contains(args.get(0));
+            case "$cond" -> Boolean.TRUE.equals(args.get(0)) ? args.get(1) : args.get(2);
+            case "$size" -> ((List<?>) args.get(0)).size();
+            case "$add" -> args.stream().mapToInt(a -> ((Number) a).intValue()).sum();
+            case "$slice" -> {
+                List<?> arr = (List<?>) args.get(0);
+                int desde = args.size() == 2 ? 0 : Math.min(((Number) args.get(1)).intValue(), arr.size());
+                int n = ((Number) args.get(args.size() - 1)).intValue();
+                yield arr.subList(desde, Math.min(arr.size(), desde + n));
+            }
+            case "$concatArrays" -> args.stream().flatMap(a -> ((List<?>) a).stream()).toList();
+            default -> throw new IllegalArgumentException("Operador no soportado: " + op.getKey());
+        };
+    }
+
+    // ====================== LISTA HIDRATADA ======================
+
+    @Mock
+    MongoTemplate mongoTemplate;
+
+    @Mock
+    ContenidoService contenidoService;
+
+    private static TarjetaContenido tarjeta(String id, boolean vip) {
+        Contenido c = new Contenido();
+        c.setId(id);
+        c.setTitulo("T" + id);
+        c.setVisible(true);
+        c.setVip(vip);
+        return TarjetaContenido.de(c);
+    }
+
+    @Test
+    @DisplayName("obtenerListaHidratada -> una lectura de la ventana y un lote de tarjetas")
+    void obtenerListaHidratada() {
+        Document lista = new Document("nombre", "Mi lista").append("publica", true)
+                .append("total", 7).append("contenidosIds", List.of("c2", "c3", "c4"));
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(ListaPublica.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(lista), new Document()));
+        Map<String, TarjetaContenido> tarjetas = new LinkedHashMap<>();
+        tarjetas.put("c2", tarjeta("c2", true));
+        tarjetas.put("c3", tarjeta("c3", false));
+        when(contenidoService.tarjetasPorId(List.of("c2", "c3", "c4"), ListaPublicaService.MAX_VENTANA_LISTA))
+                .thenReturn(tarjetas);
+
+        ListaHidratada res = service.obtenerListaHidratada("L1", 2, 3, new FiltroAcceso(false, null));
+
+        assertEquals(7, res.total());
+        assertEquals(5, res.siguiente());
+        List<ListaHidratada.Elemento> el = res.elementos();
+        assertEquals(List.of(2, 3, 4), el.stream().map(ListaHidratada.Elemento::posicion).toList());
+        assertEquals("VIP", el.get(0).motivo());
+        assertFalse(el.get(0).reproducible());
+        assertTrue(el.get(1).reproducible());
+        assertNull(el.get(2).tarjeta());
+        assertEquals("NO_ENCONTRADO", el.get(2).motivo());
+
+        ArgumentCaptor<Aggregation> agg = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(agg.capture(), eq(ListaPublica.class), eq(Document.class));
+        Document project = (Document) agg.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(1).get("$project");
+        assertEquals(List.of(2, 3), ((List<?>) ((Document) project.get("contenidosIds")).get("$slice")).subList(1, 3));
+        verifyNoInteractions(listaPublicaDAO);
+    }
+
+    @Test
+    @DisplayName("obtenerListaHidratada -> última ventana sin siguiente y lista inexistente lanza")
+    void obtenerListaHidratada_limites() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(ListaPublica.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(new Document("total", 1)
+                        .append("contenidosIds", List.of("c1"))), new Document()))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        when(contenidoService.tarjetasPorId(anyList(), anyInt())).thenReturn(Map.of("c1", tarjeta("c1", false)));
 
-        ListaPublica res = service.eliminarContenidoDeLista("L5", "c1");
+        ListaHidratada res = service.obtenerListaHidratada("L1", 0, 50, new FiltroAcceso(false, null));
+        assertNull(res.siguiente());
+        assertTrue(res.elementos().get(0).reproducible());
 
-        assertEquals(List.of("c2"), res.getContenidosIds());
-        verify(listaPublicaDAO).save(lista);
+        assertThrows(RuntimeException.class,
+                () -> service.obtenerListaHidratada("nope", 0, 50, new FiltroAcceso(false, null)));
     }
 }
@@ -0,0 +1,85 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.EsiMediaG03.services.MasReproducidosAhora;
+
+@ExtendWith(MockitoExtension.class)
+class MasReproducidosAhoraTest {
+
+    private static final long HORA = 3_600_000L;
+
+    @Mock MongoTemplate mongoTemplate;
+
+    @Test
+    void memoria_fija_y_los_frecuentes_sobreviven_a_la_cola_larga() {
+        MasReproducidosAhora sketch = new MasReproducidosAhora(mongoTemplate, 20, HORA);
+        Random rnd = new Random(7);
+        for (int i = 0; i < 20_000; i++) {
+            // tres contenidos muy vistos entre 5.000 que se ven una o dos veces
+            if (i % 4 == 0) sketch.registrar("hit" + (i % 3));
+            else sketch.registrar("cola" + rnd.nextInt(5_000));
+        }
+
+        long ahora = System.currentTimeMillis();
+        List<Map<String, Object>> todos = sketch.top(1_000, ahora);
+        assertEquals(20, todos.size());
+        List<Map<String, Object>> top = sketch.top(3, ahora);
+        assertEquals(List.of("hit0", "hit1", "hit2"),
+                top.stream().map(m -> m.get("id")).sorted().toList());
+        for (Map<String, Object> m : top) {
+            double estimado = (double) m.get("reproducciones");
+            double minimo = (double) m.get("minimo");
+            // las cuentas reales son ~1.667 cada uno, dentro de [minimo, estimado]
+            assertTrue(minimo <= 1_667.0 * 1.01 && estimado >= 1_666.0 * 0.99, m.toString());
+            assertEquals(true, m.get("garantizado"));
+        }
+    }
+
+    @Test
+    void las_cuentas_se_reducen_a_la_mitad_cada_semivida() {
+        MasReproducidosAhora sketch = new MasReproducidosAhora(mongoTemplate, 10, HORA);
+        for (int i = 0; i < 8; i++) sketch.registrar("A");
+        long ahora = System.currentTimeMillis();
+        sketch.top(1, ahora);
+
+        assertEquals(4.0, (double) sketch.top(1, ahora + HORA).get(0).get("reproducciones"), 1e-6);
+    }
+
+    @Test
+    void se_guarda_y_se_restaura() {
+        MasReproducidosAhora sketch = new MasReproducidosAhora(mongoTemplate, 10, Long.MAX_VALUE);
+        sketch.registrar("A");
+        sketch.registrar("A");
+        sketch.registrar("B");
+        sketch.guardar();
+
+        ArgumentCaptor<Document> d = ArgumentCaptor.forClass(Document.class);
+        verify(mongoTemplate).save(d.capture(), eq("estadisticas"));
+        assertEquals("mas-reproducidos-ahora", d.getValue().get("_id"));
+
+        when(mongoTemplate.findById("mas-reproducidos-ahora", Document.class, "estadisticas")).thenReturn(d.getValue());
+        MasReproducidosAhora otro = new MasReproducidosAhora(mongoTemplate, 10, Long.MAX_VALUE);
+        otro.restaurar();
+
+        List<Map<String, Object>> top = otro.top(5);
+        assertEquals(List.of("A", "B"), top.stream().map(m -> m.get("id")).toList());
+        assertEquals(2.0, (double) top.get(0).get("reproducciones"), 1e-6);
+    }
+}
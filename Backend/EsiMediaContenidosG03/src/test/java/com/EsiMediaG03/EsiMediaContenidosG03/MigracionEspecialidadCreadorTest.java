@@ -0,0 +1,66 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.List;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.services.MigracionEspecialidadCreador;
+
+@ExtendWith(MockitoExtension.class)
+class MigracionEspecialidadCreadorTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations bulk;
+
+    @Test
+    void un_updateMulti_por_creador_en_lotes() {
+        when(mongoTemplate.findDistinct(any(Query.class), eq("userEmail"), eq("contenidos"), eq(String.class)))
+                .thenReturn(List.of("a@esi.com", "b@esi.com", "c@esi.com"));
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), eq("users"))).thenReturn(
+                List.of(new Document("email", "a@esi.com").append("especialidad", "Medicina").append("alias", "a"),
+                        new Document("email", "b@esi.com")),
+                List.of());
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "contenidos")).thenReturn(bulk);
+
+        MigracionEspecialidadCreador migracion = new MigracionEspecialidadCreador(mongoTemplate, true, 2);
+        assertEquals(2L, migracion.migrar());
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(bulk, times(2)).updateMulti(qs.capture(), us.capture());
+        assertEquals("a@esi.com", qs.getAllValues().get(0).getQueryObject().get("userEmail"));
+        Document set = (Document) us.getAllValues().get(0).getUpdateObject().get("$set");
+        assertEquals("Medicina", set.get("especialidad"));
+        assertEquals("a", set.get("creadorAlias"));
+        // el segundo lote (c@esi.com) no tiene usuario: no se escribe nada
+        verify(mongoTemplate, times(2)).find(any(Query.class), eq(Document.class), eq("users"));
+        verify(bulk, times(1)).execute();
+    }
+
+    @Test
+    void no_repite_si_ya_hay_marca() {
+        when(mongoTemplate.exists(any(Query.class), eq("migraciones"))).thenReturn(true);
+
+        new MigracionEspecialidadCreador(mongoTemplate, true, 500).migrarSiPendiente();
+
+        verify(mongoTemplate, never()).findDistinct(any(Query.class), anyString(), anyString(), eq(String.class));
+        verify(mongoTemplate, never()).save(any(Document.class), anyString());
+    }
+}
@@ -0,0 +1,67 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.Date;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.EsiMediaG03.services.MigracionFechaEstado;
+import com.mongodb.client.result.UpdateResult;
+
+@ExtendWith(MockitoExtension.class)
+class MigracionFechaEstadoTest {
+
+    @Mock MongoTemplate mongoTemplate;
+
+    @Test
+    void rellena_fecha_estado_desde_el_object_id() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(AggregationUpdate.class), eq("contenidos")))
+                .thenReturn(UpdateResult.acknowledged(3, 3L, null));
+
+        assertEquals(3L, new MigracionFechaEstado(mongoTemplate, true).migrar());
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<AggregationUpdate> u = ArgumentCaptor.forClass(AggregationUpdate.class);
+        verify(mongoTemplate).updateMulti(q.capture(), u.capture(), eq("contenidos"));
+        assertEquals(new Document("fechaEstado", null), q.getValue().getQueryObject());
+        Document set = (Document) u.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$set");
+        Document convert = (Document) ((Document) set.get("fechaEstado")).get("$convert");
+        assertEquals("$_id", convert.get("input"));
+        assertEquals("date", convert.get("to"));
+        assertEquals(new Date(0), convert.get("onError"));
+    }
+
+    @Test
+    void no_se_repite_si_ya_consta_como_hecha() {
+        when(mongoTemplate.exists(any(Query.class), eq("migraciones"))).thenReturn(true);
+
+        new MigracionFechaEstado(mongoTemplate, true).migrarSiPendiente();
+
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(AggregationUpdate.class), anyString());
+    }
+
+    @Test
+    void deja_marca_al_terminar() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(AggregationUpdate.class), eq("contenidos")))
+                .thenReturn(UpdateResult.acknowledged(0, 0L, null));
+
+        new MigracionFechaEstado(mongoTemplate, true).migrarSiPendiente();
+
+        verify(mongoTemplate).save(any(Document.class), eq("migraciones"));
+    }
+}
@@ -0,0 +1,88 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.List;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoReproductor;
+import com.EsiMediaG03.services.MigracionHistogramaValoraciones;
+
+@ExtendWith(MockitoExtension.class)
+class MigracionHistogramaValoracionesTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations bulk;
+
+    private MigracionHistogramaValoraciones migracion() {
+        return new MigracionHistogramaValoraciones(mongoTemplate, null, true, 3.5, 10, 500);
+    }
+
+    @Test
+    void reconstruye_histograma_y_medias_desde_las_relaciones() {
+        when(mongoTemplate.aggregateStream(any(Aggregation.class), eq(ContenidoReproductor.class), eq(Document.class)))
+                .thenReturn(Stream.of(new Document("_id", "C1").append("cubetas", List.of(
+                        new Document("p", 5.0).append("n", 3),
+                        new Document("p", 0.5).append("n", 1)))));
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, Contenido.class)).thenReturn(bulk);
+
+        assertEquals(1L, migracion().migrar());
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(bulk).updateOne(q.capture(), u.capture());
+        assertEquals("C1", q.getValue().getQueryObject().get("_id"));
+        Document set = (Document) u.getValue().getUpdateObject().get("$set");
+        assertEquals(List.of(1, 0, 0, 0, 0, 0, 0, 0, 0, 3), set.get("ratingHistograma"));
+        assertEquals(15.5, set.get("ratingSuma"));
+        assertEquals(4, set.get("ratingCount"));
+        assertEquals(15.5 / 4, set.get("ratingAvg"));
+        assertEquals((35 + 15.5) / 14, (double) set.get("ratingBayes"), 1e-9);
+        verify(bulk).execute();
+    }
+
+    @Test
+    void si_cambia_el_prior_solo_recalcula_la_media_bayesiana() {
+        when(mongoTemplate.findById("histograma-valoraciones", Document.class, "migraciones"))
+                .thenReturn(new Document("_id", "histograma-valoraciones").append("media", 3.0).append("peso", 10.0));
+
+        migracion().migrarSiPendiente();
+
+        ArgumentCaptor<AggregationUpdate> u = ArgumentCaptor.forClass(AggregationUpdate.class);
+        verify(mongoTemplate).updateMulti(any(Query.class), u.capture(), eq("contenidos"));
+        Document set = (Document) u.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT).get(0).get("$set");
+        assertEquals(List.of("ratingBayes"), List.copyOf(set.keySet()));
+        verify(mongoTemplate, never()).aggregateStream(any(Aggregation.class), any(Class.class), any(Class.class));
+        verify(mongoTemplate).save(any(Document.class), eq("migraciones"));
+    }
+
+    @Test
+    void no_hace_nada_si_la_marca_coincide() {
+        when(mongoTemplate.findById("histograma-valoraciones", Document.class, "migraciones"))
+                .thenReturn(new Document("_id", "histograma-valoraciones").append("media", 3.5).append("peso", 10.0));
+
+        migracion().migrarSiPendiente();
+
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(AggregationUpdate.class), anyString());
+        verify(mongoTemplate, never()).save(any(Document.class), anyString());
+    }
+}
@@ -0,0 +1,173 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.ContenidoFavorito;
+import com.EsiMediaG03.model.ContenidoReproductor;
+import com.EsiMediaG03.services.MigracionRelacionesContenido;
+
+@ExtendWith(MockitoExtension.class)
+class MigracionRelacionesContenidoTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations reproductores;
+    @Mock BulkOperations favoritos;
+    @Mock BulkOperations limpieza;
+
+    private void stubBulks() {
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContenidoReproductor.class)).thenReturn(reproductores);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ContenidoFavorito.class)).thenReturn(favoritos);
+        when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, "contenidos")).thenReturn(limpieza);
+    }
+
+    @Test
+    void migra_relaciones_embebidas_y_limpia_los_contenidos() {
+        stubBulks();
+        Document c1 = new Document("_id", "C1")
+                .append("reproductores", List.of("a@esi.com", "b@esi.com"))
+                .append("favoritosDeUsuarios", List.of("a@esi.com"))
+                .append("ratings", Map.of("a@esi%2Ecom", 4.5));
+        Document c2 = new Document("_id", "C2").append("reproductores", List.of());
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(c1, c2));
+
+        MigracionRelacionesContenido migracion = new MigracionRelacionesContenido(mongoTemplate, null, true, 1000);
+        assertEquals(2L, migracion.migrar());
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(reproductores, times(3)).upsert(qs.capture(), us.capture());
+        Update valoracion = us.getAllValues().get(2);
+        assertEquals("a@esi.com", qs.getAllValues().get(2).getQueryObject().get("userEmail"));
+        assertEquals(4.5, ((Document) valoracion.getUpdateObject().get("$set")).get("puntuacion"));
+        verify(favoritos, times(1)).upsert(any(Query.class), any(Update.class));
+        verify(limpieza, times(2)).updateOne(any(Query.class), any(Update.class));
+        verify(reproductores).execute();
+        verify(favoritos).execute();
+        verify(limpieza).execute();
+    }
+
+    @Test
+    void escribe_por_lotes() {
+        stubBulks();
+        Document c1 = new Document("_id", "C1").append("reproductores", List.of("a@esi.com", "b@esi.com"));
+        Document c2 = new Document("_id", "C2").append("reproductores", List.of("c@esi.com"));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(c1, c2));
+
+        new MigracionRelacionesContenido(mongoTemplate, null, true, 3).migrar();
+
+        verify(reproductores, times(2)).execute();
+        verify(limpieza, times(2)).execute();
+    }
+
+    @Test
+    void no_se_repite_si_ya_consta_como_hecha() {
+        when(mongoTemplate.exists(any(Query.class), eq("migraciones"))).thenReturn(true);
+
+        new MigracionRelacionesContenido(mongoTemplate, null, true, 1000).migrarSiPendiente();
+
+        verify(mongoTemplate, never()).stream(any(Query.class), eq(Document.class), anyString());
+    }
+
+    private void stubColecciones(Stream<Document> reproductores, Stream<Document> favoritos) {
+        when(mongoTemplate.getCollectionName(ContenidoReproductor.class)).thenReturn("contenidos_reproductores");
+        when(mongoTemplate.getCollectionName(ContenidoFavorito.class)).thenReturn("contenidos_favoritos");
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos_reproductores"))).thenReturn(reproductores);
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos_favoritos"))).thenReturn(favoritos);
+    }
+
+    @Test
+    void guarda_los_emails_en_minusculas() {
+        stubBulks();
+        Document c1 = new Document("_id", "C1")
+                .append("reproductores", List.of("Ana@Esi.com"))
+                .append("favoritosDeUsuarios", List.of("ANA@esi.com"));
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.of(c1));
+
+        new MigracionRelacionesContenido(mongoTemplate, null, true, 1000).migrar();
+
+        ArgumentCaptor<Query> r = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Query> f = ArgumentCaptor.forClass(Query.class);
+        verify(reproductores).upsert(r.capture(), any(Update.class));
+        verify(favoritos).upsert(f.capture(), any(Update.class));
+        assertEquals("ana@esi.com", r.getValue().getQueryObject().get("userEmail"));
+        assertEquals("ana@esi.com", f.getValue().getQueryObject().get("userEmail"));
+    }
+
+    @Test
+    void deja_marca_al_terminar() {
+        when(mongoTemplate.exists(any(Query.class), eq("migraciones"))).thenReturn(false);
+        when(mongoTemplate.stream(any(Query.class), eq(Document.class), eq("contenidos"))).thenReturn(Stream.empty());
+        stubColecciones(Stream.empty(), Stream.empty());
+        stubBulks();
+
+        new MigracionRelacionesContenido(mongoTemplate, null, true, 1000).migrarSiPendiente();
+
+        verify(mongoTemplate, times(2)).save(any(Document.class), eq("migraciones"));
+        verify(limpieza, never()).execute();
+        verify(mongoTemplate, never()).remove(any(Query.class), eq("migraciones"));
+    }
+
+    @Test
+    void normaliza_emails_y_funde_relaciones_duplicadas() {
+        when(mongoTemplate.exists(any(Query.class), eq("migraciones")))
+                .thenAnswer(inv -> "relaciones-contenido".equals(((Query) inv.getArgument(0)).getQueryObject().get("_id")));
+        Date antes = new Date(1_000);
+        Date despues = new Date(2_000);
+        Document sinCanonica = new Document("_id", "R1").append("contenidoId", "C1").append("userEmail", "Bea@esi.com");
+        Document duplicada = new Document("_id", "R2").append("contenidoId", "C1").append("userEmail", "Ana@esi.com")
+                .append("fecha", antes).append("puntuacion", 4.0);
+        Document canonica = new Document("_id", "R3").append("contenidoId", "C1").append("userEmail", "ana@esi.com")
+                .append("fecha", despues).append("puntuacion", 2.0);
+        stubColecciones(Stream.of(sinCanonica, duplicada), Stream.empty());
+        when(mongoTemplate.findOne(any(Query.class), eq(Document.class), eq("contenidos_reproductores")))
+                .thenAnswer(inv -> "ana@esi.com".equals(((Query) inv.getArgument(0)).getQueryObject().get("userEmail"))
+                        ? canonica : null);
+
+        new MigracionRelacionesContenido(mongoTemplate, null, true, 1000).migrarSiPendiente();
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate, times(2)).updateFirst(qs.capture(), us.capture(), eq("contenidos_reproductores"));
+        assertEquals("R1", qs.getAllValues().get(0).getQueryObject().get("_id"));
+        assertEquals("bea@esi.com", ((Document) us.getAllValues().get(0).getUpdateObject().get("$set")).get("userEmail"));
+        assertEquals("R3", qs.getAllValues().get(1).getQueryObject().get("_id"));
+        Document fusion = (Document) us.getAllValues().get(1).getUpdateObject().get("$set");
+        assertEquals(antes, fusion.get("fecha"));
+        assertEquals(null, fusion.get("puntuacion"));
+
+        ArgumentCaptor<Query> borrada = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(borrada.capture(), eq("contenidos_reproductores"));
+        assertEquals("R2", borrada.getValue().getQueryObject().get("_id"));
+        // había dos valoraciones contando en el agregado: se fuerza la reconstrucción del histograma
+        verify(mongoTemplate).remove(any(Query.class), eq("migraciones"));
+        verify(mongoTemplate).save(any(Document.class), eq("migraciones"));
+    }
+
+    @Test
+    void deshabilitada_no_toca_la_base_de_datos() {
+        new MigracionRelacionesContenido(mongoTemplate, null, false, 1000).migrarSiPendiente();
+        verify(mongoTemplate, never()).exists(any(Query.class), anyString());
+    }
+}
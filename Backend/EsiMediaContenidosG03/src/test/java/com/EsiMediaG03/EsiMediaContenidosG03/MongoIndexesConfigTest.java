@@ -0,0 +1,141 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.index.IndexDefinition;
+import org.springframework.data.mongodb.core.index.IndexField;
+import org.springframework.data.mongodb.core.index.IndexInfo;
+import org.springframework.data.mongodb.core.index.IndexOperations;
+
+import com.EsiMediaG03.config.ConsultaVigilada;
+import com.EsiMediaG03.config.IndiceDeclarado;
+import com.EsiMediaG03.config.IndicesContenidos;
+import com.EsiMediaG03.config.MongoIndexesConfig;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ListaPublica;
+import com.mongodb.client.MongoDatabase;
+
+class MongoIndexesConfigTest {
+
+    private final MongoTemplate template = mock(MongoTemplate.class);
+    private final IndexOperations ops = mock(IndexOperations.class);
+    private final MongoDatabase db = mock(MongoDatabase.class);
+
+    private final IndiceDeclarado porFecha = IndiceDeclarado.de(Contenido.class,
+            new Document("fechaEstado", -1).append("_id", -1), "catálogo");
+    private final IndiceDeclarado porPublica = IndiceDeclarado.de(ListaPublica.class,
+            new Document("publica", 1), "listas");
+
+    @BeforeEach
+    void setUp() {
+        when(template.indexOps(any(Class.class))).thenReturn(ops);
+        when(template.indexOps(anyString())).thenReturn(ops);
+        when(template.getCollectionName(Contenido.class)).thenReturn("contenidos");
+        when(template.getCollectionName(ListaPublica.class)).thenReturn("listas");
+        when(template.getDb()).thenReturn(db);
+    }
+
+    private MongoIndexesConfig config(List<ConsultaVigilada> consultas) {
+        IndicesContenidos registro = mock(IndicesContenidos.class);
+        when(registro.indices()).thenReturn(List.of(porFecha, porPublica));
+        when(registro.consultas()).thenReturn(consultas);
+        return new MongoIndexesConfig(template, registro, false);
+    }
+
+    @Test
+    void nombre_es_el_que_genera_mongo() {
+        assertEquals("fechaEstado_-1__id_-1", porFecha.nombre());
+        assertEquals("contenidoId_1_userEmail_1", IndiceDeclarado.unico(Contenido.class,
+                new Document("contenidoId", 1).append("userEmail", 1), "").nombre());
+    }
+
+    @Test
+    void crea_todos_y_un_fallo_no_impide_los_demas() {
+        when(ops.createIndex(any(IndexDefinition.class)))
+                .thenThrow(new DataIntegrityViolationException("IndexOptionsConflict"))
+                .thenReturn("publica_1");
+
+        MongoIndexesConfig cfg = config(List.of());
+        cfg.ensureIndexes();
+
+        verify(ops, times(2)).createIndex(any(IndexDefinition.class));
+        when(ops.getIndexInfo()).thenReturn(List.of());
+        assertEquals(Map.of("contenidos.fechaEstado_-1__id_-1", "IndexOptionsConflict"),
+                cfg.informe().get("fallosCreacion"));
+    }
+
+    @Test
+    void deriva_detecta_faltan_distintos_y_sobrantes() {
+        IndexInfo id = new IndexInfo(List.of(IndexField.create("_id", Sort.Direction.ASC)), "_id_", false, false, "");
+        IndexInfo distinto = new IndexInfo(List.of(IndexField.create("fechaEstado", Sort.Direction.ASC)),
+                "fechaEstado_-1__id_-1", false, false, "");
+        IndexInfo viejo = new IndexInfo(List.of(IndexField.create("titulo", Sort.Direction.ASC)),
+                "titulo_1", false, false, "");
+        when(ops.getIndexInfo()).thenReturn(List.of(id, distinto, viejo), List.of(id));
+
+        Map<String, Object> deriva = config(List.of()).deriva();
+
+        assertEquals(Map.of("distintos", List.of("fechaEstado_-1__id_-1"), "sobrantes", List.of("titulo_1")),
+                deriva.get("contenidos"));
+        assertEquals(Map.of("faltan", List.of("publica_1")), deriva.get("listas"));
+    }
+
+    @Test
+    void sin_deriva_si_coinciden() {
+        IndexInfo fecha = new IndexInfo(List.of(IndexField.create("fechaEstado", Sort.Direction.DESC),
+                IndexField.create("_id", Sort.Direction.DESC)), "fechaEstado_-1__id_-1", false, false, "");
+        IndexInfo publica = new IndexInfo(List.of(IndexField.create("publica", Sort.Direction.ASC)),
+                "publica_1", false, false, "");
+        when(ops.getIndexInfo()).thenReturn(List.of(fecha), List.of(publica));
+
+        assertTrue(config(List.of()).deriva().isEmpty());
+    }
+
+    @Test
+    void explain_detecta_collscan() {
+        Document ixscan = new Document("queryPlanner", new Document("winningPlan",
+                new Document("stage", "LIMIT").append("inputStage",
+                        new Document("stage", "FETCH").append("inputStage", new Document("stage", "IXSCAN")))));
+        // formato de planes SBE: el plan va dentro de queryPlan
+        Document collscan = new Document("queryPlanner", new Document("winningPlan",
+                new Document("queryPlan", new Document("stage", "SORT").append("inputStage",
+                        new Document("stage", "COLLSCAN")))));
+        when(db.runCommand(any(Document.class))).thenReturn(ixscan, collscan);
+
+        List<String> scans = config(List.of(
+                new ConsultaVigilada("catalogo", Contenido.class, new Document(), new Document("fechaEstado", -1)),
+                new ConsultaVigilada("listasPublicas", ListaPublica.class, new Document("publica", true), null)))
+                .consultasConCollscan();
+
+        assertEquals(List.of("listasPublicas"), scans);
+    }
+
+    @Test
+    void cada_consulta_vigilada_tiene_un_indice_declarado() {
+        IndicesContenidos registro = new IndicesContenidos();
+        for (ConsultaVigilada c : registro.consultas()) {
+            boolean cubierta = registro.indices().stream().anyMatch(i -> i.entidad() == c.entidad()
+                    && (c.filtro().containsKey(i.claves().keySet().iterator().next())
+                        || (c.orden() != null && c.orden().containsKey(i.claves().keySet().iterator().next()))));
+            assertTrue(cubierta, c.nombre());
+        }
+        assertFalse(MongoIndexesConfig.contieneEtapa(new Document("stage", "IXSCAN"), "COLLSCAN"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.mock.http.MockHttpOutputMessage;
+
+import com.EsiMediaG03.dto.FileRegion;
+import com.EsiMediaG03.dto.MultipartFileRegions;
+import com.EsiMediaG03.http.MultipartFileRegionsHttpMessageConverter;
+
+class MultipartFileRegionsHttpMessageConverterTest {
+
+    private final MultipartFileRegionsHttpMessageConverter converter = new MultipartFileRegionsHttpMessageConverter();
+    private Path file;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        file = Files.createTempFile("multi-", ".mp4");
+        Files.writeString(file, "abcdefghijklmnopqrstuvwxyz", StandardCharsets.US_ASCII);
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(file);
+    }
+
+    @Test
+    @DisplayName("Escribe cada parte con sus cabeceras y el delimitador final; Content-Length exacto")
+    void escribeMultipartByteranges() throws Exception {
+        MultipartFileRegions body = new MultipartFileRegions(file, 26, "video/mp4", "LIMITE",
+                List.of(new FileRegion(file, 0, 3), new FileRegion(file, 23, 3)));
+        MockHttpOutputMessage out = new MockHttpOutputMessage();
+
+        converter.write(body, null, out);
+
+        String expected = "\r\n--LIMITE\r\nContent-Type: video/mp4\r\nContent-Range: bytes 0-2/26\r\n\r\nabc"
+                + "\r\n--LIMITE\r\nContent-Type: video/mp4\r\nContent-Range: bytes 23-25/26\r\n\r\nxyz"
+                + "\r\n--LIMITE--\r\n";
+        assertEquals(expected, out.getBodyAsString(StandardCharsets.US_ASCII));
+        assertEquals(expected.length(), out.getHeaders().getContentLength());
+        assertEquals(expected.length(), body.contentLength());
+        assertTrue(out.getHeaders().getContentType().toString().startsWith("multipart/byteranges"));
+    }
+}
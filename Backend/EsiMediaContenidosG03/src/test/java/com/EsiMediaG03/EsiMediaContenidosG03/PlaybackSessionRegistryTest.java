@@ -0,0 +1,35 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.EsiMediaG03.services.PlaybackSessionRegistry;
+
+class PlaybackSessionRegistryTest {
+
+    private static final long MIN = 60_000L;
+
+    @Test
+    @DisplayName("Actividad dentro de la ventana renueva la sesión sin abrir otra")
+    void ventanaDeslizante() {
+        PlaybackSessionRegistry r = new PlaybackSessionRegistry(30, 100);
+        assertTrue(r.registrarActividad("u@x.com", "C1", 0));
+        assertFalse(r.registrarActividad("U@X.com", "C1", 20 * MIN));
+        assertFalse(r.registrarActividad("u@x.com", "C1", 45 * MIN));
+        assertTrue(r.registrarActividad("u@x.com", "C1", 80 * MIN));
+    }
+
+    @Test
+    @DisplayName("Otro contenido u otro cliente -> sesión distinta; tamaño acotado")
+    void sesionesIndependientesYAcotadas() {
+        PlaybackSessionRegistry r = new PlaybackSessionRegistry(30, 2);
+        assertTrue(r.registrarActividad("u@x.com", "C1", 0));
+        assertTrue(r.registrarActividad("u@x.com", "C2", 0));
+        assertTrue(r.registrarActividad("10.0.0.1", "C1", 0));
+        assertEquals(2, r.sesionesActivas());
+    }
+}
@@ -0,0 +1,200 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.converter.json.MappingJackson2HttpMessageConverter;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.exceptions.ContenidoException;
+import com.EsiMediaG03.http.ContenidoController;
+import com.EsiMediaG03.http.FileRegionHttpMessageConverter;
+import com.EsiMediaG03.http.RangePolicy;
+import com.EsiMediaG03.services.ContenidoService;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.ServletException;
+import jakarta.servlet.http.HttpServletResponse;
+
+/**
+ * Modo proxy: el controlador aplica las reglas de acceso y un filtro que hace
+ * de nginx sirve el fichero indicado en X-Accel-Redirect.
+ */
+class ProxyOffloadIntegrationTest {
+
+    private Path mediaRoot;
+    private Path video;
+    private final byte[] data = "contenido-de-video-0123456789".getBytes(StandardCharsets.UTF_8);
+    private ContenidoService contenidoService;
+    private MockMvc mvc;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        mediaRoot = Files.createTempDirectory("media-root-");
+        Files.createDirectories(mediaRoot.resolve("videos"));
+        video = Files.write(mediaRoot.resolve("videos/mi video.mp4"), data);
+
+        contenidoService = mock(ContenidoService.class);
+        ContenidoController controller = new ContenidoController(contenidoService,
+                new RangePolicy("adaptive", 1024L * 1024L, 30, 64L * 1024L * 1024L, 30));
+        ReflectionTestUtils.setField(controller, "proxyMode", "x-accel-redirect");
+        ReflectionTestUtils.setField(controller, "proxyInternalPrefix", "/media-interno");
+        ReflectionTestUtils.setField(controller, "proxyMediaRoot", mediaRoot.toString());
+
+        mvc = MockMvcBuilders.standaloneSetup(controller)
+                .setMessageConverters(new FileRegionHttpMessageConverter(),
+                        new MappingJackson2HttpMessageConverter())
+                .addFilters(nginxStandIn("/media-interno/", mediaRoot))
+                .build();
+    }
+
+    @AfterEach
+    void tearDown() throws Exception {
+        Files.deleteIfExists(video);
+        Files.deleteIfExists(mediaRoot.resolve("videos"));
+        Files.deleteIfExists(mediaRoot);
+    }
+
+    @Test
+    @DisplayName("Acceso permitido -> la app solo emite X-Accel-Redirect y el proxy sirve los bytes")
+    void accesoPermitido_proxySirveFichero() throws Exception {
+        when(contenidoService.resolveStreamingTarget(eq("C1"), any(), any()))
+                .thenReturn(StreamingTarget.local(video, data.length, "video/mp4"));
+
+        mvc.perform(get("/Contenidos/ReproducirContenido/C1"))
+                .andExpect(status().isOk())
+                .andExpect(header().doesNotExist("X-Accel-Redirect"))
+                .andExpect(header().string(HttpHeaders.CONTENT_TYPE, "video/mp4"))
+                .andExpect(content().bytes(data));
+    }
+
+    @Test
+    @DisplayName("Acceso denegado -> el proxy nunca recibe redirección interna")
+    void accesoDenegado_noHayRedireccion() throws Exception {
+        when(contenidoService.resolveStreamingTarget(eq("VIP"), any(), any()))
+                .thenThrow(new ContenidoException("Contenido VIP"));
+
+        ServletException ex = assertThrows(ServletException.class,
+                () -> mvc.perform(get("/Contenidos/ReproducirContenido/VIP")));
+        assertInstanceOf(ContenidoException.class, ex.getCause());
+        verify(contenidoService, never()).registrarReproduccion(any(), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("?meta y 304 no registran reproducción; solo la respuesta con el medio")
+    void metaY304_noRegistranReproduccion() throws Exception {
+        StreamingTarget target = StreamingTarget.local(video, data.length, 1_700_000_000_000L, "video/mp4");
+        when(contenidoService.resolveStreamingTarget(eq("C1"), any(), any())).thenReturn(target);
+
+        mvc.perform(get("/Contenidos/ReproducirContenido/C1").param("meta", "true"))
+                .andExpect(status().isOk());
+        mvc.perform(get("/Contenidos/ReproducirContenido/C1").header(HttpHeaders.IF_NONE_MATCH, target.etag()))
+                .andExpect(status().isNotModified());
+        verify(contenidoService, never()).registrarReproduccion(any(), any(), any(), any());
+
+        mvc.perform(get("/Contenidos/ReproducirContenido/C1"))
+                .andExpect(status().isOk())
+                .andExpect(content().bytes(data));
+        verify(contenidoService, times(1)).registrarReproduccion(eq("C1"), any(), any(), any());
+    }
+
+    @Test
+    @DisplayName("Fichero fuera de la raíz de medios -> lo sirve la propia aplicación")
+    void ficheroFueraDeRaiz_seSirveDesdeLaApp() throws Exception {
+        Path fuera = Files.createTempFile("fuera-", ".mp4");
+        Files.write(fuera, data);
+        try {
+            when(contenidoService.resolveStreamingTarget(eq("C2"), any(), any()))
+                    .thenReturn(StreamingTarget.local(fuera, data.length, "video/mp4"));
+
+            mvc.perform(get("/Contenidos/ReproducirContenido/C2"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist("X-Accel-Redirect"))
+                    .andExpect(content().bytes(data));
+        } finally {
+            Files.deleteIfExists(fuera);
+        }
+    }
+
+    @Test
+    @DisplayName("X-Sendfile -> también respeta la raíz de medios")
+    void xSendfile_fueraDeRaiz_seSirveDesdeLaApp() throws Exception {
+        ContenidoController controller = new ContenidoController(contenidoService,
+                new RangePolicy("adaptive", 1024L * 1024L, 30, 64L * 1024L * 1024L, 30));
+        ReflectionTestUtils.setField(controller, "proxyMode", "x-sendfile");
+        ReflectionTestUtils.setField(controller, "proxyMediaRoot", mediaRoot.toString());
+        MockMvc sendfile = MockMvcBuilders.standaloneSetup(controller)
+                .setMessageConverters(new FileRegionHttpMessageConverter(),
+                        new MappingJackson2HttpMessageConverter())
+                .build();
+
+        Path fuera = Files.createTempFile("fuera-", ".mp4");
+        Files.write(fuera, data);
+        try {
+            when(contenidoService.resolveStreamingTarget(eq("C1"), any(), any()))
+                    .thenReturn(StreamingTarget.local(video, data.length, "video/mp4"));
+            when(contenidoService.resolveStreamingTarget(eq("C2"), any(), any()))
+                    .thenReturn(StreamingTarget.local(fuera, data.length, "video/mp4"));
+
+            sendfile.perform(get("/Contenidos/ReproducirContenido/C1"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().string("X-Sendfile", video.toAbsolutePath().normalize().toString()));
+            sendfile.perform(get("/Contenidos/ReproducirContenido/C2"))
+                    .andExpect(status().isOk())
+                    .andExpect(header().doesNotExist("X-Sendfile"))
+                    .andExpect(content().bytes(data));
+        } finally {
+            Files.deleteIfExists(fuera);
+        }
+    }
+
+    /** Sustituto mínimo de nginx: location internal con alias a la raíz de medios. */
+    private static Filter nginxStandIn(String internalPrefix, Path root) {
+        return (request, response, chain) -> {
+            MockHttpServletResponse upstream = new MockHttpServletResponse();
+            chain.doFilter(request, upstream);
+            HttpServletResponse client = (HttpServletResponse) response;
+
+            String internal = upstream.getHeader("X-Accel-Redirect");
+            if (internal == null) {
+                client.setStatus(upstream.getStatus());
+                for (String name : upstream.getHeaderNames()) client.setHeader(name, upstream.getHeader(name));
+                client.getOutputStream().write(upstream.getContentAsByteArray());
+                return;
+            }
+            if (!internal.startsWith(internalPrefix)) throw new IOException("Ubicación interna inesperada: " + internal);
+            String relative = URLDecoder.decode(internal.substring(internalPrefix.length()), StandardCharsets.UTF_8);
+            Path file = root.resolve(relative).normalize();
+            client.setStatus(200);
+            client.setContentType(upstream.getContentType());
+            client.setContentLengthLong(Files.size(file));
+            client.getOutputStream().write(Files.readAllBytes(file));
+        };
+    }
+}
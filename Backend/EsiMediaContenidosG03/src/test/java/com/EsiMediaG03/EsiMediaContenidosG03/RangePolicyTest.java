@@ -0,0 +1,83 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.http.RangePolicy;
+
+class RangePolicyTest {
+
+    private static final long MIB = 1024L * 1024L;
+    private static final long DOS_GB = 2048L * MIB;
+
+    private static StreamingTarget video4k(long duracionSegundos) {
+        return StreamingTarget.local(Path.of("/media/v.mp4"), DOS_GB, "video/mp4")
+                .conMedia("4K", duracionSegundos);
+    }
+
+    @Test
+    @DisplayName("fixed -> mantiene el troceo a chunk-bytes")
+    void fixed_trocea() {
+        RangePolicy p = new RangePolicy("fixed", MIB, 30, 64 * MIB, 30);
+        assertEquals(MIB, p.responseLength(video4k(0), 0, DOS_GB - 1, true));
+        assertEquals(100, p.responseLength(video4k(0), 0, 99, false));
+    }
+
+    @Test
+    @DisplayName("full -> bytes=0- se sirve completo hasta max-bytes")
+    void full_sirveRangoAbierto() {
+        RangePolicy p = new RangePolicy("full", MIB, 30, 4096 * MIB, 30);
+        assertEquals(DOS_GB, p.responseLength(video4k(0), 0, DOS_GB - 1, true));
+    }
+
+    @Test
+    @DisplayName("adaptive -> rango abierto dimensionado por bitrate real (tamaño/duración)")
+    void adaptive_porBitrate() {
+        RangePolicy p = new RangePolicy("adaptive", MIB, 10, 256 * MIB, 30);
+        // 2 GiB en 1024 s -> 2 MiB/s -> 10 s = 20 MiB
+        assertEquals(20 * MIB, p.responseLength(video4k(1024), 0, DOS_GB - 1, true));
+    }
+
+    @Test
+    @DisplayName("adaptive -> sin duración usa la resolución y respeta max-bytes")
+    void adaptive_porResolucion() {
+        RangePolicy p = new RangePolicy("adaptive", MIB, 30, 64 * MIB, 30);
+        assertEquals(64 * MIB, p.responseLength(video4k(0), 0, DOS_GB - 1, true));
+
+        StreamingTarget audio = StreamingTarget.local(Path.of("/media/a.mp3"), 50 * MIB, "audio/mpeg");
+        assertEquals(1_200_000L, p.responseLength(audio, 0, 50 * MIB - 1, true));
+    }
+
+    @Test
+    @DisplayName("adaptive -> un rango cerrado se respeta completo")
+    void adaptive_rangoCerrado() {
+        RangePolicy p = new RangePolicy("adaptive", MIB, 30, 64 * MIB, 30);
+        assertEquals(10 * MIB, p.responseLength(video4k(0), 0, 10 * MIB - 1, false));
+    }
+
+    @Test
+    @DisplayName("Round trips ahorrados se acumulan por sesión frente al troceo de 1 MiB")
+    void roundTripsAhorrados_porSesion() {
+        RangePolicy p = new RangePolicy("full", MIB, 30, 4096 * MIB, 30);
+        assertEquals(9, p.registrarRespuesta("u@x|C1", 10 * MIB));
+        assertEquals(9 + 4, p.registrarRespuesta("u@x|C1", 5 * MIB - 3));
+        assertEquals(0, p.registrarRespuesta("otro|C1", 100));
+        assertEquals(13, p.getRoundTripsAhorrados());
+    }
+
+    @Test
+    @DisplayName("Tras una ventana sin peticiones empieza otra sesión y el contador vuelve a cero")
+    void roundTripsAhorrados_nuevaSesionTrasLaVentana() {
+        RangePolicy p = new RangePolicy("full", MIB, 30, 4096 * MIB, 30);
+        long t0 = 1_000_000L;
+        assertEquals(9, p.registrarRespuesta("u@x|C1", 10 * MIB, t0));
+        assertEquals(18, p.registrarRespuesta("u@x|C1", 10 * MIB, t0 + 29 * 60_000L));
+        assertEquals(9, p.registrarRespuesta("u@x|C1", 10 * MIB, t0 + 60 * 60_000L));
+        assertEquals(27, p.getRoundTripsAhorrados());
+    }
+}
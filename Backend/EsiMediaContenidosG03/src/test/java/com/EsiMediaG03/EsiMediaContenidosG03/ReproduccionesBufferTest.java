@@ -0,0 +1,266 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.Mock;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoReproductor;
+import com.EsiMediaG03.services.ContadorReproducciones;
+import com.EsiMediaG03.services.EstadisticasTops;
+import com.EsiMediaG03.services.ReproduccionesBuffer;
+import com.EsiMediaG03.services.TendenciasReproducciones;
+import com.mongodb.bulk.BulkWriteError;
+
+@ExtendWith(MockitoExtension.class)
+class ReproduccionesBufferTest {
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations bulk;
+    @Mock BulkOperations bulkRelaciones;
+    @Mock EstadisticasTops estadisticas;
+    @Mock TendenciasReproducciones tendencias;
+
+    @BeforeEach
+    void setUp() {
+        lenient().when(mongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(Contenido.class))).thenReturn(bulk);
+        lenient().when(mongoTemplate.bulkOps(eq(BulkOperations.BulkMode.UNORDERED), eq(ContenidoReproductor.class)))
+                .thenReturn(bulkRelaciones);
+    }
+
+    private ContadorReproducciones directo() {
+        return new ContadorReproducciones(mongoTemplate, "directo", 16, 0, 60_000);
+    }
+
+    @Test
+    void agrupa_incrementos_por_contenido_en_un_solo_bulk() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10_000);
+        for (int i = 0; i < 100; i++) buffer.registrarReproduccion("A");
+        for (int i = 0; i < 3; i++) buffer.registrarReproduccion("B");
+        buffer.registrarReproductor("A", "u@esi.com");
+        buffer.registrarReproductor("A", "U@Esi.com");
+        assertTrue(buffer.tieneReproductorPendiente("A", "U@ESI.COM"));
+
+        assertEquals(2, buffer.volcar());
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(bulk, times(2)).updateOne(qs.capture(), us.capture());
+        verify(bulk, times(1)).execute();
+
+        for (int i = 0; i < 2; i++) {
+            String id = (String) qs.getAllValues().get(i).getQueryObject().get("_id");
+            Document inc = (Document) us.getAllValues().get(i).getUpdateObject().get("$inc");
+            assertEquals("A".equals(id) ? 100L : 3L, inc.get("reproducciones"));
+        }
+
+        ArgumentCaptor<Query> relaciones = ArgumentCaptor.forClass(Query.class);
+        verify(bulkRelaciones, times(1)).upsert(relaciones.capture(), any(Update.class));
+        verify(bulkRelaciones, times(1)).execute();
+        assertEquals("A", relaciones.getValue().getQueryObject().get("contenidoId"));
+        assertEquals("u@esi.com", relaciones.getValue().getQueryObject().get("userEmail"));
+
+        Map<String, Object> m = buffer.metricas();
+        assertEquals(0L, m.get("incrementosPendientes"));
+        assertEquals(103L, m.get("incrementosVolcados"));
+        assertEquals(1L, m.get("reproductoresVolcados"));
+        assertEquals(1L, m.get("volcados"));
+    }
+
+    @Test
+    void reproductor_sigue_pendiente_hasta_escribir_su_relacion() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10_000);
+        buffer.registrarReproductor("A", "u@esi.com");
+        boolean[] visibleDuranteElVolcado = {false};
+        when(bulkRelaciones.execute()).thenAnswer(inv -> {
+            visibleDuranteElVolcado[0] = buffer.tieneReproductorPendiente("A", "u@esi.com");
+            return null;
+        });
+
+        buffer.volcar();
+
+        assertTrue(visibleDuranteElVolcado[0]);
+        assertFalse(buffer.tieneReproductorPendiente("A", "u@esi.com"));
+    }
+
+    @Test
+    void sin_pendientes_no_escribe() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10);
+        assertEquals(0, buffer.volcar());
+        verify(mongoTemplate, never()).bulkOps(any(BulkOperations.BulkMode.class), eq(Contenido.class));
+    }
+
+    @Test
+    void fallo_en_bulk_repone_los_deltas() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10_000);
+        when(bulk.execute()).thenThrow(new RuntimeException("mongo caído")).thenReturn(null);
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproductor("A", "u@esi.com");
+
+        assertEquals(0, buffer.volcar());
+        assertEquals(2L, buffer.metricas().get("incrementosPendientes"));
+        assertEquals(1L, buffer.metricas().get("volcadosFallidos"));
+        assertTrue(buffer.tieneReproductorPendiente("A", "u@esi.com"));
+
+        assertEquals(1, buffer.volcar());
+        assertEquals(2L, buffer.metricas().get("incrementosVolcados"));
+        assertFalse(buffer.tieneReproductorPendiente("A", "u@esi.com"));
+    }
+
+    @Test
+    void fallo_parcial_del_bulk_solo_repone_las_operaciones_rechazadas() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10_000);
+        BulkWriteError error = mock(BulkWriteError.class);
+        when(error.getIndex()).thenReturn(0);
+        BulkOperationException ex = mock(BulkOperationException.class);
+        when(ex.getErrors()).thenReturn(List.of(error));
+        when(bulk.execute()).thenThrow(ex);
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("A");
+        for (int i = 0; i < 3; i++) buffer.registrarReproduccion("B");
+
+        buffer.volcar();
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        verify(bulk, times(2)).updateOne(qs.capture(), any(Update.class));
+        String rechazado = (String) qs.getAllValues().get(0).getQueryObject().get("_id");
+        String aplicado = "A".equals(rechazado) ? "B" : "A";
+        long nRechazado = "A".equals(rechazado) ? 2L : 3L;
+        assertEquals(nRechazado, buffer.metricas().get("incrementosPendientes"));
+        assertEquals(5L - nRechazado, buffer.metricas().get("incrementosVolcados"));
+        verify(estadisticas).reproduccionesAplicadas(Map.of(aplicado, 5L - nRechazado));
+    }
+
+    @Test
+    void volcado_notifica_las_estadisticas_y_su_fallo_no_repone() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10_000);
+        doThrow(new RuntimeException("estadísticas")).when(estadisticas).reproduccionesAplicadas(any());
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("A");
+
+        assertEquals(1, buffer.volcar());
+
+        verify(estadisticas).reproduccionesAplicadas(Map.of("A", 2L));
+        verify(tendencias).reproduccionesAplicadas(Map.of("A", 2L));
+        assertEquals(0L, buffer.metricas().get("incrementosPendientes"));
+        assertEquals(2L, buffer.metricas().get("incrementosVolcados"));
+    }
+
+    @Test
+    void umbral_dispara_volcado_asincrono() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 5);
+        for (int i = 0; i < 5; i++) buffer.registrarReproduccion("A");
+        verify(bulk, timeout(2000).times(1)).execute();
+        buffer.cerrar();
+    }
+
+    @Test
+    void cierre_vuelca_lo_pendiente() {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, 10_000);
+        buffer.registrarReproduccion("A");
+        buffer.cerrar();
+        verify(bulk, times(1)).execute();
+    }
+
+    @Test
+    void no_pierde_incrementos_con_volcados_concurrentes() throws Exception {
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, directo(), estadisticas, tendencias, Integer.MAX_VALUE);
+        int hilos = 8;
+        int porHilo = 5_000;
+        ExecutorService pool = Executors.newFixedThreadPool(hilos + 1);
+        CountDownLatch listos = new CountDownLatch(hilos);
+        for (int h = 0; h < hilos; h++) {
+            pool.execute(() -> {
+                for (int i = 0; i < porHilo; i++) buffer.registrarReproduccion(i % 2 == 0 ? "A" : "B");
+                listos.countDown();
+            });
+        }
+        pool.execute(() -> {
+            while (listos.getCount() > 0) buffer.volcar();
+        });
+        assertTrue(listos.await(30, TimeUnit.SECONDS));
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(30, TimeUnit.SECONDS));
+        buffer.volcar();
+
+        assertEquals((long) hilos * porHilo, buffer.metricas().get("incrementosVolcados"));
+        assertEquals(0L, buffer.metricas().get("incrementosPendientes"));
+    }
+
+    @Test
+    void modo_fragmentado_envia_incrementos_al_contador() {
+        ContadorReproducciones contador = mock(ContadorReproducciones.class);
+        when(contador.isFragmentado()).thenReturn(true);
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, contador, estadisticas, tendencias, 10_000);
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproductor("B", "u@esi.com");
+
+        assertEquals(2, buffer.volcar());
+
+        verify(contador).incrementar(Map.of("A", 2L));
+        verify(bulk, never()).updateOne(any(Query.class), any(Update.class));
+        verify(bulkRelaciones, times(1)).upsert(any(Query.class), any(Update.class));
+    }
+
+    @Test
+    void modo_fragmentado_no_repite_incrementos_si_falla_reproductores() {
+        ContadorReproducciones contador = mock(ContadorReproducciones.class);
+        when(contador.isFragmentado()).thenReturn(true);
+        when(bulkRelaciones.execute()).thenThrow(new RuntimeException("mongo caído"));
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, contador, estadisticas, tendencias, 10_000);
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproductor("A", "u@esi.com");
+
+        assertEquals(0, buffer.volcar());
+        assertEquals(0L, buffer.metricas().get("incrementosPendientes"));
+        assertTrue(buffer.tieneReproductorPendiente("A", "u@esi.com"));
+    }
+
+    @Test
+    void modo_fragmentado_repone_solo_lo_que_rechaza_el_contador() {
+        ContadorReproducciones contador = mock(ContadorReproducciones.class);
+        when(contador.isFragmentado()).thenReturn(true);
+        when(contador.incrementar(any())).thenReturn(Map.of("A", 2L));
+        ReproduccionesBuffer buffer = new ReproduccionesBuffer(mongoTemplate, contador, estadisticas, tendencias, 10_000);
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("A");
+        buffer.registrarReproduccion("B");
+
+        buffer.volcar();
+
+        assertEquals(2L, buffer.metricas().get("incrementosPendientes"));
+        assertEquals(1L, buffer.metricas().get("incrementosVolcados"));
+        verify(estadisticas).reproduccionesAplicadas(Map.of("B", 1L));
+    }
+}
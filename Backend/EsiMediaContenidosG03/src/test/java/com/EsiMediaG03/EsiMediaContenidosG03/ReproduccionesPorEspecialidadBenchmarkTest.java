@@ -0,0 +1,99 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.bson.Document;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.TestInstance;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.springframework.data.mongodb.core.MongoTemplate;
+
+import com.EsiMediaG03.services.ReproduccionesPorEspecialidad;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**
+ * Compara los dos motores sobre un catálogo sintético en una base de datos
+ * temporal. Necesita un Mongo real:
+ * mvn test -Dtest=ReproduccionesPorEspecialidadBenchmarkTest -Dbenchmark.mongo.uri=mongodb://localhost:27017
+ */
+@EnabledIfSystemProperty(named = "benchmark.mongo.uri", matches = ".+")
+@TestInstance(TestInstance.Lifecycle.PER_CLASS)
+class ReproduccionesPorEspecialidadBenchmarkTest {
+
+    private static final int CONTENIDOS = Integer.getInteger("benchmark.contenidos", 50_000);
+    private static final int CREADORES = Integer.getInteger("benchmark.creadores", 500);
+    private static final int ESPECIALIDADES = 12;
+    private static final int RONDAS = 7;
+
+    private MongoClient client;
+    private MongoTemplate template;
+    private String db;
+
+    @BeforeAll
+    void catalogoSintetico() {
+        client = MongoClients.create(System.getProperty("benchmark.mongo.uri"));
+        db = "esimedia_bench_" + System.currentTimeMillis();
+        template = new MongoTemplate(client, db);
+
+        Random rnd = new Random(42);
+        List<Document> lote = new ArrayList<>();
+        for (int i = 0; i < CONTENIDOS; i++) {
+            int creador = rnd.nextInt(CREADORES);
+            Document d = new Document("titulo", "C" + i)
+                    .append("userEmail", "creador" + creador + "@esi.com")
+                    .append("reproducciones", (long) rnd.nextInt(10_000))
+                    .append("descripcion", "x".repeat(200));
+            // algunos creadores sin especialidad
+            if (creador % 25 != 0) d.append("especialidad", "Esp" + (creador % ESPECIALIDADES));
+            lote.add(d);
+            if (lote.size() == 5_000) {
+                template.getCollection("contenidos").insertMany(lote);
+                lote = new ArrayList<>();
+            }
+        }
+        if (!lote.isEmpty()) template.getCollection("contenidos").insertMany(lote);
+    }
+
+    @AfterAll
+    void limpiar() {
+        if (client != null) {
+            client.getDatabase(db).drop();
+            client.close();
+        }
+    }
+
+    @Test
+    void agregacion_frente_a_java() {
+        ReproduccionesPorEspecialidad java = new ReproduccionesPorEspecialidad(template, "java");
+        ReproduccionesPorEspecialidad agregacion = new ReproduccionesPorEspecialidad(template, "agregacion");
+
+        assertEquals(java.calcular(5), agregacion.calcular(5));
+
+        long msJava = mediana(() -> java.calcular(5));
+        long msAgregacion = mediana(() -> agregacion.calcular(5));
+        System.out.printf("Reproducciones por especialidad, %d contenidos / %d creadores: java %d ms, agregacion %d ms%n",
+                CONTENIDOS, CREADORES, msJava, msAgregacion);
+    }
+
+    private static long mediana(Supplier<Map<String, Long>> motor) {
+        motor.get();
+        long[] t = new long[RONDAS];
+        for (int i = 0; i < RONDAS; i++) {
+            long ini = System.nanoTime();
+            motor.get();
+            t[i] = (System.nanoTime() - ini) / 1_000_000;
+        }
+        Arrays.sort(t);
+        return t[RONDAS / 2];
+    }
+}
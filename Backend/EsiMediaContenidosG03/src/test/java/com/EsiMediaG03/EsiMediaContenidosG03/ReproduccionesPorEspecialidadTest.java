@@ -0,0 +1,101 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationResults;
+import org.springframework.data.mongodb.core.query.Query;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.ReproduccionesPorEspecialidad;
+
+@ExtendWith(MockitoExtension.class)
+class ReproduccionesPorEspecialidadTest {
+
+    @Mock MongoTemplate mongoTemplate;
+
+    private static Contenido contenido(String email, String especialidad, long reproducciones) {
+        Contenido c = new Contenido();
+        c.setUserEmail(email);
+        c.setEspecialidad(especialidad);
+        c.setNumReproducciones(reproducciones);
+        return c;
+    }
+
+    @Test
+    void motor_java_agrupa_en_memoria_y_limita() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(
+                contenido("a@a.com", "Informatica", 10), contenido("a@a.com", "Informatica", 5),
+                contenido("b@b.com", "Medicina", 20), contenido("c@c.com", null, 1)));
+
+        Map<String, Long> res = new ReproduccionesPorEspecialidad(mongoTemplate, "java").calcular(null);
+
+        assertEquals(List.of("Medicina", "Informatica", "Sin especialidad"), List.copyOf(res.keySet()));
+        assertEquals(15L, res.get("Informatica"));
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).find(q.capture(), eq(Contenido.class));
+        assertEquals(Set.of("especialidad", "reproducciones"), q.getValue().getFieldsObject().keySet());
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), anyString());
+        verify(mongoTemplate, never()).aggregate(any(Aggregation.class), any(Class.class), any(Class.class));
+    }
+
+    @Test
+    void motor_java_limita() {
+        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(
+                contenido("a@a.com", "Informatica", 10), contenido("b@b.com", "Medicina", 20),
+                contenido("c@c.com", "Derecho", 1)));
+
+        Map<String, Long> res = new ReproduccionesPorEspecialidad(mongoTemplate, "java").calcular(2);
+
+        assertEquals(List.of("Medicina", "Informatica"), List.copyOf(res.keySet()));
+    }
+
+    @Test
+    void motor_agregacion_solo_recibe_las_filas_del_resultado() {
+        AggregationResults<Document> resultados = new AggregationResults<>(List.of(
+                new Document("_id", "Medicina").append("reproducciones", 20L),
+                new Document("_id", "Sin especialidad").append("reproducciones", 3)), new Document());
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Contenido.class), eq(Document.class)))
+                .thenReturn(resultados);
+
+        Map<String, Long> res = new ReproduccionesPorEspecialidad(mongoTemplate, "agregacion").calcular(5);
+
+        assertEquals(Map.of("Medicina", 20L, "Sin especialidad", 3L), res);
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Contenido.class));
+        verify(mongoTemplate, never()).find(any(Query.class), eq(Document.class), anyString());
+    }
+
+    @Test
+    void pipeline_agrupa_por_la_especialidad_copiada_sin_lookup_y_limita_en_mongo() {
+        when(mongoTemplate.aggregate(any(Aggregation.class), eq(Contenido.class), eq(Document.class)))
+                .thenReturn(new AggregationResults<>(List.of(), new Document()));
+        new ReproduccionesPorEspecialidad(mongoTemplate, "agregacion").calcular(5);
+
+        ArgumentCaptor<Aggregation> agg = ArgumentCaptor.forClass(Aggregation.class);
+        verify(mongoTemplate).aggregate(agg.capture(), eq(Contenido.class), eq(Document.class));
+        List<Document> etapas = agg.getValue().toPipeline(Aggregation.DEFAULT_CONTEXT);
+
+        assertEquals(List.of("$match", "$group", "$sort", "$limit"),
+                etapas.stream().map(d -> d.keySet().iterator().next()).toList());
+        assertEquals(new Document("$ifNull", List.of("$especialidad", "Sin especialidad")),
+                ((Document) etapas.get(1).get("$group")).get("_id"));
+        assertEquals(5, etapas.get(3).get("$limit"));
+    }
+}
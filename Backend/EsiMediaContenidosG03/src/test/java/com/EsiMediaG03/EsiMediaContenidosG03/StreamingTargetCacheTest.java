@@ -0,0 +1,117 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+
+import com.EsiMediaG03.dto.StreamingTarget;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.services.StreamingTargetCache;
+import com.EsiMediaG03.services.StreamingTargetCache.AccesoContenido;
+
+class StreamingTargetCacheTest {
+
+    private static final AccesoContenido ACCESO = new AccesoContenido(true, false, 0, null, Contenido.Tipo.VIDEO);
+
+    private StreamingTargetCache cache;
+
+    @AfterEach
+    void tearDown() {
+        if (cache != null) cache.close();
+    }
+
+    @Test
+    @DisplayName("LRU acotada: al superar max-entries se expulsa la menos usada")
+    void expulsaLaMenosUsada() {
+        cache = new StreamingTargetCache(2, 600, false);
+        cache.put("A", ACCESO, StreamingTarget.external("https://a", "video/mp4"));
+        cache.put("B", ACCESO, StreamingTarget.external("https://b", "video/mp4"));
+        cache.get("A");
+        cache.put("C", ACCESO, StreamingTarget.external("https://c", "video/mp4"));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get("A"));
+        assertNull(cache.get("B"));
+        assertNotNull(cache.get("C"));
+    }
+
+    @Test
+    @DisplayName("TTL vencido -> la entrada deja de servirse")
+    void ttlVencido() throws Exception {
+        cache = new StreamingTargetCache(10, 1, false);
+        cache.put("A", ACCESO, StreamingTarget.external("https://a", "video/mp4"));
+        assertNotNull(cache.get("A"));
+
+        Thread.sleep(1100);
+        assertNull(cache.get("A"));
+    }
+
+    @Test
+    @DisplayName("invalidate por id")
+    void invalidatePorId() {
+        cache = new StreamingTargetCache(10, 600, false);
+        cache.put("A", ACCESO, StreamingTarget.external("https://a", "video/mp4"));
+        cache.invalidate("A");
+        assertNull(cache.get("A"));
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    @DisplayName("Invalidación entre la lectura y el put -> la entrada leída antes no se guarda")
+    void putDescartadoSiSeInvalidoDuranteLaCarga() {
+        cache = new StreamingTargetCache(10, 600, false);
+        long generacion = cache.generacion("A");
+        // modificarContenido invalida mientras la petición aún tiene el documento viejo
+        cache.invalidate("A");
+
+        assertNull(cache.put("A", generacion, ACCESO, StreamingTarget.external("https://viejo", "video/mp4")));
+        assertNull(cache.get("A"));
+
+        long nueva = cache.generacion("A");
+        assertNotNull(cache.put("A", nueva, ACCESO, StreamingTarget.external("https://nuevo", "video/mp4")));
+        assertEquals("https://nuevo", cache.get("A").target().externalUrl());
+    }
+
+    @Test
+    @DisplayName("Las generaciones expulsadas de la LRU no permiten guardar una carga anterior")
+    void generacionExpulsadaSubeElSuelo() {
+        cache = new StreamingTargetCache(1, 600, false);
+        long generacion = cache.generacion("A");
+        cache.invalidate("A");
+        cache.invalidate("B");
+
+        assertNull(cache.put("A", generacion, ACCESO, StreamingTarget.external("https://a", "video/mp4")));
+    }
+
+    @Test
+    @DisplayName("Cambio en el fichero -> el WatchService invalida los ids que lo usan")
+    void watchServiceInvalidaAlModificarFichero() throws Exception {
+        Path dir = Files.createTempDirectory("media-watch-");
+        Path video = Files.write(dir.resolve("v.mp4"), new byte[]{1, 2, 3});
+        try {
+            cache = new StreamingTargetCache(10, 600, true);
+            cache.put("V1", ACCESO, StreamingTarget.local(video, 3, "video/mp4"));
+            cache.put("V2", ACCESO, StreamingTarget.local(video, 3, "video/mp4"));
+            assertNotNull(cache.get("V1"));
+
+            Files.write(video, new byte[]{1, 2, 3, 4});
+
+            long limite = System.currentTimeMillis() + 10_000;
+            while ((cache.get("V1") != null || cache.get("V2") != null) && System.currentTimeMillis() < limite) {
+                Thread.sleep(50);
+            }
+            assertNull(cache.get("V1"));
+            assertNull(cache.get("V2"));
+        } finally {
+            Files.deleteIfExists(video);
+            Files.deleteIfExists(dir);
+        }
+    }
+}
@@ -4,7 +4,7 @@ import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
+import java.util.Set;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertThrows;
@@ -14,24 +14,38 @@ import org.junit.jupiter.api.Nested;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.ExtendWith;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.ArgumentCaptor;
 import org.mockito.InjectMocks;
 import org.mockito.Mock;
+import org.mockito.Spy;
 import static org.mockito.Mockito.lenient;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import org.mockito.junit.jupiter.MockitoExtension;
+import org.bson.Document;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
 import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 
 import com.EsiMediaG03.dao.ContenidoDAO;
+import com.EsiMediaG03.dto.TarjetaContenido;
 import com.EsiMediaG03.exceptions.ContenidoException;
 import com.EsiMediaG03.exceptions.ContenidoValidationException;
 import com.EsiMediaG03.http.ContenidoController;
 import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoReproductor;
 import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.EstadisticasTops;
+import com.EsiMediaG03.services.ReproduccionesBuffer;
+import com.EsiMediaG03.services.TarjetasCache;
 
 @ExtendWith(MockitoExtension.class)
 class TDDValoracionContenidoTest {
@@ -39,29 +53,28 @@ class TDDValoracionContenidoTest {
 
     @Mock ContenidoDAO contenidoDAO;
     @Mock MongoTemplate mongoTemplate;
+    @Mock ReproduccionesBuffer reproduccionesBuffer;
+    @Mock EstadisticasTops estadisticasTops;
+    @Spy TarjetasCache tarjetasCache = new TarjetasCache(100, 30);
     @InjectMocks ContenidoService serviceUnderTest;
 
     @Mock ContenidoService contenidoServiceMock;
     @InjectMocks ContenidoController controllerUnderTest;
 
     private Contenido contenido;
+    private final Set<String> valoraciones = new HashSet<>();
 
     @BeforeEach
     void baseInit() {
         contenido = new Contenido();
-        try {
-            var idField = Contenido.class.getDeclaredField("id");
-            idField.setAccessible(true);
-            idField.set(contenido, "C1");
-        } catch (Exception ignored) {}
-
-        
-        contenido.setReproductores(new HashSet<>(List.of("user@esi.com")));
-
-    
-        contenido.setRatings(new HashMap<>()); 
+        contenido.setId("C1");
         contenido.setRatingAvg(0.0);
         contenido.setRatingCount(0);
+        valoraciones.clear();
+    }
+
+    private static Object campo(Query q, String nombre) {
+        return q.getQueryObject().get(nombre);
     }
 
     @Nested
@@ -70,35 +83,50 @@ class TDDValoracionContenidoTest {
 
         @BeforeEach
         void initServiceStubs() {
-        
-            lenient().when(contenidoDAO.findById("C1")).thenReturn(Optional.of(contenido));
+            lenient().when(mongoTemplate.findOne(any(Query.class), eq(Contenido.class))).thenReturn(contenido);
+            // solo user@esi.com ha reproducido C1
+            lenient().when(mongoTemplate.exists(any(Query.class), eq(ContenidoReproductor.class)))
+                    .thenAnswer(inv -> "user@esi.com".equals(campo(inv.getArgument(0), "userEmail")));
+            // la puerta solo pasa si hay reproducción y aún no hay puntuación
+            lenient().when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(ContenidoReproductor.class)))
+                    .thenAnswer(inv -> {
+                        String email = (String) campo(inv.getArgument(0), "userEmail");
+                        if (!"user@esi.com".equals(email) || !valoraciones.add(email)) return null;
+                        return new ContenidoReproductor("C1", email);
+                    });
+            lenient().when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class))).thenAnswer(inv -> {
+                        Document set = (Document) ((AggregationUpdate) inv.getArgument(1)).toPipeline(
+                                Aggregation.DEFAULT_CONTEXT).get(0).get("$set");
+                        double score = ((Number) ((List<?>) ((Document) set.get("ratingSuma")).get("$add")).get(1)).doubleValue();
+                        contenido.setRatingSuma(contenido.getRatingSuma() + score);
+                        contenido.setRatingCount(contenido.getRatingCount() + 1);
+                        contenido.setRatingAvg(contenido.getRatingSuma() / contenido.getRatingCount());
+                        return contenido;
+                    });
         }
 
         @Test
         @DisplayName("Primera valoración (4.5) -> count=1 y avg=4.5")
         void primerVoto_ok() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
             Map<String,Object> res = serviceUnderTest.rateContenido("C1", "user@esi.com", 4.5);
             assertEquals(1, res.get("count"));
             assertEquals(4.5, (double)res.get("avg"), 1e-9);
-            verify(contenidoDAO, times(1)).save(any());
+            verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(AggregationUpdate.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
+            verify(estadisticasTops).valoracionAplicada(any(Contenido.class));
         }
 
         @Test
         @DisplayName("Duplicado: el mismo usuario no puede volver a valorar")
         void votoDuplicado_noPermitido() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
-        
             serviceUnderTest.rateContenido("C1", "user@esi.com", 3.0);
 
-            
             assertThrows(ContenidoException.class,
                     () -> serviceUnderTest.rateContenido("C1", "user@esi.com", 5.0));
 
-    
-            verify(contenidoDAO, times(1)).save(any());
+            verify(mongoTemplate, times(1)).findAndModify(any(Query.class), any(AggregationUpdate.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
         }
 
         @Test
@@ -122,18 +150,86 @@ class TDDValoracionContenidoTest {
         void noReprodujo_forbidden() {
             assertThrows(ContenidoException.class,
                     () -> serviceUnderTest.rateContenido("C1", "otro@esi.com", 4.0));
-            verify(contenidoDAO, never()).save(any());
+            verify(mongoTemplate, never()).findAndModify(any(Query.class), any(AggregationUpdate.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class));
+        }
+
+        @Test
+        @DisplayName("Reproducción pendiente en el buffer -> escribe solo su relación, sin volcar el buffer")
+        void reproduccionPendiente_escribeSuRelacion() {
+            when(reproduccionesBuffer.tieneReproductorPendiente("C1", "User@esi.com")).thenReturn(true);
+            serviceUnderTest.rateContenido("C1", "User@esi.com", 4.0);
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate).upsert(q.capture(), any(Update.class), eq(ContenidoReproductor.class));
+            assertEquals("C1", campo(q.getValue(), "contenidoId"));
+            assertEquals("user@esi.com", campo(q.getValue(), "userEmail"));
+            verify(reproduccionesBuffer, never()).volcar();
+        }
+
+        @Test
+        @DisplayName("Fallo al actualizar la media -> se retira la puntuación de la relación")
+        void falloEnLaMedia_retiraLaValoracion() {
+            when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class),
+                    any(FindAndModifyOptions.class), eq(Contenido.class))).thenThrow(new RuntimeException("mongo caído"));
+
+            assertThrows(RuntimeException.class, () -> serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0));
+
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+            verify(mongoTemplate).updateFirst(q.capture(), u.capture(), eq(ContenidoReproductor.class));
+            assertEquals("user@esi.com", campo(q.getValue(), "userEmail"));
+            assertEquals(Set.of("puntuacion", "valoradoEn"), ((Document) u.getValue().getUpdateObject().get("$unset")).keySet());
+            verify(estadisticasTops, never()).valoracionAplicada(any(Contenido.class));
         }
 
         @Test
         @DisplayName("Resumen -> devuelve count y avg")
         void resumen_ok() {
-            when(contenidoDAO.save(any())).thenAnswer(inv -> inv.getArgument(0));
-
             serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
             Map<String,Object> res = serviceUnderTest.ratingResumen("C1");
             assertEquals(1, res.get("count"));
             assertEquals(4.0, (double)res.get("avg"), 1e-9);
+            assertEquals(10, ((List<?>) res.get("histograma")).size());
+        }
+
+        @Test
+        @DisplayName("Resumen en lote -> una consulta $in, orden pedido y caché")
+        void resumenes_unaConsultaYCache() {
+            Contenido c2 = new Contenido();
+            c2.setId("C2");
+            c2.setRatingAvg(3.0);
+            c2.setRatingCount(2);
+            when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(contenido, c2));
+
+            Map<String, Map<String,Object>> res = serviceUnderTest.ratingResumenes(List.of("C2", "C1", "X", "C1"));
+            assertEquals(List.of("C2", "C1"), List.copyOf(res.keySet()));
+            assertEquals(3.0, (double) res.get("C2").get("avg"), 1e-9);
+            assertEquals(2, res.get("C2").get("count"));
+
+            serviceUnderTest.ratingResumenes(List.of("C1", "C2"));
+            ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+            verify(mongoTemplate, times(1)).find(q.capture(), eq(Contenido.class));
+            assertEquals(List.of("C2", "C1", "X"), ((Document) campo(q.getValue(), "_id")).get("$in"));
+            // se comparte la caché de tarjetas: se proyecta la tarjeta, nunca el documento completo
+            assertEquals(Set.of(TarjetaContenido.CAMPOS), q.getValue().getFieldsObject().keySet());
+        }
+
+        @Test
+        @DisplayName("Valorar -> el lote ve la nueva media sin leer de Mongo")
+        void valorar_actualizaLaCacheDelLote() {
+            serviceUnderTest.rateContenido("C1", "user@esi.com", 4.0);
+            Map<String, Map<String,Object>> res = serviceUnderTest.ratingResumenes(List.of("C1"));
+            assertEquals(1, res.get("C1").get("count"));
+            verify(mongoTemplate, never()).find(any(Query.class), eq(Contenido.class));
+        }
+
+        @Test
+        @DisplayName("Resumen en lote por encima del máximo -> IllegalArgumentException")
+        void resumenes_demasiadosIds() {
+            List<String> ids = java.util.stream.IntStream.range(0, 101).mapToObj(i -> "C" + i).toList();
+            assertThrows(IllegalArgumentException.class, () -> serviceUnderTest.ratingResumenes(ids));
+            verify(mongoTemplate, never()).find(any(Query.class), eq(Contenido.class));
         }
     }
 
@@ -173,5 +269,15 @@ class TDDValoracionContenidoTest {
             assertEquals(3.5, (double)resp.getBody().get("avg"), 1e-9);
             assertEquals(4, resp.getBody().get("count"));
         }
+
+        @Test
+        @DisplayName("GET /RatingContenidos con demasiados ids -> 400")
+        void getRatings_lote_demasiado_grande() {
+            when(contenidoServiceMock.ratingResumenes(List.of("C1")))
+                    .thenThrow(new IllegalArgumentException("Como máximo 100 contenidos por petición"));
+
+            ResponseEntity<Object> resp = controllerUnderTest.ratingContenidos(List.of("C1"));
+            assertEquals(HttpStatus.BAD_REQUEST, resp.getStatusCode());
+        }
     }
 }
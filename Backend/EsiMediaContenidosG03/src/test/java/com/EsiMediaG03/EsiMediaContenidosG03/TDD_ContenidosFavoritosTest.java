@@ -2,6 +2,7 @@ package com.EsiMediaG03.EsiMediaContenidosG03;
 
 import com.EsiMediaG03.dao.ListaPublicaDAO;
 import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoFavorito;
 import com.EsiMediaG03.model.ListaPublica;
 import com.EsiMediaG03.services.ContenidoService;
 import org.junit.jupiter.api.*;
@@ -41,26 +42,29 @@ class TDD_ContenidosFavoritosTest {
     @Test
     @DisplayName("addFavorito OK -> header role=USUARIO y política permite (sin listas privadas)")
     void addFavorito_ok() {
-        when(mongoTemplate.findById("CNT-123", Contenido.class)).thenReturn(new Contenido());
+        when(mongoTemplate.exists(any(Query.class), eq(Contenido.class))).thenReturn(true);
         when(listaPublicaDAO.findByContenidosIds("CNT-123")).thenReturn(List.of()); // no privadas
 
         service.addFavorito("CNT-123", EMAIL_USUARIO, ROLE_USUARIO);
 
-        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, times(1)).upsert(q.capture(), any(), eq(ContenidoFavorito.class));
+        assertEquals("CNT-123", q.getValue().getQueryObject().get("contenidoId"));
+        assertEquals(EMAIL_USUARIO, q.getValue().getQueryObject().get("userEmail"));
         verifyNoMoreInteractions(mongoTemplate);
     }
 
     @Test
     @DisplayName("addFavorito FORBIDDEN -> política: contenido en una ListaPublica privada")
     void addFavorito_forbidden_policy() {
-        when(mongoTemplate.findById("CNT-PRIV", Contenido.class)).thenReturn(new Contenido());
+        when(mongoTemplate.exists(any(Query.class), eq(Contenido.class))).thenReturn(true);
         ListaPublica privada = new ListaPublica(); privada.setPublica(false);
         when(listaPublicaDAO.findByContenidosIds("CNT-PRIV")).thenReturn(List.of(privada));
 
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-PRIV", EMAIL_USUARIO, ROLE_USUARIO));
 
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(), eq(ContenidoFavorito.class));
     }
 
     @Test
@@ -68,7 +72,7 @@ class TDD_ContenidosFavoritosTest {
     void addFavorito_forbidden_gestor() {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-999", EMAIL_GESTOR, ROLE_GESTOR));
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(), eq(ContenidoFavorito.class));
         verifyNoInteractions(listaPublicaDAO);
     }
 
@@ -77,24 +81,24 @@ class TDD_ContenidosFavoritosTest {
     void addFavorito_forbidden_admin() {
         assertThrows(AccessDeniedException.class,
             () -> service.addFavorito("CNT-777", EMAIL_ADMIN, ROLE_ADMIN));
-        verify(mongoTemplate, never()).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(mongoTemplate, never()).upsert(any(Query.class), any(), eq(ContenidoFavorito.class));
         verifyNoInteractions(listaPublicaDAO);
     }
 
     @Test
-    @DisplayName("removeFavorito -> idempotente ($pull); no falla si no estaba")
+    @DisplayName("removeFavorito -> idempotente (borra la relación); no falla si no estaba")
     void removeFavorito_ok() {
         service.removeFavorito("CNT-XYZ", EMAIL_USUARIO);
-        verify(mongoTemplate, times(1)).updateFirst(any(Query.class), any(), eq(Contenido.class));
+        verify(mongoTemplate, times(1)).remove(any(Query.class), eq(ContenidoFavorito.class));
     }
 
     @Test
     @DisplayName("listFavoritosIds -> devuelve IDs en el orden obtenido")
     void listFavoritos_returnsIds() {
-        Contenido cA = mock(Contenido.class); when(cA.getId()).thenReturn("C3");
-        Contenido cB = mock(Contenido.class); when(cB.getId()).thenReturn("C2");
-        Contenido cC = mock(Contenido.class); when(cC.getId()).thenReturn("C1");
-        when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenReturn(List.of(cA, cB, cC));
+        when(mongoTemplate.find(any(Query.class), eq(ContenidoFavorito.class))).thenReturn(List.of(
+                new ContenidoFavorito("C3", EMAIL_USUARIO),
+                new ContenidoFavorito("C2", EMAIL_USUARIO),
+                new ContenidoFavorito("C1", EMAIL_USUARIO)));
 
         List<String> ids = service.listFavoritosIds(EMAIL_USUARIO);
 
@@ -0,0 +1,178 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import org.bson.Document;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ReproduccionesTramo;
+import com.EsiMediaG03.model.ReproduccionesTramo.Granularidad;
+import com.EsiMediaG03.services.TendenciasReproducciones;
+
+@ExtendWith(MockitoExtension.class)
+class TendenciasReproduccionesTest {
+
+    private static final LocalDateTime T0 = LocalDateTime.of(2025, 3, 10, 12, 30);
+    private static final long HORA = 3_600_000L;
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock BulkOperations bulk;
+
+    private final Map<String, Contenido> catalogo = new HashMap<>();
+    private TendenciasReproducciones tendencias;
+
+    @BeforeEach
+    void setUp() {
+        tendencias = new TendenciasReproducciones(mongoTemplate, 24, 2, 7);
+        lenient().when(mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, ReproduccionesTramo.class))
+                .thenReturn(bulk);
+        lenient().when(mongoTemplate.find(any(Query.class), eq(Contenido.class))).thenAnswer(inv -> {
+            Query q = inv.getArgument(0);
+            Collection<?> ids = (Collection<?>) ((Document) q.getQueryObject().get("_id")).get("$in");
+            return ids.stream().map(catalogo::get).filter(c -> c != null).toList();
+        });
+        alta("A", Contenido.Tipo.VIDEO);
+        alta("B", Contenido.Tipo.VIDEO);
+        alta("C", Contenido.Tipo.VIDEO);
+        alta("P", Contenido.Tipo.AUDIO);
+    }
+
+    private void alta(String id, Contenido.Tipo tipo) {
+        Contenido c = new Contenido();
+        c.setId(id);
+        c.setTitulo("T" + id);
+        c.setTipo(tipo);
+        catalogo.put(id, c);
+    }
+
+    private static long ms(LocalDateTime t) {
+        return t.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    private static ReproduccionesTramo tramo(String id, Granularidad g, LocalDateTime inicio, long n) {
+        ReproduccionesTramo t = new ReproduccionesTramo();
+        t.setContenidoId(id);
+        t.setTipo(Contenido.Tipo.VIDEO);
+        t.setGranularidad(g);
+        t.setInicio(inicio);
+        t.setReproducciones(n);
+        return t;
+    }
+
+    private void sinTramos() {
+        when(mongoTemplate.stream(any(Query.class), eq(ReproduccionesTramo.class))).thenReturn(Stream.empty());
+    }
+
+    private List<Object> ids(Contenido.Tipo tipo, long ahora) {
+        return tendencias.tendencias(tipo, 10, ahora).stream().map(m -> m.get("id")).toList();
+    }
+
+    @Test
+    void lo_reciente_supera_a_un_exito_antiguo() {
+        sinTramos();
+        long t0 = ms(T0);
+        tendencias.tendencias(Contenido.Tipo.VIDEO, 10, t0);
+
+        tendencias.reproduccionesAplicadas(Map.of("A", 10L), t0);
+        tendencias.reproduccionesAplicadas(Map.of("B", 5L), t0 + 48 * HORA);
+
+        List<Map<String, Object>> top = tendencias.tendencias(Contenido.Tipo.VIDEO, 10, t0 + 48 * HORA);
+        assertEquals(List.of("B", "A"), top.stream().map(m -> m.get("id")).toList());
+        assertEquals(5.0, (double) top.get(0).get("puntuacion"), 1e-9);
+        // dos semividas: 10 reproducciones valen 2.5
+        assertEquals(2.5, (double) top.get(1).get("puntuacion"), 1e-9);
+        assertEquals("TB", top.get(0).get("titulo"));
+    }
+
+    @Test
+    void top_acotado_por_tipo_e_incremental() {
+        sinTramos();
+        long t0 = ms(T0);
+        tendencias.tendencias(Contenido.Tipo.VIDEO, 10, t0);
+
+        tendencias.reproduccionesAplicadas(Map.of("A", 3L, "B", 2L, "C", 1L, "P", 1L), t0);
+        assertEquals(List.of("A", "B"), ids(Contenido.Tipo.VIDEO, t0));
+        assertEquals(List.of("P"), ids(Contenido.Tipo.AUDIO, t0));
+
+        // C estaba fuera del top (k=2): entra al recibir reproducciones y saca a B
+        tendencias.reproduccionesAplicadas(Map.of("C", 4L), t0);
+        assertEquals(List.of("C", "A"), ids(Contenido.Tipo.VIDEO, t0));
+
+        // al borrar un contenido del top entra el mejor de los que estaban fuera
+        tendencias.contenidoEliminado("C");
+        assertEquals(List.of("A", "B"), ids(Contenido.Tipo.VIDEO, t0));
+    }
+
+    @Test
+    void cada_volcado_suma_un_tramo_por_hora_y_otro_por_dia() {
+        sinTramos();
+        long t0 = ms(T0);
+        tendencias.tendencias(Contenido.Tipo.VIDEO, 10, t0);
+
+        tendencias.reproduccionesAplicadas(Map.of("A", 7L), t0);
+
+        ArgumentCaptor<Query> qs = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> us = ArgumentCaptor.forClass(Update.class);
+        verify(bulk, times(2)).upsert(qs.capture(), us.capture());
+        assertEquals("A:HORA:2025031012", qs.getAllValues().get(0).getQueryObject().get("_id"));
+        assertEquals("A:DIA:2025031000", qs.getAllValues().get(1).getQueryObject().get("_id"));
+        assertEquals(7L, ((Document) us.getValue().getUpdateObject().get("$inc")).get("reproducciones"));
+        verify(bulk).execute();
+    }
+
+    @Test
+    void arranque_reconstruye_desde_los_tramos_y_descarta_borrados() {
+        long ahora = ms(T0);
+        when(mongoTemplate.stream(any(Query.class), eq(ReproduccionesTramo.class))).thenReturn(Stream.of(
+                tramo("A", Granularidad.HORA, T0.withMinute(0).minusHours(1), 4),
+                tramo("B", Granularidad.DIA, T0.toLocalDate().atStartOfDay().minusDays(4), 100),
+                tramo("BORRADO", Granularidad.HORA, T0.withMinute(0), 1000)));
+
+        List<Map<String, Object>> top = tendencias.tendencias(Contenido.Tipo.VIDEO, 10, ahora);
+
+        assertEquals(List.of("B", "A"), top.stream().map(m -> m.get("id")).toList());
+        // el tramo diario pesa como si fuera a mediodía de hace cuatro días
+        assertEquals(100 * Math.pow(2, -(ahora - ms(T0.toLocalDate().atStartOfDay().minusDays(4).plusHours(12)))
+                / (24.0 * HORA)), (double) top.get(0).get("puntuacion"), 1e-9);
+    }
+
+    @Test
+    void mantener_rebasa_sin_cambiar_las_puntuaciones() {
+        sinTramos();
+        long t0 = ms(T0);
+        tendencias.tendencias(Contenido.Tipo.VIDEO, 10, t0);
+        tendencias.reproduccionesAplicadas(Map.of("A", 8L), t0);
+
+        double antes = (double) tendencias.tendencias(Contenido.Tipo.VIDEO, 1, t0 + 24 * HORA).get(0).get("puntuacion");
+        tendencias.mantener(t0 + 24 * HORA);
+        double despues = (double) tendencias.tendencias(Contenido.Tipo.VIDEO, 1, t0 + 24 * HORA).get(0).get("puntuacion");
+
+        assertEquals(4.0, antes, 1e-9);
+        assertEquals(antes, despues, 1e-9);
+        verify(mongoTemplate).remove(any(Query.class), eq(ReproduccionesTramo.class));
+    }
+}
@@ -0,0 +1,228 @@
+package com.EsiMediaG03.EsiMediaContenidosG03;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.bson.Document;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.condition.EnabledIfSystemProperty;
+import org.junit.jupiter.api.extension.ExtendWith;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.AggregationUpdate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.EsiMediaG03.exceptions.ContenidoException;
+import com.EsiMediaG03.model.Contenido;
+import com.EsiMediaG03.model.ContenidoReproductor;
+import com.EsiMediaG03.services.ContenidoService;
+import com.EsiMediaG03.services.EstadisticasTops;
+import com.EsiMediaG03.services.ReproduccionesBuffer;
+import com.EsiMediaG03.services.TarjetasCache;
+import com.mongodb.client.MongoClient;
+import com.mongodb.client.MongoClients;
+
+/**
+ * Lanza miles de valoraciones en paralelo a través de rateContenido: cada usuario
+ * lo intenta dos veces y solo una puede contar. El recorrido es la puerta
+ * (findAndModify sobre la relación), el findAndModify con pipeline sobre el
+ * contenido y, si este falla, el $unset que retira la puntuación.
+ * La primera prueba usa un MongoTemplate en memoria con atomicidad por documento
+ * y fallos inyectados en la media; la segunda, un Mongo real:
+ * mvn test -Dtest=ValoracionConcurrenteTest -Dvaloracion.mongo.uri=mongodb://localhost:27017
+ */
+@ExtendWith(MockitoExtension.class)
+class ValoracionConcurrenteTest {
+
+    private static final int USUARIOS = Integer.getInteger("valoracion.usuarios", 4000);
+    private static final int INTENTOS_POR_USUARIO = 2;
+    private static final int FALLO_CADA = 7;
+
+    @Mock MongoTemplate mongoTemplate;
+    @Mock ReproduccionesBuffer reproduccionesBuffer;
+    @Mock EstadisticasTops estadisticasTops;
+    @Mock TarjetasCache tarjetasCache;
+    @InjectMocks ContenidoService service;
+
+    /** Relaciones de reproducción de C1 por email; todos los usuarios han reproducido. */
+    private final Map<String, Document> relaciones = new ConcurrentHashMap<>();
+    private final Document contenido = new Document("_id", "C1");
+
+    private record Resultado(int aceptadas, int rechazadas, int fallos) {}
+
+    @Test
+    void valoraciones_concurrentes_dan_la_media_exacta() throws Exception {
+        // documento anterior al cambio: tiene media y contador pero no ratingSuma
+        contenido.append("ratingAvg", 4.0).append("ratingCount", 10);
+        for (int i = 0; i < USUARIOS; i++) relaciones.put(email(i), new Document("userEmail", email(i)));
+        stubPuerta();
+        stubMediaConFallos();
+        stubRetirada();
+
+        Resultado r = valorarEnParalelo(service);
+
+        List<Double> puntuaciones = relaciones.values().stream()
+                .filter(d -> d.get("puntuacion") != null)
+                .map(d -> ((Number) d.get("puntuacion")).doubleValue()).toList();
+        // cada valoración aceptada está en una relación y en el agregado una sola vez
+        assertEquals(r.aceptadas(), puntuaciones.size());
+        assertTrue(r.fallos() > 0);
+        assertEquals(USUARIOS * INTENTOS_POR_USUARIO, r.aceptadas() + r.rechazadas() + r.fallos());
+        comprobarAgregado(contenido, puntuaciones);
+    }
+
+    @Test
+    @EnabledIfSystemProperty(named = "valoracion.mongo.uri", matches = ".+")
+    void valoraciones_concurrentes_contra_mongo() throws Exception {
+        String db = "esimedia_valoracion_" + System.currentTimeMillis();
+        try (MongoClient client = MongoClients.create(System.getProperty("valoracion.mongo.uri"))) {
+            MongoTemplate template = new MongoTemplate(client, db);
+            try {
+                template.insert(new Document("_id", "C1").append("ratingAvg", 4.0).append("ratingCount", 10), "contenidos");
+                List<ContenidoReproductor> rels = new ArrayList<>();
+                for (int i = 0; i < USUARIOS; i++) rels.add(new ContenidoReproductor("C1", email(i)));
+                template.insertAll(rels);
+                ContenidoService real = new ContenidoService(null, template, null, null, null,
+                        mock(ReproduccionesBuffer.class), null, mock(EstadisticasTops.class), null, null,
+                        new TarjetasCache(100, 30));
+
+                Resultado r = valorarEnParalelo(real);
+
+                List<Double> puntuaciones = template.findAll(ContenidoReproductor.class).stream()
+                        .map(ContenidoReproductor::getPuntuacion).filter(Objects::nonNull).toList();
+                assertEquals(USUARIOS, r.aceptadas());
+                assertEquals(USUARIOS * (INTENTOS_POR_USUARIO - 1), r.rechazadas());
+                assertEquals(USUARIOS, puntuaciones.size());
+                comprobarAgregado(template.findById("C1", Document.class, "contenidos"), puntuaciones);
+            } finally {
+                client.getDatabase(db).drop();
+            }
+        }
+    }
+
+    private static String email(int i) {
+        return "u" + i + "@esi.com";
+    }
+
+    private static Resultado valorarEnParalelo(ContenidoService s) throws Exception {
+        ExecutorService pool = Executors.newFixedThreadPool(64);
+        CountDownLatch salida = new CountDownLatch(1);
+        AtomicInteger aceptadas = new AtomicInteger();
+        AtomicInteger rechazadas = new AtomicInteger();
+        AtomicInteger fallos = new AtomicInteger();
+        List<Future<?>> tareas = new ArrayList<>();
+        for (int intento = 0; intento < INTENTOS_POR_USUARIO; intento++) {
+            for (int i = 0; i < USUARIOS; i++) {
+                String email = email(i);
+                double score = 0.5 * (1 + (i + intento) % 10);
+                tareas.add(pool.submit(() -> {
+                    salida.await();
+                    try {
+                        s.rateContenido("C1", email, score);
+                        aceptadas.incrementAndGet();
+                    } catch (ContenidoException ex) {
+                        rechazadas.incrementAndGet();
+                    } catch (RuntimeException ex) {
+                        fallos.incrementAndGet();
+                    }
+                    return null;
+                }));
+            }
+        }
+        salida.countDown();
+        for (Future<?> f : tareas) f.get(60, TimeUnit.SECONDS);
+        pool.shutdown();
+        assertTrue(pool.awaitTermination(10, TimeUnit.SECONDS));
+        return new Resultado(aceptadas.get(), rechazadas.get(), fallos.get());
+    }
+
+    /**
+     * Las puntuaciones son múltiplos de 0.5, así que la suma en double es exacta en
+     * cualquier orden y la media puede compararse sin tolerancia.
+     */
+    private static void comprobarAgregado(Document c, List<Double> puntuaciones) {
+        double suma = 40.0 + puntuaciones.stream().mapToDouble(Double::doubleValue).sum();
+        int count = 10 + puntuaciones.size();
+        assertEquals(count, ((Number) c.get("ratingCount")).intValue());
+        assertEquals(suma, ((Number) c.get("ratingSuma")).doubleValue(), 0.0);
+        assertEquals(suma / count, ((Number) c.get("ratingAvg")).doubleValue(), 0.0);
+        // el histograma solo cuenta las valoraciones posteriores: las 10 antiguas no tienen cubeta
+        List<?> histograma = (List<?>) c.get("ratingHistograma");
+        int[] esperado = new int[ContenidoService.CUBETAS_VALORACION];
+        for (double p : puntuaciones) esperado[ContenidoService.cubeta(p)]++;
+        for (int i = 0; i < esperado.length; i++) assertEquals(esperado[i], ((Number) histograma.get(i)).intValue());
+        assertEquals((10 * 3.5 + suma) / (10 + count), ((Number) c.get("ratingBayes")).doubleValue(), 1e-9);
+    }
+
+    /** findAndModify sobre la relación: fija la puntuación solo si aún no la tiene. */
+    private void stubPuerta() {
+        when(mongoTemplate.findAndModify(any(Query.class), any(Update.class), eq(ContenidoReproductor.class)))
+                .thenAnswer(inv -> {
+                    String email = (String) ((Query) inv.getArgument(0)).getQueryObject().get("userEmail");
+                    Document set = (Document) ((Update) inv.getArgument(1)).getUpdateObject().get("$set");
+                    AtomicInteger ganada = new AtomicInteger();
+                    relaciones.computeIfPresent(email, (k, r) -> {
+                        if (r.get("puntuacion") != null) return r;
+                        ganada.incrementAndGet();
+                        Document nueva = new Document(r);
+                        nueva.putAll(set);
+                        return nueva;
+                    });
+                    return ganada.get() == 0 ? null : new ContenidoReproductor("C1", email);
+                });
+        when(mongoTemplate.exists(any(Query.class), eq(ContenidoReproductor.class)))
+                .thenAnswer(inv -> relaciones.containsKey(
+                        (String) ((Query) inv.getArgument(0)).getQueryObject().get("userEmail")));
+    }
+
+    /** findAndModify con pipeline, atómico sobre el documento; una de cada FALLO_CADA llamadas falla. */
+    private void stubMediaConFallos() {
+        AtomicInteger llamadas = new AtomicInteger();
+        when(mongoTemplate.findAndModify(any(Query.class), any(AggregationUpdate.class),
+                any(FindAndModifyOptions.class), eq(Contenido.class))).thenAnswer(inv -> {
+                    if (llamadas.incrementAndGet() % FALLO_CADA == 0) throw new IllegalStateException("mongo caído");
+                    synchronized (contenido) {
+                        ActualizacionMediaPipelineTest.aplicar(contenido, (AggregationUpdate) inv.getArgument(1));
+                        Contenido c = new Contenido();
+                        c.setRatingAvg(((Number) contenido.get("ratingAvg")).doubleValue());
+                        c.setRatingCount(((Number) contenido.get("ratingCount")).intValue());
+                        return c;
+                    }
+                });
+    }
+
+    /** $unset de la compensación: solo si valoradoEn sigue siendo el de ese intento. */
+    private void stubRetirada() {
+        when(mongoTemplate.updateFirst(any(Query.class), any(Update.class), eq(ContenidoReproductor.class)))
+                .thenAnswer(inv -> {
+                    Document q = ((Query) inv.getArgument(0)).getQueryObject();
+                    relaciones.computeIfPresent((String) q.get("userEmail"), (k, r) -> {
+                        if (!Objects.equals(r.get("valoradoEn"), q.get("valoradoEn"))) return r;
+                        Document limpia = new Document(r);
+                        limpia.remove("puntuacion");
+                        limpia.remove("valoradoEn");
+                        return limpia;
+                    });
+                    return null;
+                });
+    }
+}
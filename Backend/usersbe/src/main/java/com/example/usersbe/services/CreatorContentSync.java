@@ -0,0 +1,121 @@
+package com.example.usersbe.services;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.dao.DataAccessException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import com.example.usersbe.model.User;
+
+/**
+ * Los contenidos guardan una copia de la especialidad y el alias de su creador
+ * (y su email) para que las estadísticas no lean users. Cuando el creador cambia
+ * esos datos se actualizan todos sus contenidos con un único updateMulti.
+ * Antes de guardar el perfil se anotan los emails anteriores en
+ * propagaciones_creador; la anotación se borra al propagar y, si la propagación
+ * falla o no llega a hacerse, se reintenta periódicamente con los datos actuales
+ * del creador. El email de los contenidos se compara sin distinguir mayúsculas:
+ * los usuarios lo guardan en minúsculas y los contenidos, tal como llegó.
+ */
+@Service
+public class CreatorContentSync {
+
+    private static final Logger log = LoggerFactory.getLogger(CreatorContentSync.class);
+
+    private static final String CONTENIDOS = "contenidos";
+    static final String PENDIENTES = "propagaciones_creador";
+    private static final String USER_EMAIL = "userEmail";
+    private static final String EMAILS = "emails";
+    private static final String VERSION = "version";
+
+    private final MongoTemplate mongoTemplate;
+
+    public CreatorContentSync(MongoTemplate mongoTemplate) {
+        this.mongoTemplate = mongoTemplate;
+    }
+
+    private static boolean hayCambios(String emailAnterior, String especialidadAnterior, String aliasAnterior, User u) {
+        if (u.getRole() != User.Role.GESTOR_CONTENIDO || emailAnterior == null) return false;
+        return !emailAnterior.equals(u.getEmail()) || !Objects.equals(especialidadAnterior, u.getEspecialidad())
+                || !Objects.equals(aliasAnterior, u.getAlias());
+    }
+
+    /**
+     * Se llama antes de guardar el perfil. Si falla, la edición falla sin haber
+     * cambiado nada; si no, la propagación queda pendiente hasta que se complete.
+     */
+    public void anotar(String emailAnterior, String especialidadAnterior, String aliasAnterior, User u) {
+        if (!hayCambios(emailAnterior, especialidadAnterior, aliasAnterior, u)) return;
+        mongoTemplate.upsert(new Query(Criteria.where("_id").is(u.getId())), new Update()
+                .addToSet(EMAILS, emailAnterior.trim().toLowerCase(Locale.ROOT))
+                .inc(VERSION, 1)
+                .set("fecha", new Date()), PENDIENTES);
+    }
+
+    /** No hace nada si no ha cambiado ninguno de los datos copiados; si cambia alguno se reescriben todos. */
+    public void propagar(String emailAnterior, String especialidadAnterior, String aliasAnterior, User u) {
+        if (!hayCambios(emailAnterior, especialidadAnterior, aliasAnterior, u)) return;
+        try {
+            sincronizar(u, List.of(emailAnterior));
+        } catch (DataAccessException ex) {
+            // el perfil ya está guardado; la anotación sigue en propagaciones_creador y se reintenta
+            log.error("No se pudo propagar el perfil de {} a sus contenidos: {}", u.getEmail(), ex.toString());
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${users.creador.propagacion.reintento-ms:60000}")
+    public void reintentarPendientes() {
+        try {
+            for (Document p : mongoTemplate.findAll(Document.class, PENDIENTES)) {
+                User u = mongoTemplate.findById(p.get("_id"), User.class);
+                if (u == null) {
+                    mongoTemplate.remove(new Query(Criteria.where("_id").is(p.get("_id"))), PENDIENTES);
+                } else {
+                    sincronizar(u, List.of());
+                }
+            }
+        } catch (DataAccessException ex) {
+            log.warn("Propagaciones de perfil de creador pendientes: {}", ex.toString());
+        }
+    }
+
+    /**
+     * Reescribe los contenidos que estén con el email actual, con el anterior o con
+     * cualquiera de los anotados, y borra la anotación si nadie la ha ampliado entretanto.
+     */
+    private void sincronizar(User u, Collection<String> emailsAnteriores) {
+        Document pendiente = mongoTemplate.findById(u.getId(), Document.class, PENDIENTES);
+        Set<String> emails = new LinkedHashSet<>();
+        emails.add(u.getEmail());
+        emails.addAll(emailsAnteriores);
+        if (pendiente != null) emails.addAll(pendiente.getList(EMAILS, String.class, List.of()));
+
+        List<Criteria> porEmail = emails.stream().filter(Objects::nonNull)
+                .map(e -> Criteria.where(USER_EMAIL).regex("^" + Pattern.quote(e.trim()) + "$", "i")).toList();
+        Update update = new Update()
+                .set(USER_EMAIL, u.getEmail())
+                .set("especialidad", u.getEspecialidad())
+                .set("creadorAlias", u.getAlias());
+        mongoTemplate.updateMulti(new Query(new Criteria().orOperator(porEmail)), update, CONTENIDOS);
+
+        if (pendiente != null) {
+            mongoTemplate.remove(new Query(Criteria.where("_id").is(u.getId())
+                    .and(VERSION).is(pendiente.get(VERSION))), PENDIENTES);
+        }
+    }
+}
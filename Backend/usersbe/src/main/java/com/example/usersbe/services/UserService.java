@@ -41,13 +41,15 @@ public class UserService {
 
     private final UserDao userDao;
     private final EmailService emailService;
+    private final CreatorContentSync creatorContentSync;
 
     @Value("${app.superadmin.email}")
     private String superAdminEmail;
 
-    public UserService(UserDao userDao, EmailService emailService) {
+    public UserService(UserDao userDao, EmailService emailService, CreatorContentSync creatorContentSync) {
         this.userDao = userDao;
         this.emailService = emailService;
+        this.creatorContentSync = creatorContentSync;
     }
 
     private String normalizeEmail(String email) {
@@ -345,6 +347,9 @@ public class UserService {
         User u = userDao.findById(id).orElse(null);
         if (u == null) throw new UserNotFoundException(CREATOR_NOT_FOUND);
         if (u.getRole() != User.Role.GESTOR_CONTENIDO) throw new InvalidRoleException(USER_NOT_A_CREATOR);
+        String emailAnterior = u.getEmail();
+        String especialidadAnterior = u.getEspecialidad();
+        String aliasAnterior = u.getAlias();
 
         if (alias != null && !alias.isBlank()) u.setAlias(alias.trim());
         if (nombre != null) u.setNombre(nombre.trim());
@@ -354,7 +359,10 @@ public class UserService {
         if (descripcion != null) { u.setDescripcion(descripcion.trim()); } else { u.setDescripcion(null); }
         if (especialidad != null) u.setEspecialidad(especialidad.trim());
 
-        return userDao.save(u);
+        creatorContentSync.anotar(emailAnterior, especialidadAnterior, aliasAnterior, u);
+        User guardado = userDao.save(u);
+        creatorContentSync.propagar(emailAnterior, especialidadAnterior, aliasAnterior, u);
+        return guardado;
     }
 
     public User bloquearCreador(String id) {
@@ -525,6 +533,8 @@ public class UserService {
 
         User u = getUserByEmail(email);
         if (u.isBlocked()) throw new ForbiddenException("Usuario bloqueado");
+        String especialidadAnterior = u.getEspecialidad();
+        String aliasAnterior = u.getAlias();
 
         if (nombre != null) u.setNombre(nombre.trim());
         if (apellidos != null) u.setApellidos(apellidos.trim());
@@ -537,7 +547,10 @@ public class UserService {
         if (alias != null) u.setAlias(alias.trim());
         if (foto != null) u.setFoto(foto);
 
-        return userDao.save(u);
+        creatorContentSync.anotar(u.getEmail(), especialidadAnterior, aliasAnterior, u);
+        User guardado = userDao.save(u);
+        creatorContentSync.propagar(u.getEmail(), especialidadAnterior, aliasAnterior, u);
+        return guardado;
     }
 
     public User updateProfile(String email,
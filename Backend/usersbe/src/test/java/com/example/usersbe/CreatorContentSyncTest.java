@@ -0,0 +1,157 @@
+package com.example.usersbe;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import com.example.usersbe.model.User;
+import com.example.usersbe.services.CreatorContentSync;
+
+@ExtendWith(MockitoExtension.class)
+class CreatorContentSyncTest {
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private CreatorContentSync sync;
+
+    private static User creador(String email, String especialidad, String alias) {
+        User u = new User();
+        u.setId("c1");
+        u.setEmail(email);
+        u.setEspecialidad(especialidad);
+        u.setAlias(alias);
+        u.setRole(User.Role.GESTOR_CONTENIDO);
+        return u;
+    }
+
+    @Test
+    void cambio_de_email_y_especialidad_un_solo_updateMulti() {
+        sync.propagar("viejo@mail.com", "Medicina", "alias", creador("nuevo@mail.com", "Derecho", "alias"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(q.capture(), u.capture(), eq("contenidos"));
+        assertEquals(List.of("nuevo@mail.com", "viejo@mail.com"), emailsFiltrados(q.getValue()));
+        Document set = (Document) u.getValue().getUpdateObject().get("$set");
+        assertEquals("nuevo@mail.com", set.get("userEmail"));
+        assertEquals("Derecho", set.get("especialidad"));
+        assertEquals("alias", set.get("creadorAlias"));
+    }
+
+    /** Los emails del $or, que se comparan sin distinguir mayúsculas. */
+    private static List<String> emailsFiltrados(Query q) {
+        List<String> emails = new ArrayList<>();
+        for (Object c : (List<?>) q.getQueryObject().get("$or")) {
+            Pattern p = (Pattern) ((Document) c).get("userEmail");
+            assertTrue((p.flags() & Pattern.CASE_INSENSITIVE) != 0);
+            emails.add(p.pattern().replace("^\\Q", "").replace("\\E$", ""));
+        }
+        return emails;
+    }
+
+    @Test
+    void el_email_se_compara_sin_distinguir_mayusculas() {
+        sync.propagar("viejo@mail.com", null, "alias", creador("nuevo@mail.com", null, "alias"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(q.capture(), any(Update.class), eq("contenidos"));
+        Pattern viejo = (Pattern) ((Document) ((List<?>) q.getValue().getQueryObject().get("$or")).get(1)).get("userEmail");
+        assertTrue(viejo.matcher("Viejo@Mail.COM").matches());
+        assertFalse(viejo.matcher("viejoXmail.com").matches());
+    }
+
+    @Test
+    void anotar_guarda_el_email_anterior_antes_de_guardar_el_perfil() {
+        sync.anotar("Viejo@Mail.com", null, "alias", creador("nuevo@mail.com", null, "alias"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).upsert(q.capture(), u.capture(), eq("propagaciones_creador"));
+        assertEquals("c1", q.getValue().getQueryObject().get("_id"));
+        assertEquals(new Document("emails", "viejo@mail.com"), u.getValue().getUpdateObject().get("$addToSet"));
+    }
+
+    @Test
+    void propagar_incluye_los_emails_anotados_y_borra_la_anotacion_con_su_version() {
+        when(mongoTemplate.findById("c1", Document.class, "propagaciones_creador"))
+                .thenReturn(new Document("_id", "c1").append("emails", List.of("primero@mail.com")).append("version", 2));
+
+        sync.propagar("viejo@mail.com", null, "alias", creador("nuevo@mail.com", null, "alias"));
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).updateMulti(q.capture(), any(Update.class), eq("contenidos"));
+        assertEquals(List.of("nuevo@mail.com", "viejo@mail.com", "primero@mail.com"), emailsFiltrados(q.getValue()));
+        ArgumentCaptor<Query> borrado = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate).remove(borrado.capture(), eq("propagaciones_creador"));
+        assertEquals(2, borrado.getValue().getQueryObject().get("version"));
+    }
+
+    @Test
+    void reintento_propaga_con_los_datos_actuales_del_creador() {
+        when(mongoTemplate.findAll(Document.class, "propagaciones_creador"))
+                .thenReturn(List.of(new Document("_id", "c1"), new Document("_id", "borrado")));
+        when(mongoTemplate.findById("c1", User.class)).thenReturn(creador("nuevo@mail.com", "Derecho", "alias"));
+        when(mongoTemplate.findById("c1", Document.class, "propagaciones_creador"))
+                .thenReturn(new Document("_id", "c1").append("emails", List.of("viejo@mail.com")).append("version", 1));
+
+        sync.reintentarPendientes();
+
+        ArgumentCaptor<Query> q = ArgumentCaptor.forClass(Query.class);
+        ArgumentCaptor<Update> u = ArgumentCaptor.forClass(Update.class);
+        verify(mongoTemplate).updateMulti(q.capture(), u.capture(), eq("contenidos"));
+        assertEquals(List.of("nuevo@mail.com", "viejo@mail.com"), emailsFiltrados(q.getValue()));
+        assertEquals("Derecho", ((Document) u.getValue().getUpdateObject().get("$set")).get("especialidad"));
+        // la del usuario que ya no existe se descarta
+        verify(mongoTemplate, times(2)).remove(any(Query.class), eq("propagaciones_creador"));
+    }
+
+    @Test
+    void sin_cambios_o_sin_rol_de_creador_no_escribe() {
+        sync.propagar("c@mail.com", "Medicina", "alias", creador("c@mail.com", "Medicina", "alias"));
+
+        User usuario = creador("u@mail.com", "Otra", "x");
+        usuario.setRole(User.Role.USUARIO);
+        sync.propagar("u@mail.com", null, null, usuario);
+
+        verifyNoInteractions(mongoTemplate);
+    }
+
+    @Test
+    void fallo_de_mongo_no_rompe_la_edicion_y_deja_la_anotacion() {
+        when(mongoTemplate.updateMulti(any(Query.class), any(Update.class), anyString()))
+                .thenThrow(new DataAccessResourceFailureException("caído"));
+        when(mongoTemplate.findById("c1", Document.class, "propagaciones_creador"))
+                .thenReturn(new Document("_id", "c1").append("emails", List.of("c@mail.com")).append("version", 1));
+
+        sync.propagar("c@mail.com", null, "alias", creador("c@mail.com", "Medicina", "alias"));
+
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq("contenidos"));
+        verify(mongoTemplate, never()).remove(any(Query.class), anyString());
+    }
+}
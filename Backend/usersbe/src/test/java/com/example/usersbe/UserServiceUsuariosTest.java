@@ -3,6 +3,7 @@ package com.example.usersbe;
 import com.example.usersbe.dao.UserDao;
 import com.example.usersbe.exceptions.*;
 import com.example.usersbe.model.User;
+import com.example.usersbe.services.CreatorContentSync;
 import com.example.usersbe.services.EmailService;
 import com.example.usersbe.services.UserService;
 import jakarta.mail.MessagingException;
@@ -31,6 +32,9 @@ class UserServiceExtraTest {
     @Mock
     private EmailService emailService;
 
+    @Mock
+    private CreatorContentSync creatorContentSync;
+
     @InjectMocks
     private UserService userService;
 
@@ -219,6 +223,11 @@ class UserServiceExtraTest {
         assertEquals("new@mail.com", res.getEmail());
         assertEquals("desc", res.getDescripcion());
         assertEquals("esp", res.getEspecialidad());
+        // la propagación se anota antes de guardar el perfil
+        var orden = inOrder(creatorContentSync, userDao);
+        orden.verify(creatorContentSync).anotar("crea@mail.com", null, "crea1", res);
+        orden.verify(userDao).save(userC);
+        orden.verify(creatorContentSync).propagar("crea@mail.com", null, "crea1", res);
     }
 
     @Test
@@ -333,6 +342,7 @@ class UserServiceExtraTest {
         assertEquals("esp", r.getEspecialidad());
         assertEquals(User.TipoContenido.VIDEO, r.getTipoContenido());
         assertEquals("foto.png", r.getFoto());
+        verify(creatorContentSync).propagar("crea@mail.com", null, "crea1", r);
 
         userC.setBlocked(true);
         when(userDao.findByEmail("crea@mail.com")).thenReturn(userC);